@@ -47,6 +47,7 @@ import io.afero.sdk.conclave.models.DeviceSync;
 import io.afero.sdk.device.DeviceCollection;
 import io.afero.sdk.device.DeviceModel;
 import io.afero.sdk.device.DeviceProfile;
+import io.afero.sdk.device.DeviceWriteLimiter;
 import io.afero.sdk.log.AfLog;
 import io.afero.sdk.utils.JSONUtils;
 import io.afero.sdk.utils.RxUtils;
@@ -65,6 +66,8 @@ import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
 import retrofit2.converter.jackson.JacksonConverterFactory;
 import rx.Observable;
 import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
 import rx.schedulers.Schedulers;
@@ -85,6 +88,7 @@ public class AferoClientRetrofit2 implements AferoClient {
     private static final String AFERO_BASE_URL = "https://api.afero.io";
 
     private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final int HTTP_LOCKED = 423; // https://tools.ietf.org/html/rfc4918#section-11.3
 
     private Config mConfig = new Config();
     private final OkHttpClient mHttpClient;
@@ -571,8 +575,24 @@ public class AferoClientRetrofit2 implements AferoClient {
      */
     @Override
     public Observable<ActionResponse> postAttributeWrite(DeviceModel deviceModel, PostActionBody body, int maxRetryCount, int statusCode) {
+        final DeviceWriteLimiter writeLimiter = deviceModel.getWriteLimiter();
         Observable<ActionResponse> observable = mAferoService.postAction(mActiveAccountId, deviceModel.getId(), body);
-        return maxRetryCount > 0 ? observable.retryWhen(new RetryOnError(maxRetryCount, statusCode)) : observable;
+        final Observable<ActionResponse> post = (maxRetryCount > 0 ? observable.retryWhen(new RetryOnError(maxRetryCount, statusCode, writeLimiter)) : observable)
+            .doOnNext(new Action1<ActionResponse>() {
+                @Override
+                public void call(ActionResponse actionResponse) {
+                    writeLimiter.onSuccess();
+                }
+            });
+
+        // the first attempt is paced like a batch write, which also credits the shared retry budget
+        return Observable.defer(new Func0<Observable<ActionResponse>>() {
+            @Override
+            public Observable<ActionResponse> call() {
+                final long waitMillis = writeLimiter.reserve();
+                return waitMillis > 0 ? post.delaySubscription(waitMillis, TimeUnit.MILLISECONDS) : post;
+            }
+        });
     }
 
     /**
@@ -587,7 +607,7 @@ public class AferoClientRetrofit2 implements AferoClient {
     @Override
     public Observable<WriteResponse[]> postBatchAttributeWrite(DeviceModel deviceModel, WriteRequest[] body, int maxRetryCount, int statusCode) {
         Observable<WriteResponse[]> observable = mAferoService.postDeviceRequest(mActiveAccountId, deviceModel.getId(), body);
-        return maxRetryCount > 0 ? observable.retryWhen(new RetryOnError(maxRetryCount, statusCode)) : observable;
+        return maxRetryCount > 0 ? observable.retryWhen(new RetryOnError(maxRetryCount, statusCode, deviceModel.getWriteLimiter())) : observable;
     }
 
     /**
@@ -1057,10 +1077,16 @@ public class AferoClientRetrofit2 implements AferoClient {
 
         private int mMaxRetryCount;
         private int mRetryOnStatus;
+        private DeviceWriteLimiter mWriteLimiter;
 
-        public RetryOnError(int maxRetryCount, int retryOnStatus) {
+        public RetryOnError(int maxRetryCount, int retryOnStatus, DeviceWriteLimiter writeLimiter) {
             mMaxRetryCount = maxRetryCount;
             mRetryOnStatus = retryOnStatus;
+            mWriteLimiter = writeLimiter;
+        }
+
+        public RetryOnError(int maxRetryCount, int retryOnStatus) {
+            this(maxRetryCount, retryOnStatus, null);
         }
 
         public RetryOnError(int maxRetryCount) {
@@ -1084,7 +1110,21 @@ public class AferoClientRetrofit2 implements AferoClient {
                         AfLog.e("RetryOnError: retry=" + retry.retryCount + " '" + retry.throwable.getMessage() + "' status=" + status);
 
                         if (mRetryOnStatus == 0 || mRetryOnStatus == status) {
-                            return Observable.timer(retry.retryCount, TimeUnit.SECONDS);
+                            if (mWriteLimiter == null) {
+                                return Observable.timer(retry.retryCount, TimeUnit.SECONDS);
+                            }
+
+                            if (status == HTTP_LOCKED) {
+                                mWriteLimiter.onLocked();
+                            }
+
+                            // backoff paced by the device's limiter, unless the shared budget is spent
+                            final long delayMillis = mWriteLimiter.reserveRetry(retry.retryCount);
+                            if (delayMillis >= 0) {
+                                return Observable.timer(delayMillis, TimeUnit.MILLISECONDS);
+                            }
+
+                            AfLog.e("RetryOnError: retry budget exhausted");
                         }
                     }
 
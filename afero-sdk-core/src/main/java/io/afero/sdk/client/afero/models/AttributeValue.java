@@ -13,6 +13,11 @@ import java.nio.charset.StandardCharsets;
 import io.afero.sdk.log.AfLog;
 import io.afero.sdk.utils.HexUtils;
 
+/**
+ * Value of a device attribute. Integer types are held in a {@code long} and floating point types
+ * in a {@code double} where that reproduces the value exactly; fixed point types, and values that
+ * don't fit, are held in a {@link BigDecimal}.
+ */
 public class AttributeValue implements Comparable<AttributeValue> {
 
     public enum DataType {
@@ -40,8 +45,19 @@ public class AttributeValue implements Comparable<AttributeValue> {
     private static final BigDecimal Q_16_FACTOR = BigDecimal.valueOf(65536);
     private static final BigDecimal Q_32_FACTOR = BigDecimal.valueOf(4294967296L);
 
+    // which of the primitive fields holds the numeric value; mNumericValue is null unless NONE
+    private static final byte PRIMITIVE_NONE = 0;
+    private static final byte PRIMITIVE_LONG = 1;
+    private static final byte PRIMITIVE_DOUBLE = 2;
+
+    // longest run of decimal digits that always fits in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
     private Boolean mBooleanValue;
     private BigDecimal mNumericValue;
+    private byte mPrimitive = PRIMITIVE_NONE;
+    private long mLongValue;
+    private double mDoubleValue;
     private String mStringValue;
     private byte[] mByteArrayValue;
 
@@ -60,8 +76,8 @@ public class AttributeValue implements Comparable<AttributeValue> {
                 break;
 
             case BOOLEAN:
-                if (value.matches("\\d+")) {
-                    mBooleanValue = new BigDecimal(value).compareTo(BigDecimal.ZERO) != 0;
+                if (isDigits(value, 0, value.length())) {
+                    mBooleanValue = hasNonZeroDigit(value);
                 } else {
                     mBooleanValue = Boolean.valueOf(value);
                 }
@@ -75,21 +91,25 @@ public class AttributeValue implements Comparable<AttributeValue> {
             case SINT16:
             case SINT32:
             case SINT64:
+                if (parseLong(value)) {
+                    break;
+                }
+                setNumericValue(value);
+                break;
+
             case FLOAT32:
             case FLOAT64:
+                if (parseDouble(value)) {
+                    break;
+                }
+                setNumericValue(value);
+                break;
+
             case FIXED_16_16:
             case FIXED_32_32:
             case Q_15_16:
             case Q_31_32:
-                try {
-                    if (value.startsWith("0x")) {
-                        mNumericValue = new BigDecimal(Long.decode(value));
-                    } else {
-                        mNumericValue = new BigDecimal(value);
-                    }
-                } catch (NumberFormatException e) {
-                    mStringValue = value;
-                }
+                setNumericValue(value);
                 break;
 
             case UTF8S:
@@ -121,22 +141,22 @@ public class AttributeValue implements Comparable<AttributeValue> {
 
             case UINT8:
             case SINT8:
-                mNumericValue = new BigDecimal(bb.get());
+                setLongValue(bb.get());
                 break;
 
             case UINT16:
             case SINT16:
-                mNumericValue = new BigDecimal(bb.getShort());
+                setLongValue(bb.getShort());
                 break;
 
             case UINT32:
             case SINT32:
-                mNumericValue = new BigDecimal(bb.getInt());
+                setLongValue(bb.getInt());
                 break;
 
             case UINT64:
             case SINT64:
-                mNumericValue = new BigDecimal(bb.getLong());
+                setLongValue(bb.getLong());
                 break;
 
             case FLOAT32:
@@ -179,6 +199,7 @@ public class AttributeValue implements Comparable<AttributeValue> {
 
     public void setValue(BigDecimal value) {
         mNumericValue = value;
+        mPrimitive = PRIMITIVE_NONE;
     }
 
     public void setValue(String value) {
@@ -189,6 +210,12 @@ public class AttributeValue implements Comparable<AttributeValue> {
         if (mBooleanValue != null) {
             return mBooleanValue;
         }
+        else if (mPrimitive == PRIMITIVE_LONG) {
+            return mLongValue != 0;
+        }
+        else if (mPrimitive == PRIMITIVE_DOUBLE) {
+            return mDoubleValue != 0;
+        }
         else if (mNumericValue != null) {
             return mNumericValue.compareTo(BigDecimal.ZERO) != 0;
         }
@@ -228,7 +255,13 @@ public class AttributeValue implements Comparable<AttributeValue> {
             case FIXED_32_32:
             case Q_15_16:
             case Q_31_32:
-                return mNumericValue.compareTo(value.numericValue());
+                if (mPrimitive == PRIMITIVE_LONG && value.mPrimitive == PRIMITIVE_LONG) {
+                    return mLongValue < value.mLongValue ? -1 : (mLongValue > value.mLongValue ? 1 : 0);
+                }
+                if (mPrimitive == PRIMITIVE_DOUBLE && value.mPrimitive == PRIMITIVE_DOUBLE) {
+                    return mDoubleValue < value.mDoubleValue ? -1 : (mDoubleValue > value.mDoubleValue ? 1 : 0);
+                }
+                return numericValue().compareTo(value.numericValue());
 
             case UTF8S:
                 return mStringValue.compareTo(value.toString());
@@ -241,6 +274,14 @@ public class AttributeValue implements Comparable<AttributeValue> {
     }
 
     public BigDecimal numericValue() {
+        if (mPrimitive == PRIMITIVE_LONG) {
+            return BigDecimal.valueOf(mLongValue);
+        }
+        if (mPrimitive == PRIMITIVE_DOUBLE) {
+            // the double was parsed from its canonical string, so this matches new BigDecimal(string)
+            return BigDecimal.valueOf(mDoubleValue);
+        }
+
         if (mNumericValue == null) {
             if (mStringValue != null && !mStringValue.isEmpty()) {
                 try {
@@ -261,12 +302,54 @@ public class AttributeValue implements Comparable<AttributeValue> {
         return mNumericValue != null ? mNumericValue : BigDecimal.ZERO;
     }
 
+    /**
+     * Equivalent to {@code numericValue().longValue()}, without allocating if the value is held
+     * as a primitive.
+     */
+    public long longValue() {
+        if (mPrimitive == PRIMITIVE_LONG) {
+            return mLongValue;
+        }
+        if (mPrimitive == PRIMITIVE_DOUBLE) {
+            return (long)mDoubleValue;
+        }
+        return numericValue().longValue();
+    }
+
+    /**
+     * Equivalent to {@code numericValue().doubleValue()}, without allocating if the value is held
+     * as a primitive.
+     */
+    public double doubleValue() {
+        if (mPrimitive == PRIMITIVE_LONG) {
+            return mLongValue;
+        }
+        if (mPrimitive == PRIMITIVE_DOUBLE) {
+            return mDoubleValue;
+        }
+        return numericValue().doubleValue();
+    }
+
+    /**
+     * @return true if the numeric value is held as a {@code long}, in which case
+     * {@link #longValue()} is exact
+     */
+    public boolean hasLongValue() {
+        return mPrimitive == PRIMITIVE_LONG;
+    }
+
     public String toString() {
         String s;
 
         if (mStringValue != null) {
             s = mStringValue;
         }
+        else if (mPrimitive == PRIMITIVE_LONG) {
+            s = Long.toString(mLongValue);
+        }
+        else if (mPrimitive == PRIMITIVE_DOUBLE) {
+            s = Double.toString(mDoubleValue);
+        }
         else if (mNumericValue != null) {
             s = mNumericValue.toString();
         }
@@ -290,6 +373,26 @@ public class AttributeValue implements Comparable<AttributeValue> {
             bb.order(ByteOrder.LITTLE_ENDIAN);
         }
 
+        if (mPrimitive == PRIMITIVE_LONG) {
+            switch (mDataType) {
+                case UINT8:
+                case SINT8:
+                    return bb.put((byte)mLongValue);
+
+                case UINT16:
+                case SINT16:
+                    return bb.putShort((short)mLongValue);
+
+                case UINT32:
+                case SINT32:
+                    return bb.putInt((int)mLongValue);
+
+                case UINT64:
+                case SINT64:
+                    return bb.putLong(mLongValue);
+            }
+        }
+
         BigDecimal value = numericValue();
 
         switch (mDataType) {
@@ -395,6 +498,106 @@ public class AttributeValue implements Comparable<AttributeValue> {
         return -1;
     }
 
+    private void setLongValue(long value) {
+        mLongValue = value;
+        mPrimitive = PRIMITIVE_LONG;
+    }
+
+    private void setNumericValue(String value) {
+        try {
+            if (value.startsWith("0x")) {
+                mNumericValue = new BigDecimal(Long.decode(value));
+            } else {
+                mNumericValue = new BigDecimal(value);
+            }
+        } catch (NumberFormatException e) {
+            mStringValue = value;
+        }
+    }
+
+    // plain decimal and 0x hex integers; anything else is left to BigDecimal
+    private boolean parseLong(String value) {
+        if (value.startsWith("0x")) {
+            // 15 hex digits always fit; longer values may overflow, which Long.decode rejects
+            if (value.length() > 2 && value.length() <= 2 + 15 && isHexDigits(value, 2)) {
+                setLongValue(Long.parseLong(value.substring(2), 16));
+                return true;
+            }
+            return false;
+        }
+
+        final int start = value.startsWith("-") ? 1 : 0;
+        final int length = value.length() - start;
+        if (length > MAX_LONG_DIGITS || !isDigits(value, start, value.length())) {
+            return false;
+        }
+
+        long result = 0;
+        for (int i = start, n = value.length(); i < n; ++i) {
+            result = result * 10 + (value.charAt(i) - '0');
+        }
+        setLongValue(start == 0 ? result : -result);
+
+        return true;
+    }
+
+    // only accepts strings that Double.toString reproduces exactly, so toString() is unchanged
+    private boolean parseDouble(String value) {
+        final int dot = value.indexOf('.');
+        if (dot <= 0 || value.length() > 24) {
+            return false;
+        }
+
+        final int start = value.startsWith("-") ? 1 : 0;
+        if (!isDigits(value, start, dot) || !isDigits(value, dot + 1, value.length())) {
+            return false;
+        }
+
+        final double d = Double.parseDouble(value);
+        if (!Double.toString(d).equals(value)) {
+            return false;
+        }
+
+        mDoubleValue = d;
+        mPrimitive = PRIMITIVE_DOUBLE;
+
+        return true;
+    }
+
+    // true if s has at least one character in [start, end) and all of them are decimal digits
+    private static boolean isDigits(String s, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+
+        for (int i = start; i < end; ++i) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHexDigits(String s, int start) {
+        for (int i = start, n = s.length(); i < n; ++i) {
+            final char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasNonZeroDigit(String s) {
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            if (s.charAt(i) != '0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static boolean isNumericType(DataType type) {
         switch (type) {
             case UNKNOWN:
@@ -11,6 +11,12 @@ import java.io.InputStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+/**
+ * @deprecated Not used by {@link ConclaveClient}; compression is handled by a pooled
+ * {@link java.util.zip.Inflater}/{@link java.util.zip.Deflater} stage that is reused across
+ * reconnects. See {@link ConclaveClient#getCompressionStats()}.
+ */
+@Deprecated
 public class CompressedInputStream extends FilterInputStream {
     /**
      * Buffer of compressed data read from the stream
@@ -9,6 +9,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 
+/**
+ * @deprecated Not used by {@link ConclaveClient}; compression is handled by a pooled
+ * {@link java.util.zip.Inflater}/{@link java.util.zip.Deflater} stage that is reused across
+ * reconnects. See {@link ConclaveClient#getCompressionStats()}.
+ */
+@Deprecated
 public class CompressedOutputStream extends FilterOutputStream {
     /**
      * Buffer for input data
@@ -4,27 +4,22 @@
 
 package io.afero.sdk.conclave;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
-import java.util.Locale;
-import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
@@ -34,6 +29,7 @@ import javax.net.ssl.SSLSocketFactory;
 import io.afero.sdk.client.afero.models.ConclaveAccessDetails;
 import io.afero.sdk.log.AfLog;
 import io.afero.sdk.utils.JSONUtils;
+import io.afero.sdk.utils.RxUtils;
 import rx.Observable;
 import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
@@ -46,8 +42,17 @@ public class ConclaveClient {
     public static final int ERROR_CODE_INVALID_TOKEN = 906;
 
     private static final int RETRY_MAX = 20;
-    private static final int HEARBEAT_TIMEOUT_DEFAULT = 270;
-    private static final int HEARTBEAT_TIMEOUT_EXTRA = 15;
+
+    private static final Executor sWriteExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ConclaveClient-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    static final int HEARBEAT_TIMEOUT_DEFAULT = 270;
+    static final int HEARTBEAT_TIMEOUT_EXTRA = 15;
 
     public enum Status {
         CONNECTING,
@@ -58,34 +63,46 @@ public class ConclaveClient {
 
     private String mHost = DEFAULT_HOST;
     private int mPort = DEFAULT_PORT;
-    private boolean mUseCompression = true;
-    private boolean mUseSSL = true;
-    private int mRetryDelay;
+    private volatile boolean mUseCompression = true;
+    private volatile boolean mUseSSL = true;
+    private volatile int mRetryDelay;
 
     private String mServerVersion;
     private int mSessionId;
 
     private Socket mSocket;
     private final Object mSocketLock = new Object();
-    private PrintWriter mWriter;
-    private BufferedReader mReader;
+    private volatile OutputStream mOutputStream;
+    private InputStream mInputStream;
+    private volatile ConclaveCompressionStats mCompressionStats;
     private ReaderThread mReaderThread;
     private PublishSubject<JsonNode> mMessageSubject = PublishSubject.create();
+    private PublishSubject<ConclaveEvent> mEventSubject = PublishSubject.create();
     private PublishSubject<Status> mStatusSubject = PublishSubject.create();
+    private final ConclaveMessageDecoder mDecoder = new ConclaveMessageDecoder();
+    private final ConclaveOutboundQueue mOutboundQueue;
+    private final ConclaveLineFramer mFramer = new ConclaveLineFramer(new ConclaveLineFramer.Handler() {
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) throws IOException {
+            if (AfLog.isLoggable(AfLog.FilterLevel.INFO)) {
+                AfLog.i("ConclaveClient: readLine=" + new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+
+            readEvent(bytes, offset, length);
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            AfLog.i("ConclaveClient: readLine=<empty> (heartbeat)");
+            sendHeartbeatReply();
+        }
+    });
     private final Object mConnectLock = new Object();
 
     public synchronized Observable<ConclaveClient> connect(ConclaveAccessDetails cad) {
         mRetryDelay = 0;
 
-        if (cad.conclaveHosts != null) {
-            for (ConclaveAccessDetails.ConclaveHost ch : cad.conclaveHosts) {
-                if ("socket".equals(ch.type)) {
-                    mHost = ch.host;
-                    mPort = ch.port;
-                    break;
-                }
-            }
-        }
+        selectHost(cad);
 
         if (mReaderThread != null) {
             close();
@@ -97,8 +114,7 @@ public class ConclaveClient {
 
                 synchronized (mConnectLock) {
                     if (!isConnected()) {
-                        openSocket();
-                        readloop();
+                        readloop(openSocket());
                     }
                 }
 
@@ -107,36 +123,86 @@ public class ConclaveClient {
         }).subscribeOn(Schedulers.io());
     }
 
-    public synchronized void write(Object message) {
-        try {
-            String s = JSONUtils.writeValueAsString(message);
-            AfLog.i("ConclaveClient.write: " + s);
-            mWriter.println(s);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+    public ConclaveClient() {
+        this(sWriteExecutor);
+    }
+
+    ConclaveClient(Executor writeExecutor) {
+        mOutboundQueue = new ConclaveOutboundQueue(ConclaveOutboundQueue.DEFAULT_CAPACITY, writeExecutor,
+            new ConclaveOutboundQueue.Transport() {
+                @Override
+                public OutputStream getOutputStream() {
+                    return getOutboundStream();
+                }
+
+                @Override
+                public void onWriteError(IOException e) {
+                    onOutboundError(e);
+                }
+            });
+    }
+
+    /**
+     * Queues a message to be sent to the server. This never blocks; if the outbound queue
+     * is full the message is dropped.
+     */
+    public void write(Object message) {
+        if (!mOutboundQueue.offer(message)) {
+            AfLog.w("ConclaveClient.write: outbound queue full, dropping message");
         }
     }
 
-    public void login(String accountId, String userId, String mobileDeviceId, String token, String type, boolean trace) {
-        write(new ConclaveMessage.Login(accountId, userId, mobileDeviceId, token, type, CLIENT_VERSION, trace));
+    /**
+     * Queues a message that the session can't work without. These may use capacity that
+     * {@link #write(Object)} can't, so they are only dropped if that reserve is full too.
+     *
+     * @return false if the message was dropped
+     */
+    boolean writeControl(Object message) {
+        if (!mOutboundQueue.offerControl(message)) {
+            AfLog.e("ConclaveClient.writeControl: outbound queue full, dropping message");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the login couldn't be queued, in which case the session will never be
+     * authenticated and should be closed
+     */
+    public boolean login(String accountId, String userId, String mobileDeviceId, String token, String type, boolean trace) {
+        return writeControl(new ConclaveMessage.Login(accountId, userId, mobileDeviceId, token, type, CLIENT_VERSION, trace));
+    }
+
+    /**
+     * Asks the server to resend the full device snapshot.
+     *
+     * @return false if the request couldn't be queued
+     */
+    public boolean requestSnapshot() {
+        return writeControl(new ConclaveMessage.Say("snapshot?", null));
     }
 
     public void say(String event, Object data) {
         write(new ConclaveMessage.Say(event, data));
     }
 
+    /**
+     * Queues a say message without blocking the subscriber.
+     *
+     * @return Observable that emits the queued message, or an IOException if the outbound queue is full
+     */
     public Observable<ConclaveMessage.Say> sayAsync(String event, Object data) {
         ConclaveMessage.Say say = new ConclaveMessage.Say(event, data);
-        return Observable.fromCallable(new SayCallable(say))
-            .subscribeOn(Schedulers.io());
+        return Observable.fromCallable(new SayCallable(say));
     }
 
     public void whisper(int sessionId, String event, Object data) {
         write(new ConclaveMessage.Whisper(sessionId, event, data));
     }
 
-    public void bye() {
-        write(new ConclaveMessage.Bye());
+    public boolean bye() {
+        return writeControl(new ConclaveMessage.Bye());
     }
 
     public synchronized void close() {
@@ -150,7 +216,8 @@ public class ConclaveClient {
             synchronized (mSocketLock) {
                 if (mSocket != null) {
                     Observable.fromCallable(new CloseSocketCallable(mSocket))
-                            .subscribeOn(Schedulers.io());
+                            .subscribeOn(Schedulers.io())
+                            .subscribe(new RxUtils.IgnoreResponseObserver<Socket>());
                     mSocket = null;
                     isSocketClosing = true;
                 }
@@ -165,11 +232,17 @@ public class ConclaveClient {
         }
     }
 
-    private void openSocket() throws IOException {
+    /**
+     * @return the compression stage for the new session, owned by the caller, or null if
+     * compression is disabled
+     */
+    private ConclaveCompression openSocket() throws IOException {
         InetAddress address = InetAddress.getByName(mHost);
 
         mStatusSubject.onNext(Status.CONNECTING);
 
+        ConclaveCompression compression = null;
+
         synchronized (mSocketLock) {
             if (mUseSSL) {
                 AfLog.i("ConclaveClient: Starting SSL connection to " + mHost + ":" + mPort);
@@ -184,15 +257,23 @@ public class ConclaveClient {
             InputStream is = mSocket.getInputStream();
 
             if (mUseCompression) {
-                is = new StreamingInflaterInputStream(is);
-                os = new DeflaterOutputStream(os, true);
+                compression = ConclaveCompression.acquire();
+                mCompressionStats = compression.getStats();
+                os = compression.newOutputStream(new BufferedOutputStream(os));
+            } else {
+                mCompressionStats = null;
+                os = new BufferedOutputStream(os);
             }
 
-            mReader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            mWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(os)), true);
+            mInputStream = is;
+            mFramer.reset();
+            mOutboundQueue.clear();
+            mOutputStream = os;
         }
 
         setHeartbeatTimeout(HEARBEAT_TIMEOUT_DEFAULT);
+
+        return compression;
     }
 
     private void closeSocket() {
@@ -200,6 +281,8 @@ public class ConclaveClient {
         mStatusSubject.onNext(Status.DISCONNECTING);
 
         synchronized (mSocketLock) {
+            mOutputStream = null;
+
             if (mSocket != null) {
                 try {
                     mSocket.close();
@@ -220,20 +303,55 @@ public class ConclaveClient {
         }
     }
 
+    /**
+     * @return byte counters for the compression stage of the current session, or null if
+     * compression is disabled or no connection has been opened yet.
+     */
+    public ConclaveCompressionStats getCompressionStats() {
+        return mCompressionStats;
+    }
+
+    /**
+     * @return the registry used to bind the {@code data} of incoming events; register custom
+     * events here to have them decoded.
+     */
+    public ConclaveEventRegistry getEventRegistry() {
+        return mDecoder.getRegistry();
+    }
+
     public Observable<Status> statusObservable() {
         return mStatusSubject;
     }
 
+    /**
+     * Raw JSON for every message received. The tree is only built while this has subscribers;
+     * prefer {@link #eventObservable()}, which skips the tree entirely.
+     */
     public Observable<JsonNode> messageObservable() {
         return mMessageSubject;
     }
 
+    /**
+     * @return Observable that emits every message received, with its payload already bound
+     * to the matching model class.
+     */
+    public Observable<ConclaveEvent> eventObservable() {
+        return mEventSubject;
+    }
+
+    /**
+     * Reads the socket and reconnects it when it drops. The thread owns the compression stage of
+     * the session it is reading and is the only one that releases it, so a codec is never handed
+     * back to the pool while it is still inflating.
+     */
     private class ReaderThread extends Thread {
 
-        public boolean mIsRunning = true;
+        public volatile boolean mIsRunning = true;
+        private ConclaveCompression mCompression;
 
-        public ReaderThread() {
+        public ReaderThread(ConclaveCompression compression) {
             super("ConclaveClient");
+            mCompression = compression;
         }
 
         public void stopRunning() {
@@ -258,7 +376,7 @@ public class ConclaveClient {
                             break;
                         }
 
-                        openSocket();
+                        mCompression = openSocket();
 
                         AfLog.i("ConclaveClient: reconnected!");
                     }
@@ -267,41 +385,117 @@ public class ConclaveClient {
                         break;
                     }
 
-                    String line = mReader.readLine();
-                    if (line != null) {
-                        if (line.length() > 0) {
-                            AfLog.i("ConclaveClient: readLine=" + line);
+                    final int count = mCompression != null
+                            ? mCompression.readFrom(mInputStream, mFramer)
+                            : mFramer.fill(mInputStream);
 
-                            JsonNode node = JSONUtils.getObjectMapper().readTree(line);
-                            readEvent(node);
-                        } else {
-                            AfLog.i("ConclaveClient: readLine=<empty> (heartbeat)");
-                            mWriter.println();
-                        }
-                    } else {
-                        throw new IOException("readLine returned null");
+                    if (count < 0) {
+                        throw new IOException("end of stream");
                     }
                 } catch (Exception e) {
                     AfLog.i("ConclaveClient: Reader died");
                     e.printStackTrace();
 
                     if (mIsRunning) {
-                        mRetryDelay = Math.max(1, Math.min(mRetryDelay * 2, RETRY_MAX));
+                        nextRetryDelay();
                         closeSocket();
+                        releaseCompression();
                     }
                 }
             }
 
+            releaseCompression();
+
             AfLog.i("ConclaveClient: reader thread exiting");
         }
+
+        private void releaseCompression() {
+            if (mCompression != null) {
+                mCompression.release();
+                mCompression = null;
+            }
+        }
     }
 
-    private void readloop() {
-        mReaderThread = new ReaderThread();
+    private void readloop(ConclaveCompression compression) {
+        mReaderThread = new ReaderThread(compression);
         mReaderThread.start();
     }
 
-    private void setHeartbeatTimeout(int timeoutInSeconds) {
+    // Hooks shared with alternative transports such as NioConclaveClient --------
+
+    void selectHost(ConclaveAccessDetails cad) {
+        if (cad.conclaveHosts != null) {
+            for (ConclaveAccessDetails.ConclaveHost ch : cad.conclaveHosts) {
+                if ("socket".equals(ch.type)) {
+                    mHost = ch.host;
+                    mPort = ch.port;
+                    break;
+                }
+            }
+        }
+    }
+
+    String getHost() {
+        return mHost;
+    }
+
+    int getPort() {
+        return mPort;
+    }
+
+    boolean isSSLEnabled() {
+        return mUseSSL;
+    }
+
+    // takes effect on the next connect; used by tests that talk to a plain local socket
+    void setSSLEnabled(boolean enabled) {
+        mUseSSL = enabled;
+    }
+
+    boolean isCompressionEnabled() {
+        return mUseCompression;
+    }
+
+    void setCompressionEnabled(boolean enabled) {
+        mUseCompression = enabled;
+    }
+
+    int getRetryDelay() {
+        return mRetryDelay;
+    }
+
+    int nextRetryDelay() {
+        mRetryDelay = Math.max(1, Math.min(mRetryDelay * 2, RETRY_MAX));
+        return mRetryDelay;
+    }
+
+    void resetRetryDelay() {
+        mRetryDelay = 0;
+    }
+
+    void setCompressionStats(ConclaveCompressionStats stats) {
+        mCompressionStats = stats;
+    }
+
+    OutputStream getOutboundStream() {
+        return mOutputStream;
+    }
+
+    void onOutboundError(IOException e) {
+        AfLog.i("ConclaveClient: write failed");
+        AfLog.e(e);
+    }
+
+    void sendHeartbeatReply() {
+        mOutboundQueue.offerControl(ConclaveOutboundQueue.HEARTBEAT);
+    }
+
+    void publishStatus(Status status) {
+        mStatusSubject.onNext(status);
+    }
+
+    void setHeartbeatTimeout(int timeoutInSeconds) {
         AfLog.i("ConclaveClient: setHeartbeatTimeout to " + timeoutInSeconds);
 
         if (timeoutInSeconds > 0) {
@@ -317,41 +511,41 @@ public class ConclaveClient {
         }
     }
 
-    private void readEvent(JsonNode node) {
-        mMessageSubject.onNext(node);
+    void readEvent(byte[] bytes, int offset, int length) throws IOException {
+        JsonNode node = mMessageSubject.hasObservers() ? JSONUtils.getObjectMapper().readTree(bytes, offset, length) : null;
 
+        ConclaveEvent event = null;
         try {
-            ObjectMapper mapper = JSONUtils.getObjectMapper();
-            Map.Entry<String,JsonNode> entry = node.fields().next();
-            String key = entry.getKey().toLowerCase(Locale.ROOT);
-
-            if (key.equals("hello")) {
-                ConclaveMessage.HelloFields hello = mapper.treeToValue(node.get("hello"), ConclaveMessage.HelloFields.class);
-                mServerVersion = hello.version;
-                setHeartbeatTimeout(hello.heartbeat);
-            } else if (key.equals("welcome")) {
-                ConclaveMessage.WelcomeFields welcome = mapper.treeToValue(node.get("welcome"), ConclaveMessage.WelcomeFields.class);
-                mSessionId = welcome.sessionId;
-                mRetryDelay = 0;
-                mStatusSubject.onNext(Status.CONNECTED);
-//            } else if (key.equals("join")) {
-//                ConclaveMessage.JoinFields join = mapper.treeToValue(node.get("join"), ConclaveMessage.JoinFields.class);
-//                handler.onJoin(join);
-//            } else if (key.equals("leave")) {
-//                ConclaveMessage.LeaveFields leave = mapper.treeToValue(node.get("leave"), ConclaveMessage.LeaveFields.class);
-//                handler.onLeave(leave);
-//            } else if (key.equals("public")) {
-//                ConclaveMessage.MessageFields message = mapper.treeToValue(node.get("public"), ConclaveMessage.MessageFields.class);
-//                handler.onPublic(message);
-//            } else if (key.equals("private")) {
-//                ConclaveMessage.MessageFields message = mapper.treeToValue(node.get("private"), ConclaveMessage.MessageFields.class);
-//                handler.onPrivate(message);
-            }
-
-        } catch (Exception e) {
+            event = mDecoder.decode(bytes, offset, length);
+        } catch (JsonMappingException e) {
             AfLog.i("ConclaveClient.readEvent: failed to unpack message");
             AfLog.e(e);
         }
+
+        onEvent(event, node);
+    }
+
+    private void onEvent(ConclaveEvent event, JsonNode node) {
+        if (node != null) {
+            mMessageSubject.onNext(node);
+        }
+
+        if (event == null) {
+            return;
+        }
+
+        mEventSubject.onNext(event);
+
+        if (ConclaveEvent.KEY_HELLO.equals(event.key)) {
+            ConclaveMessage.HelloFields hello = (ConclaveMessage.HelloFields)event.data;
+            mServerVersion = hello.version;
+            setHeartbeatTimeout(hello.heartbeat);
+        } else if (ConclaveEvent.KEY_WELCOME.equals(event.key)) {
+            ConclaveMessage.WelcomeFields welcome = (ConclaveMessage.WelcomeFields)event.data;
+            mSessionId = welcome.sessionId;
+            mRetryDelay = 0;
+            mStatusSubject.onNext(Status.CONNECTED);
+        }
     }
 
     private static void printServerCertificate(SSLSocket socket) {
@@ -400,7 +594,9 @@ public class ConclaveClient {
 
         @Override
         public ConclaveMessage.Say call() throws Exception {
-            write(mSay);
+            if (!mOutboundQueue.offer(mSay)) {
+                throw new IOException("ConclaveClient: outbound queue full");
+            }
             return mSay;
         }
     }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage for a single Conclave session. The native zlib state and the fixed size
+ * staging buffers live in a {@link Codec} that is borrowed from a process wide pool when the
+ * session opens and reset and returned by {@link #release()}, so reconnects don't allocate
+ * new {@link Inflater}/{@link Deflater} instances.
+ *
+ * <p>
+ * Inbound methods and {@link #release()} must be called from the thread that reads the
+ * connection. Outbound methods may be called from any thread.
+ * </p>
+ */
+final class ConclaveCompression {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+    static final int POOL_MAX = 32;
+
+    interface Sink {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private static final class Codec {
+        final Inflater mInflater = new Inflater();
+        final Deflater mDeflater = new Deflater();
+        final byte[] mInputBuffer = new byte[BUFFER_SIZE];
+        final byte[] mOutputBuffer = new byte[BUFFER_SIZE];
+    }
+
+    private static final ConcurrentLinkedQueue<Codec> sPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger sPoolSize = new AtomicInteger();
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Object mDeflateLock = new Object();
+    private final ConclaveCompressionStats mStats = new ConclaveCompressionStats();
+    private volatile Codec mCodec;
+
+    private ConclaveCompression(Codec codec) {
+        mCodec = codec;
+    }
+
+    static ConclaveCompression acquire() {
+        Codec codec = sPool.poll();
+        if (codec != null) {
+            sPoolSize.decrementAndGet();
+        } else {
+            codec = new Codec();
+        }
+
+        return new ConclaveCompression(codec);
+    }
+
+    static int getPooledCount() {
+        return sPoolSize.get();
+    }
+
+    ConclaveCompressionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Resets the codec and returns it to the pool. Further calls on this instance fail.
+     */
+    void release() {
+        final Codec codec;
+        synchronized (mDeflateLock) {
+            codec = mCodec;
+            mCodec = null;
+        }
+
+        if (codec == null) {
+            return;
+        }
+
+        codec.mInflater.reset();
+        codec.mDeflater.reset();
+
+        if (sPoolSize.incrementAndGet() <= POOL_MAX) {
+            sPool.offer(codec);
+        } else {
+            sPoolSize.decrementAndGet();
+            codec.mInflater.end();
+            codec.mDeflater.end();
+        }
+    }
+
+    // inbound ----------------------------------------------------------------------
+
+    /**
+     * Performs a single read of compressed bytes from {@code is} and inflates them into {@code framer}.
+     *
+     * @return the number of compressed bytes read, or -1 at the end of the stream
+     */
+    int readFrom(InputStream is, ConclaveLineFramer framer) throws IOException {
+        final Codec codec = getCodec();
+
+        final int count = is.read(codec.mInputBuffer, 0, codec.mInputBuffer.length);
+        if (count > 0) {
+            inflate(codec, codec.mInputBuffer, 0, count, framer);
+        }
+
+        return count;
+    }
+
+    /**
+     * Inflates {@code length} compressed bytes into {@code framer}.
+     */
+    void inflate(byte[] bytes, int offset, int length, ConclaveLineFramer framer) throws IOException {
+        inflate(getCodec(), bytes, offset, length, framer);
+    }
+
+    private void inflate(Codec codec, byte[] bytes, int offset, int length, ConclaveLineFramer framer) throws IOException {
+        codec.mInflater.setInput(bytes, offset, length);
+        final int inflated = framer.inflate(codec.mInflater);
+
+        mStats.mCompressedBytesIn += length;
+        mStats.mUncompressedBytesIn += inflated;
+    }
+
+    // outbound ---------------------------------------------------------------------
+
+    /**
+     * Deflates {@code length} bytes and flushes them to {@code sink} so the server can
+     * decode them immediately.
+     */
+    void deflate(byte[] bytes, int offset, int length, Sink sink) throws IOException {
+        deflate(bytes, offset, length, Deflater.SYNC_FLUSH, sink);
+    }
+
+    /**
+     * @return an {@link OutputStream} that deflates into {@code out} and sync flushes on {@link OutputStream#flush()}
+     */
+    OutputStream newOutputStream(final OutputStream out) {
+        final Sink sink = new Sink() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+        };
+
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                deflate(bytes, offset, length, Deflater.NO_FLUSH, sink);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                deflate(EMPTY, 0, 0, Deflater.SYNC_FLUSH, sink);
+                out.flush();
+            }
+        };
+    }
+
+    private void deflate(byte[] bytes, int offset, int length, int flushMode, Sink sink) throws IOException {
+        synchronized (mDeflateLock) {
+            final Codec codec = getCodec();
+            final Deflater deflater = codec.mDeflater;
+            final byte[] buffer = codec.mOutputBuffer;
+
+            deflater.setInput(bytes, offset, length);
+            mStats.mUncompressedBytesOut += length;
+
+            int count;
+            if (flushMode == Deflater.NO_FLUSH) {
+                while (!deflater.needsInput()) {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+                    if (count > 0) {
+                        sink.write(buffer, 0, count);
+                        mStats.mCompressedBytesOut += count;
+                    }
+                }
+            } else {
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, flushMode);
+                    if (count > 0) {
+                        sink.write(buffer, 0, count);
+                        mStats.mCompressedBytesOut += count;
+                    }
+                } while (count == buffer.length);
+            }
+        }
+    }
+
+    private Codec getCodec() throws IOException {
+        final Codec codec = mCodec;
+        if (codec == null) {
+            throw new IOException("ConclaveCompression: already released");
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+/**
+ * Byte counters for the compression stage of a single Conclave session. A new instance is
+ * created each time a connection is opened.
+ */
+public final class ConclaveCompressionStats {
+
+    volatile long mCompressedBytesIn;
+    volatile long mUncompressedBytesIn;
+    volatile long mCompressedBytesOut;
+    volatile long mUncompressedBytesOut;
+
+    ConclaveCompressionStats() {
+    }
+
+    /**
+     * @return number of compressed bytes received from the server
+     */
+    public long getCompressedBytesIn() {
+        return mCompressedBytesIn;
+    }
+
+    /**
+     * @return number of bytes received after inflation
+     */
+    public long getUncompressedBytesIn() {
+        return mUncompressedBytesIn;
+    }
+
+    /**
+     * @return number of compressed bytes sent to the server
+     */
+    public long getCompressedBytesOut() {
+        return mCompressedBytesOut;
+    }
+
+    /**
+     * @return number of bytes written before deflation
+     */
+    public long getUncompressedBytesOut() {
+        return mUncompressedBytesOut;
+    }
+
+    /**
+     * @return uncompressed/compressed ratio of inbound traffic, or 0 if nothing has been received
+     */
+    public double getInboundRatio() {
+        final long compressed = mCompressedBytesIn;
+        return compressed > 0 ? (double)mUncompressedBytesIn / compressed : 0;
+    }
+
+    /**
+     * @return uncompressed/compressed ratio of outbound traffic, or 0 if nothing has been sent
+     */
+    public double getOutboundRatio() {
+        final long compressed = mCompressedBytesOut;
+        return compressed > 0 ? (double)mUncompressedBytesOut / compressed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConclaveCompressionStats{" +
+                "in=" + mCompressedBytesIn + "/" + mUncompressedBytesIn +
+                ", out=" + mCompressedBytesOut + "/" + mUncompressedBytesOut +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+/**
+ * A Conclave message decoded by {@link ConclaveMessageDecoder}. The {@link #data} payload is
+ * already bound to its model class, e.g. {@link io.afero.sdk.conclave.models.DeviceSync} for
+ * {@link #EVENT_ATTR_CHANGE}, so consumers never see the intermediate JSON.
+ */
+public final class ConclaveEvent {
+
+    public static final String KEY_HELLO = "hello";
+    public static final String KEY_WELCOME = "welcome";
+    public static final String KEY_ERROR = "error";
+    public static final String KEY_PUBLIC = "public";
+    public static final String KEY_PRIVATE = "private";
+
+    public static final String EVENT_ATTR_CHANGE = "attr_change";
+    public static final String EVENT_PERIPHERAL_LIST = "peripherallist";
+    public static final String EVENT_INVALIDATE = "invalidate";
+    public static final String EVENT_STATUS_CHANGE = "status_change";
+    public static final String EVENT_DEVICE_ERROR = "device:error";
+    public static final String EVENT_DEVICE_MUTE = "device:mute";
+    public static final String EVENT_OTA_PROGRESS = "device:ota_progress";
+
+    /**
+     * Envelope key, e.g. {@link #KEY_PUBLIC}. Known keys are always lower case; unknown keys
+     * are passed through as received.
+     */
+    public final String key;
+
+    /**
+     * Lower case event name for {@link #KEY_PUBLIC} and {@link #KEY_PRIVATE} messages, otherwise null.
+     * For events registered with {@link ConclaveEventRegistry} this is always the same String instance.
+     */
+    public final String event;
+
+    /**
+     * Sequence number of the message, only valid if {@link #hasSeq} is true.
+     */
+    public final int seq;
+    public final boolean hasSeq;
+
+    /**
+     * Bound payload, or null if the key or event is not one the decoder knows about.
+     */
+    public final Object data;
+
+    public ConclaveEvent(String key, String event, int seq, boolean hasSeq, Object data) {
+        this.key = key;
+        this.event = event;
+        this.seq = seq;
+        this.hasSeq = hasSeq;
+        this.data = data;
+    }
+
+    public boolean isMessage() {
+        return event != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ConclaveEvent{" +
+                "key='" + key + '\'' +
+                ", event='" + event + '\'' +
+                ", seq=" + (hasSeq ? Integer.toString(seq) : "none") +
+                '}';
+    }
+}
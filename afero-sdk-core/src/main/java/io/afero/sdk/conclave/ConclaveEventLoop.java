@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.afero.sdk.log.AfLog;
+
+/**
+ * Single threaded {@link Selector} loop that services any number of non-blocking Conclave
+ * connections. All channel I/O for a connection happens on the loop thread; other threads hand
+ * work to the loop via {@link #execute(Runnable)}.
+ */
+final class ConclaveEventLoop implements Runnable, Executor {
+
+    interface Handler {
+        void onSelect(SelectionKey key) throws IOException;
+        void onFailure(Exception e);
+    }
+
+    final class ScheduledTask implements Comparable<ScheduledTask> {
+        private final Runnable mRunnable;
+        private final long mDeadlineNanos;
+        private volatile boolean mIsCancelled;
+
+        private ScheduledTask(Runnable runnable, long deadlineNanos) {
+            mRunnable = runnable;
+            mDeadlineNanos = deadlineNanos;
+        }
+
+        void cancel() {
+            mIsCancelled = true;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(mDeadlineNanos - other.mDeadlineNanos, 0);
+        }
+    }
+
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledTask> mScheduledTasks = new PriorityQueue<>();
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+    private volatile boolean mIsRunning = true;
+
+    ConclaveEventLoop(String name) throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mTasks.add(task);
+        if (!inEventLoop() && mWakeupPending.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+    }
+
+    ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        final ScheduledTask scheduledTask = new ScheduledTask(task, System.nanoTime() + unit.toNanos(delay));
+
+        if (inEventLoop()) {
+            mScheduledTasks.add(scheduledTask);
+        } else {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    mScheduledTasks.add(scheduledTask);
+                }
+            });
+        }
+
+        return scheduledTask;
+    }
+
+    /**
+     * Must be called from the loop thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        return channel.register(mSelector, ops, handler);
+    }
+
+    int getRegisteredCount() {
+        return mSelector.keys().size();
+    }
+
+    void shutdown() {
+        mIsRunning = false;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        AfLog.i("ConclaveEventLoop: " + mThread.getName() + " started");
+
+        while (mIsRunning) {
+            try {
+                mSelector.select(nextTimeoutMillis());
+                mWakeupPending.set(false);
+
+                processSelectedKeys();
+                runTasks();
+                runScheduledTasks();
+
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                // keep the loop alive for the other connections
+                AfLog.e(e);
+            }
+        }
+
+        closeAll();
+
+        AfLog.i("ConclaveEventLoop: " + mThread.getName() + " exiting");
+    }
+
+    private long nextTimeoutMillis() {
+        if (!mTasks.isEmpty()) {
+            return 1;
+        }
+
+        ScheduledTask next = mScheduledTasks.peek();
+        if (next == null) {
+            return 0; // wait until woken
+        }
+
+        long delayMillis = TimeUnit.NANOSECONDS.toMillis(next.mDeadlineNanos - System.nanoTime());
+        return Math.max(1, delayMillis);
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iter = mSelector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+
+            Handler handler = (Handler)key.attachment();
+            try {
+                if (key.isValid()) {
+                    handler.onSelect(key);
+                }
+            } catch (Exception e) {
+                handler.onFailure(e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                AfLog.e(e);
+            }
+        }
+    }
+
+    private void runScheduledTasks() {
+        final long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = mScheduledTasks.peek()) != null && next.mDeadlineNanos - now <= 0) {
+            mScheduledTasks.poll();
+            if (!next.mIsCancelled) {
+                try {
+                    next.mRunnable.run();
+                } catch (Exception e) {
+                    AfLog.e(e);
+                }
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : mSelector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Handler) {
+                    ((Handler)attachment).onFailure(new IOException("ConclaveEventLoop shut down"));
+                }
+            }
+            mSelector.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+}
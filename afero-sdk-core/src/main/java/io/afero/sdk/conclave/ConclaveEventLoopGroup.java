@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of event loop threads shared by {@link NioConclaveClient} instances. Each client
+ * is pinned to one loop for its lifetime, so thousands of Conclave sessions can be multiplexed
+ * over a handful of threads.
+ */
+public final class ConclaveEventLoopGroup {
+
+    private static ConclaveEventLoopGroup sDefaultGroup;
+
+    private final ConclaveEventLoop[] mEventLoops;
+    private final AtomicInteger mNextIndex = new AtomicInteger();
+
+    /**
+     * @param threadCount number of event loop threads to create
+     * @throws IOException if a {@link java.nio.channels.Selector} could not be opened
+     */
+    public ConclaveEventLoopGroup(int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+
+        mEventLoops = new ConclaveEventLoop[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            mEventLoops[i] = new ConclaveEventLoop("ConclaveEventLoop-" + i);
+        }
+    }
+
+    /**
+     * @return the shared group, sized to the number of available processors.
+     */
+    public static synchronized ConclaveEventLoopGroup getDefault() {
+        if (sDefaultGroup == null) {
+            try {
+                sDefaultGroup = new ConclaveEventLoopGroup(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create ConclaveEventLoopGroup", e);
+            }
+        }
+        return sDefaultGroup;
+    }
+
+    /**
+     * @return the number of event loop threads in this group.
+     */
+    public int getThreadCount() {
+        return mEventLoops.length;
+    }
+
+    /**
+     * Closes every connection serviced by this group and stops its threads.
+     */
+    public void shutdown() {
+        for (ConclaveEventLoop loop : mEventLoops) {
+            loop.shutdown();
+        }
+    }
+
+    ConclaveEventLoop next() {
+        return mEventLoops[Math.abs(mNextIndex.getAndIncrement() % mEventLoops.length)];
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.Locale;
+
+import io.afero.sdk.conclave.models.DeviceError;
+import io.afero.sdk.conclave.models.DeviceMute;
+import io.afero.sdk.conclave.models.DeviceState;
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.conclave.models.InvalidateMessage;
+import io.afero.sdk.conclave.models.OTAInfo;
+import io.afero.sdk.conclave.models.PeripheralList;
+import io.afero.sdk.utils.JSONUtils;
+
+/**
+ * Maps Conclave event names to the model class their {@code data} is bound to. Lookups are
+ * case-insensitive and run directly over the parser's character buffer using precomputed
+ * hashes, so resolving a known event allocates nothing. Registration is copy-on-write;
+ * lookups never lock.
+ */
+public final class ConclaveEventRegistry {
+
+    public static final class Entry {
+        private final String mName;
+        private final Class<?> mType;
+        private final ObjectReader mReader;
+        private final int mHash;
+
+        private Entry(String name, Class<?> type, ObjectReader reader) {
+            mName = name;
+            mType = type;
+            mReader = reader;
+            mHash = hash(name);
+        }
+
+        /**
+         * @return the lower case event name; the same instance is used for every decoded event.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        public Class<?> getType() {
+            return mType;
+        }
+
+        ObjectReader getReader() {
+            return mReader;
+        }
+    }
+
+    private final ObjectMapper mMapper;
+    private volatile Entry[] mTable = new Entry[16];
+    private int mCount;
+
+    public ConclaveEventRegistry() {
+        this(JSONUtils.getObjectMapper());
+    }
+
+    public ConclaveEventRegistry(ObjectMapper mapper) {
+        mMapper = mapper;
+
+        register(ConclaveEvent.EVENT_ATTR_CHANGE, DeviceSync.class);
+        register(ConclaveEvent.EVENT_PERIPHERAL_LIST, PeripheralList.class);
+        register(ConclaveEvent.EVENT_INVALIDATE, InvalidateMessage.class);
+        register(ConclaveEvent.EVENT_STATUS_CHANGE, DeviceState.class);
+        register(ConclaveEvent.EVENT_DEVICE_ERROR, DeviceError.class);
+        register(ConclaveEvent.EVENT_DEVICE_MUTE, DeviceMute.class);
+        register(ConclaveEvent.EVENT_OTA_PROGRESS, OTAInfo.class);
+    }
+
+    /**
+     * Registers or replaces the model class for an event.
+     *
+     * @param name event name, matched case-insensitively
+     * @param type class the event's {@code data} is bound to
+     * @return the registered {@link Entry}
+     */
+    public synchronized Entry register(String name, Class<?> type) {
+        final Entry entry = new Entry(name.toLowerCase(Locale.ROOT), type, mMapper.readerFor(type));
+
+        Entry[] table = mTable;
+        final int existing = indexOf(table, entry.mName);
+        if (existing >= 0) {
+            table = table.clone();
+            table[existing] = entry;
+        } else {
+            if ((mCount + 1) * 2 > table.length) {
+                table = rehash(table, table.length * 2);
+            } else {
+                table = table.clone();
+            }
+            insert(table, entry);
+            ++mCount;
+        }
+
+        mTable = table;
+        return entry;
+    }
+
+    /**
+     * @return the entry for {@code name}, or null if it isn't registered.
+     */
+    public Entry lookup(String name) {
+        final Entry[] table = mTable;
+        final int i = indexOf(table, name);
+        return i >= 0 ? table[i] : null;
+    }
+
+    /**
+     * Looks up the event name held in {@code chars} without creating a String.
+     *
+     * @return the entry, or null if it isn't registered.
+     */
+    public Entry lookup(char[] chars, int offset, int length) {
+        final Entry[] table = mTable;
+        final int mask = table.length - 1;
+
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            h = 31 * h + fold(chars[i]);
+        }
+
+        for (int i = h & mask; table[i] != null; i = (i + 1) & mask) {
+            final Entry entry = table[i];
+            if (entry.mHash == h && matches(entry.mName, chars, offset, length)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private static int indexOf(Entry[] table, String name) {
+        final int mask = table.length - 1;
+        final int h = hash(name);
+
+        for (int i = h & mask; table[i] != null; i = (i + 1) & mask) {
+            final Entry entry = table[i];
+            if (entry.mHash == h && entry.mName.equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static Entry[] rehash(Entry[] table, int capacity) {
+        final Entry[] bigger = new Entry[capacity];
+        for (Entry entry : table) {
+            if (entry != null) {
+                insert(bigger, entry);
+            }
+        }
+        return bigger;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        final int mask = table.length - 1;
+        int i = entry.mHash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (fold(name.charAt(i)) != fold(chars[offset + i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0, n = name.length(); i < n; ++i) {
+            h = 31 * h + fold(name.charAt(i));
+        }
+        return h;
+    }
+
+    // ASCII-only case folding; Conclave event names are plain ASCII
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Splits the inbound Conclave byte stream into lines without decoding it. Bytes are read or
+ * inflated straight into a reusable buffer and each complete line is handed to the
+ * {@link Handler} as a slice of that buffer, ready for Jackson's {@code byte[]} parser.
+ * Empty lines are heartbeats and are reported without allocating anything.
+ */
+final class ConclaveLineFramer {
+
+    interface Handler {
+        /**
+         * The slice is only valid for the duration of the call.
+         */
+        void onLine(byte[] bytes, int offset, int length) throws IOException;
+        void onHeartbeat() throws IOException;
+    }
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    private static final int MIN_WRITABLE = 1024;
+
+    private final Handler mHandler;
+    private ByteBuffer mBuffer;
+    private int mScanned;
+
+    ConclaveLineFramer(Handler handler) {
+        this(handler, DEFAULT_CAPACITY);
+    }
+
+    ConclaveLineFramer(Handler handler, int initialCapacity) {
+        mHandler = handler;
+        mBuffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Discards any partial line, e.g. when a new connection is opened.
+     */
+    void reset() {
+        mBuffer.clear();
+        mScanned = 0;
+    }
+
+    /**
+     * Performs a single read from {@code is} into the buffer and dispatches any complete lines.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream
+     */
+    int fill(InputStream is) throws IOException {
+        ensureWritable(MIN_WRITABLE);
+
+        final int count = is.read(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+        if (count > 0) {
+            mBuffer.position(mBuffer.position() + count);
+            frame();
+        }
+
+        return count;
+    }
+
+    /**
+     * Inflates everything currently available from {@code inflater} into the buffer and
+     * dispatches any complete lines.
+     *
+     * @return the number of bytes inflated
+     */
+    int inflate(Inflater inflater) throws IOException {
+        int total = 0;
+
+        try {
+            int count;
+            do {
+                ensureWritable(MIN_WRITABLE);
+                count = inflater.inflate(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+                if (count > 0) {
+                    mBuffer.position(mBuffer.position() + count);
+                    total += count;
+                    frame();
+                }
+            } while (count > 0);
+        } catch (DataFormatException e) {
+            throw new IOException("ConclaveLineFramer: failed to inflate", e);
+        }
+
+        return total;
+    }
+
+    /**
+     * Copies {@code length} bytes into the buffer and dispatches any complete lines.
+     */
+    void append(byte[] bytes, int offset, int length) throws IOException {
+        ensureWritable(length);
+        mBuffer.put(bytes, offset, length);
+        frame();
+    }
+
+    int getCapacity() {
+        return mBuffer.capacity();
+    }
+
+    private void frame() throws IOException {
+        final byte[] array = mBuffer.array();
+        final int base = mBuffer.arrayOffset();
+        final int end = mBuffer.position();
+
+        int lineStart = 0;
+        for (int i = mScanned; i < end; ++i) {
+            if (array[base + i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && array[base + lineEnd - 1] == '\r') {
+                    --lineEnd;
+                }
+
+                if (lineEnd == lineStart) {
+                    mHandler.onHeartbeat();
+                } else {
+                    mHandler.onLine(array, base + lineStart, lineEnd - lineStart);
+                }
+
+                lineStart = i + 1;
+            }
+        }
+
+        if (lineStart > 0) {
+            System.arraycopy(array, base + lineStart, array, base, end - lineStart);
+            mBuffer.position(end - lineStart);
+        }
+
+        mScanned = mBuffer.position();
+    }
+
+    private void ensureWritable(int count) {
+        if (mBuffer.remaining() >= count) {
+            return;
+        }
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + count));
+        mBuffer.flip();
+        bigger.put(mBuffer);
+        mBuffer = bigger;
+    }
+}
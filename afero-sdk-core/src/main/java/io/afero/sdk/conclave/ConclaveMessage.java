@@ -55,6 +55,14 @@ public class ConclaveMessage {
         public String accountId;
     }
 
+    // ----- error
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ErrorFields {
+        public int code;
+        public String message;
+    }
+
     // ----- login
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import io.afero.sdk.utils.JSONUtils;
+
+/**
+ * Streaming decoder for Conclave lines. The envelope key, {@code event}, {@code seq} and
+ * {@code data} are read in a single pass of a {@link JsonParser} and {@code data} is bound
+ * straight to its model class, so no {@link com.fasterxml.jackson.databind.JsonNode} tree is
+ * built along the way. Event names are resolved through a {@link ConclaveEventRegistry}.
+ */
+public final class ConclaveMessageDecoder {
+
+    private static final String[] KEYS = {
+            ConclaveEvent.KEY_HELLO,
+            ConclaveEvent.KEY_WELCOME,
+            ConclaveEvent.KEY_ERROR,
+            ConclaveEvent.KEY_PUBLIC,
+            ConclaveEvent.KEY_PRIVATE,
+    };
+
+    private final ObjectMapper mMapper;
+    private final ConclaveEventRegistry mRegistry;
+
+    public ConclaveMessageDecoder() {
+        this(JSONUtils.getObjectMapper());
+    }
+
+    public ConclaveMessageDecoder(ObjectMapper mapper) {
+        this(mapper, new ConclaveEventRegistry(mapper));
+    }
+
+    public ConclaveMessageDecoder(ObjectMapper mapper, ConclaveEventRegistry registry) {
+        mMapper = mapper;
+        mRegistry = registry;
+    }
+
+    public ConclaveEventRegistry getRegistry() {
+        return mRegistry;
+    }
+
+    /**
+     * @return the decoded message, or null if the line was not a JSON object
+     */
+    public ConclaveEvent decode(String line) throws IOException {
+        try (JsonParser parser = mMapper.getFactory().createParser(line)) {
+            return decode(parser);
+        }
+    }
+
+    /**
+     * @return the decoded message, or null if the bytes were not a JSON object
+     */
+    public ConclaveEvent decode(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = mMapper.getFactory().createParser(bytes, offset, length)) {
+            return decode(parser);
+        }
+    }
+
+    private ConclaveEvent decode(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME) {
+            return null;
+        }
+
+        // field names come from Jackson's symbol table, so this doesn't allocate
+        final String rawKey = parser.getCurrentName();
+        final String key = canonical(rawKey, KEYS);
+        final JsonToken valueToken = parser.nextToken();
+
+        if (key == null || valueToken != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return new ConclaveEvent(key != null ? key : rawKey, null, 0, false, null);
+        }
+
+        switch (key) {
+            case ConclaveEvent.KEY_HELLO:
+                return new ConclaveEvent(key, null, 0, false, mMapper.readValue(parser, ConclaveMessage.HelloFields.class));
+
+            case ConclaveEvent.KEY_WELCOME:
+                ConclaveMessage.WelcomeFields welcome = mMapper.readValue(parser, ConclaveMessage.WelcomeFields.class);
+                return new ConclaveEvent(key, null, welcome.seq, true, welcome);
+
+            case ConclaveEvent.KEY_ERROR:
+                return new ConclaveEvent(key, null, 0, false, mMapper.readValue(parser, ConclaveMessage.ErrorFields.class));
+
+            default:
+                return decodeMessage(parser, key);
+        }
+    }
+
+    private ConclaveEvent decodeMessage(JsonParser parser, String key) throws IOException {
+        String event = null;
+        ConclaveEventRegistry.Entry entry = null;
+        int seq = 0;
+        boolean hasSeq = false;
+        Object data = null;
+        TokenBuffer pendingData = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            if ("event".equals(field) && token == JsonToken.VALUE_STRING) {
+                entry = mRegistry.lookup(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                event = entry != null ? entry.getName() : parser.getText().toLowerCase(Locale.ROOT);
+
+            } else if ("seq".equals(field) && token.isNumeric()) {
+                seq = parser.getIntValue();
+                hasSeq = true;
+
+            } else if ("data".equals(field)) {
+                if (event == null) {
+                    // data arrived ahead of event; hold on to the tokens until we know the type
+                    pendingData = new TokenBuffer(parser);
+                    pendingData.copyCurrentStructure(parser);
+                } else if (entry != null) {
+                    data = entry.getReader().readValue(parser);
+                } else {
+                    parser.skipChildren();
+                }
+
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (pendingData != null && entry != null) {
+            try (JsonParser bufferedParser = pendingData.asParser(mMapper)) {
+                bufferedParser.nextToken();
+                data = entry.getReader().readValue(bufferedParser);
+            }
+        }
+
+        return new ConclaveEvent(key, event, seq, hasSeq, data);
+    }
+
+    private static String canonical(String name, String[] names) {
+        for (String n : names) {
+            if (n.equalsIgnoreCase(name)) {
+                return n;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.afero.sdk.log.AfLog;
+import io.afero.sdk.utils.JSONUtils;
+
+/**
+ * Bounded queue of outbound Conclave messages with a single writer. {@link #offer(Object)}
+ * never blocks; the writer runs on the supplied {@link Executor}, drains everything that is
+ * pending, serializes each message straight into the transport's (deflating) stream and
+ * flushes once per batch. The last {@link #CONTROL_RESERVE} slots are kept for
+ * {@link #offerControl(Object)} so a backlog of says can't crowd out login or heartbeats.
+ */
+final class ConclaveOutboundQueue {
+
+    static final int DEFAULT_CAPACITY = 256;
+    static final int CONTROL_RESERVE = 16;
+
+    /**
+     * Marker for a heartbeat reply, which is sent as an empty line.
+     */
+    static final Object HEARTBEAT = new Object();
+
+    interface Transport {
+        /**
+         * @return the stream to write the next batch to, or null if there is no connection,
+         * in which case pending messages are dropped.
+         */
+        OutputStream getOutputStream();
+
+        /**
+         * Called if writing a batch fails.
+         */
+        void onWriteError(IOException e);
+    }
+
+    private final ArrayBlockingQueue<Object> mQueue;
+    private final int mOfferLimit;
+    private final Object mOfferLock = new Object();
+    private final Executor mExecutor;
+    private final Transport mTransport;
+    private final ObjectWriter mWriter;
+    private final AtomicBoolean mIsDrainScheduled = new AtomicBoolean();
+    private final ArrayList<Object> mBatch = new ArrayList<>();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mMessageCount = new AtomicLong();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    ConclaveOutboundQueue(int capacity, Executor executor, Transport transport) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mOfferLimit = Math.max(1, capacity - CONTROL_RESERVE);
+        mExecutor = executor;
+        mTransport = transport;
+        mWriter = JSONUtils.getObjectMapper().writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Queues a message for the writer.
+     *
+     * @return false if the queue is full, not counting the control reserve, and the message
+     * was dropped
+     */
+    boolean offer(Object message) {
+        boolean isQueued;
+        synchronized (mOfferLock) {
+            isQueued = mQueue.size() < mOfferLimit && mQueue.offer(message);
+        }
+
+        return onOffered(isQueued);
+    }
+
+    /**
+     * Queues a control message (login, bye, snapshot request, heartbeat reply), which may
+     * use the slots that {@link #offer(Object)} leaves free.
+     *
+     * @return false if even the reserve is full and the message was dropped
+     */
+    boolean offerControl(Object message) {
+        return onOffered(mQueue.offer(message));
+    }
+
+    /**
+     * Drops everything that is pending, e.g. when a new session is opened.
+     */
+    void clear() {
+        mQueue.clear();
+    }
+
+    int size() {
+        return mQueue.size();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    long getMessageCount() {
+        return mMessageCount.get();
+    }
+
+    private boolean onOffered(boolean isQueued) {
+        if (!isQueued) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+
+        scheduleDrain();
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (mIsDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        try {
+            mQueue.drainTo(mBatch);
+            if (!mBatch.isEmpty()) {
+                writeBatch(mBatch);
+            }
+        } finally {
+            mBatch.clear();
+            mIsDrainScheduled.set(false);
+        }
+
+        // pick up anything offered after drainTo but before the flag was cleared
+        if (!mQueue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void writeBatch(ArrayList<Object> batch) {
+        final OutputStream os = mTransport.getOutputStream();
+        if (os == null) {
+            AfLog.w("ConclaveOutboundQueue: not connected, dropping " + batch.size() + " message(s)");
+            mDroppedCount.addAndGet(batch.size());
+            return;
+        }
+
+        try {
+            JsonGenerator gen = mWriter.getFactory().createGenerator(os);
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.setRootValueSeparator(null);
+
+            for (Object message : batch) {
+                if (message != HEARTBEAT) {
+                    if (AfLog.isLoggable(AfLog.FilterLevel.INFO)) {
+                        AfLog.i("ConclaveClient.write: " + mWriter.writeValueAsString(message));
+                    }
+                    mWriter.writeValue(gen, message);
+                }
+                gen.writeRaw('\n');
+            }
+
+            // flushes the generator, then the underlying stream
+            gen.flush();
+
+            mBatchCount.incrementAndGet();
+            mMessageCount.addAndGet(batch.size());
+
+        } catch (IOException e) {
+            mTransport.onWriteError(e);
+        }
+    }
+}
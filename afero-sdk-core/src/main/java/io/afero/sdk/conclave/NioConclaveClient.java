@@ -0,0 +1,690 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+
+import io.afero.sdk.client.afero.models.ConclaveAccessDetails;
+import io.afero.sdk.log.AfLog;
+import rx.Emitter;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Non-blocking {@link ConclaveClient} built on {@link SocketChannel} and {@link SSLEngine}.
+ * Instead of dedicating a reader thread to each connection, every {@code NioConclaveClient}
+ * is serviced by one of the threads in a shared {@link ConclaveEventLoopGroup}.
+ *
+ * <p>
+ * The {@link #statusObservable()} and {@link #messageObservable()} contract is identical to
+ * {@link ConclaveClient}, so a {@code NioConclaveClient} can be handed to
+ * {@link io.afero.sdk.device.ConclaveDeviceEventSource} in place of the default client.
+ * Note that events are emitted on the event loop thread, so observers should not block.
+ * </p>
+ */
+public class NioConclaveClient extends ConclaveClient {
+
+    private static final int NET_BUFFER_SIZE = 16 * 1024;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final ConclaveEventLoop mEventLoop;
+    private volatile Connection mConnection;
+    private volatile boolean mIsRunning;
+    private volatile int mHeartbeatTimeoutSeconds;
+    private volatile int mHeartbeatTimeoutExtraSeconds = HEARTBEAT_TIMEOUT_EXTRA;
+
+    /**
+     * Constructs a client serviced by {@link ConclaveEventLoopGroup#getDefault()}.
+     */
+    public NioConclaveClient() {
+        this(ConclaveEventLoopGroup.getDefault());
+    }
+
+    /**
+     * @param eventLoopGroup {@link ConclaveEventLoopGroup} that will service this client's connection
+     */
+    public NioConclaveClient(ConclaveEventLoopGroup eventLoopGroup) {
+        this(eventLoopGroup.next());
+    }
+
+    private NioConclaveClient(ConclaveEventLoop eventLoop) {
+        // outbound batches are written on the event loop thread
+        super(eventLoop);
+        mEventLoop = eventLoop;
+    }
+
+    @Override
+    public synchronized Observable<ConclaveClient> connect(ConclaveAccessDetails cad) {
+        resetRetryDelay();
+
+        selectHost(cad);
+
+        if (mConnection != null) {
+            close();
+        }
+
+        final String host = getHost();
+        final int port = getPort();
+
+        return Observable.create(new Action1<Emitter<ConclaveClient>>() {
+            @Override
+            public void call(Emitter<ConclaveClient> emitter) {
+                mIsRunning = true;
+                open(host, port, emitter);
+            }
+        }, Emitter.BackpressureMode.BUFFER)
+            // address resolution may block, so keep it off the event loop
+            .subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    public synchronized void close() {
+        mIsRunning = false;
+
+        final Connection connection = mConnection;
+        mConnection = null;
+
+        if (connection != null) {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.close();
+                }
+            });
+
+            publishStatus(Status.DISCONNECTED);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        final Connection connection = mConnection;
+        return connection != null && connection.mIsOpen;
+    }
+
+    @Override
+    void setHeartbeatTimeout(int timeoutInSeconds) {
+        AfLog.i("NioConclaveClient: setHeartbeatTimeout to " + timeoutInSeconds);
+
+        mHeartbeatTimeoutSeconds = timeoutInSeconds > 0 ? timeoutInSeconds + mHeartbeatTimeoutExtraSeconds : 0;
+
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                Connection connection = mConnection;
+                if (connection != null) {
+                    connection.restartHeartbeatCheck();
+                }
+            }
+        });
+    }
+
+    // grace period added to the server's heartbeat interval; tests shorten it
+    void setHeartbeatTimeoutExtra(int seconds) {
+        mHeartbeatTimeoutExtraSeconds = seconds;
+    }
+
+    @Override
+    OutputStream getOutboundStream() {
+        final Connection connection = mConnection;
+        return connection != null && !connection.mIsClosed ? connection.mOutputStream : null;
+    }
+
+    @Override
+    void onOutboundError(IOException e) {
+        final Connection connection = mConnection;
+        if (connection != null) {
+            connection.onFailure(e);
+        }
+    }
+
+    private void open(final String host, final int port, final Emitter<ConclaveClient> emitter) {
+        Observable.fromCallable(new Callable<InetSocketAddress>() {
+                @Override
+                public InetSocketAddress call() throws Exception {
+                    return new InetSocketAddress(host, port);
+                }
+            })
+            .subscribeOn(Schedulers.io())
+            .subscribe(new Action1<InetSocketAddress>() {
+                @Override
+                public void call(final InetSocketAddress address) {
+                    publishStatus(Status.CONNECTING);
+
+                    mEventLoop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mIsRunning) {
+                                return;
+                            }
+
+                            Connection connection = new Connection(host, port, emitter);
+                            mConnection = connection;
+
+                            try {
+                                connection.open(address);
+                            } catch (Exception e) {
+                                connection.onFailure(e);
+                            }
+                        }
+                    });
+                }
+            }, new Action1<Throwable>() {
+                @Override
+                public void call(Throwable t) {
+                    if (emitter != null) {
+                        emitter.onError(t);
+                    } else {
+                        scheduleReconnect();
+                    }
+                }
+            });
+    }
+
+    private void onConnectionLost(Connection connection) {
+        if (mConnection != connection) {
+            return;
+        }
+
+        mConnection = null;
+
+        publishStatus(Status.DISCONNECTING);
+        publishStatus(Status.DISCONNECTED);
+
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!mIsRunning) {
+            return;
+        }
+
+        final int delay = nextRetryDelay();
+        AfLog.i("NioConclaveClient: reconnecting in " + delay + "s");
+
+        mEventLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsRunning && mConnection == null) {
+                    open(getHost(), getPort(), null);
+                }
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minExtra) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minExtra));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * State for a single socket connection. Everything here runs on the event loop thread
+     * except {@link #mIsOpen}, which is read by {@link #isConnected()}.
+     */
+    private final class Connection implements ConclaveEventLoop.Handler, ConclaveLineFramer.Handler, ConclaveCompression.Sink {
+
+        private final String mHost;
+        private final int mPort;
+        private Emitter<ConclaveClient> mConnectEmitter;
+
+        private SocketChannel mChannel;
+        private SelectionKey mKey;
+        private SSLEngine mEngine;
+        private ByteBuffer mNetIn;
+        private ByteBuffer mAppIn;
+        private ByteBuffer mNetOut;
+        private ConclaveCompression mCompression;
+        private OutputStream mOutputStream;
+        private final ConclaveLineFramer mFramer = new ConclaveLineFramer(this);
+        private final ArrayDeque<byte[]> mPendingWrites = new ArrayDeque<>();
+
+        private volatile boolean mIsOpen;
+        private boolean mIsReady;
+        private boolean mIsClosed;
+        private long mLastReadNanos;
+        private ConclaveEventLoop.ScheduledTask mHeartbeatTask;
+
+        Connection(String host, int port, Emitter<ConclaveClient> connectEmitter) {
+            mHost = host;
+            mPort = port;
+            mConnectEmitter = connectEmitter;
+        }
+
+        void open(InetSocketAddress address) throws IOException, NoSuchAlgorithmException {
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(true);
+
+            int netBufferSize = NET_BUFFER_SIZE;
+
+            if (isSSLEnabled()) {
+                AfLog.i("NioConclaveClient: Starting SSL connection to " + mHost + ":" + mPort);
+                mEngine = SSLContext.getDefault().createSSLEngine(mHost, mPort);
+                mEngine.setUseClientMode(true);
+                mEngine.setEnabledProtocols(new String[] {"TLSv1.1", "TLSv1.2"});
+
+                SSLParameters params = mEngine.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                mEngine.setSSLParameters(params);
+
+                netBufferSize = Math.max(netBufferSize, mEngine.getSession().getPacketBufferSize());
+                mAppIn = ByteBuffer.allocate(mEngine.getSession().getApplicationBufferSize());
+            } else {
+                AfLog.i("NioConclaveClient: Starting non-SSL connection to " + mHost + ":" + mPort);
+            }
+
+            final OutputStream out = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    Connection.this.write(new byte[] { (byte)b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    Connection.this.write(bytes, offset, length);
+                }
+            };
+
+            if (isCompressionEnabled()) {
+                mCompression = ConclaveCompression.acquire();
+                mOutputStream = mCompression.newOutputStream(out);
+                setCompressionStats(mCompression.getStats());
+            } else {
+                mOutputStream = out;
+                setCompressionStats(null);
+            }
+
+            mNetIn = ByteBuffer.allocate(netBufferSize);
+            mNetOut = ByteBuffer.allocate(netBufferSize);
+
+            if (mChannel.connect(address)) {
+                mKey = mEventLoop.register(mChannel, SelectionKey.OP_READ, this);
+                onConnected();
+            } else {
+                mKey = mEventLoop.register(mChannel, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        @Override
+        public void onSelect(SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                if (mChannel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    onConnected();
+                }
+                return;
+            }
+
+            if (key.isReadable()) {
+                read();
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            if (mIsClosed) {
+                return;
+            }
+
+            AfLog.i("NioConclaveClient: connection died");
+            AfLog.e(e);
+
+            final Emitter<ConclaveClient> connectEmitter = mConnectEmitter;
+            mConnectEmitter = null;
+
+            close();
+
+            if (connectEmitter != null) {
+                // initial connect failed; report it to the caller rather than retrying
+                if (mConnection == this) {
+                    mConnection = null;
+                }
+                publishStatus(Status.DISCONNECTED);
+                connectEmitter.onError(e);
+            } else {
+                onConnectionLost(this);
+            }
+        }
+
+        void close() {
+            if (mIsClosed) {
+                return;
+            }
+
+            mIsClosed = true;
+            mIsOpen = false;
+
+            if (mHeartbeatTask != null) {
+                mHeartbeatTask.cancel();
+                mHeartbeatTask = null;
+            }
+
+            if (mKey != null) {
+                mKey.cancel();
+            }
+
+            try {
+                if (mEngine != null && mIsReady) {
+                    mEngine.closeOutbound();
+                    mEngine.wrap(EMPTY_BUFFER, mNetOut);
+                    mNetOut.flip();
+                    mChannel.write(mNetOut);
+                }
+            } catch (Exception e) {
+                // best effort close_notify
+            }
+
+            try {
+                if (mChannel != null) {
+                    mChannel.close();
+                }
+            } catch (IOException e) {
+                // nothing to be done
+            }
+
+            if (mCompression != null) {
+                mCompression.release();
+            }
+
+            if (mConnectEmitter != null) {
+                mConnectEmitter.onError(new IOException("NioConclaveClient: connection closed"));
+                mConnectEmitter = null;
+            }
+        }
+
+        void restartHeartbeatCheck() {
+            if (mHeartbeatTask != null) {
+                mHeartbeatTask.cancel();
+                mHeartbeatTask = null;
+            }
+
+            if (mIsOpen) {
+                checkHeartbeat();
+            }
+        }
+
+        private void onConnected() throws IOException {
+            mIsOpen = true;
+            mLastReadNanos = System.nanoTime();
+            mHeartbeatTimeoutSeconds = HEARBEAT_TIMEOUT_DEFAULT + mHeartbeatTimeoutExtraSeconds;
+            checkHeartbeat();
+
+            if (mEngine != null) {
+                mEngine.beginHandshake();
+                handshake();
+            } else {
+                onReady();
+            }
+        }
+
+        private void onReady() throws IOException {
+            mIsReady = true;
+
+            AfLog.i("NioConclaveClient: connected to " + mHost + ":" + mPort);
+
+            if (mConnectEmitter != null) {
+                mConnectEmitter.onNext(NioConclaveClient.this);
+                mConnectEmitter.onCompleted();
+                mConnectEmitter = null;
+            }
+
+            byte[] pending;
+            while ((pending = mPendingWrites.poll()) != null) {
+                sendPlain(ByteBuffer.wrap(pending));
+            }
+        }
+
+        private void checkHeartbeat() {
+            if (mIsClosed) {
+                return;
+            }
+
+            final long timeoutNanos = TimeUnit.SECONDS.toNanos(mHeartbeatTimeoutSeconds);
+            final long idleNanos = System.nanoTime() - mLastReadNanos;
+
+            if (timeoutNanos > 0 && idleNanos >= timeoutNanos) {
+                onFailure(new SocketTimeoutException("NioConclaveClient: heartbeat timed out"));
+                return;
+            }
+
+            long delayNanos = timeoutNanos > 0
+                    ? timeoutNanos - idleNanos
+                    : TimeUnit.SECONDS.toNanos(HEARBEAT_TIMEOUT_DEFAULT);
+
+            mHeartbeatTask = mEventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mHeartbeatTask = null;
+                    checkHeartbeat();
+                }
+            }, Math.max(delayNanos, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+        }
+
+        // inbound ------------------------------------------------------------------
+
+        private void read() throws IOException {
+            int count = mChannel.read(mNetIn);
+            if (count < 0) {
+                throw new EOFException("NioConclaveClient: connection closed by server");
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            mLastReadNanos = System.nanoTime();
+
+            mNetIn.flip();
+            if (mEngine != null) {
+                unwrap();
+            } else {
+                consume(mNetIn);
+            }
+            mNetIn.compact();
+        }
+
+        private void unwrap() throws IOException {
+            while (mNetIn.hasRemaining() && !mIsClosed) {
+                SSLEngineResult result = mEngine.unwrap(mNetIn, mAppIn);
+
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        mAppIn = grow(mAppIn, mEngine.getSession().getApplicationBufferSize());
+                        continue;
+
+                    case BUFFER_UNDERFLOW:
+                        final int packetSize = mEngine.getSession().getPacketBufferSize();
+                        if (packetSize > mNetIn.capacity()) {
+                            ByteBuffer bigger = ByteBuffer.allocate(packetSize);
+                            bigger.put(mNetIn);
+                            bigger.flip();
+                            mNetIn = bigger;
+                        }
+                        return;
+
+                    case CLOSED:
+                        throw new EOFException("NioConclaveClient: SSL session closed by server");
+
+                    default:
+                        break;
+                }
+
+                if (mAppIn.position() > 0) {
+                    mAppIn.flip();
+                    consume(mAppIn);
+                    mAppIn.clear();
+                }
+
+                switch (result.getHandshakeStatus()) {
+                    case FINISHED:
+                    case NEED_TASK:
+                    case NEED_WRAP:
+                        handshake();
+                        continue;
+
+                    default:
+                        break;
+                }
+
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void handshake() throws IOException {
+            while (!mIsClosed) {
+                switch (mEngine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = mEngine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+
+                    case NEED_WRAP:
+                        wrap(EMPTY_BUFFER);
+                        break;
+
+                    case NOT_HANDSHAKING:
+                        if (!mIsReady) {
+                            onReady();
+                        }
+                        return;
+
+                    default:
+                        // NEED_UNWRAP: wait for more data from the server
+                        return;
+                }
+            }
+        }
+
+        private void consume(ByteBuffer plain) throws IOException {
+            final byte[] array = plain.array();
+            final int offset = plain.arrayOffset() + plain.position();
+            final int length = plain.remaining();
+            plain.position(plain.limit());
+
+            if (mCompression == null) {
+                mFramer.append(array, offset, length);
+            } else {
+                mCompression.inflate(array, offset, length, mFramer);
+            }
+        }
+
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) throws IOException {
+            if (AfLog.isLoggable(AfLog.FilterLevel.INFO)) {
+                AfLog.i("NioConclaveClient: readLine=" + new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+
+            readEvent(bytes, offset, length);
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            AfLog.i("NioConclaveClient: readLine=<empty> (heartbeat)");
+            sendHeartbeatReply();
+        }
+
+        // outbound -----------------------------------------------------------------
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (!mIsReady) {
+                // the SSL handshake hasn't finished yet, hold on to the bytes in order
+                mPendingWrites.add(Arrays.copyOfRange(bytes, offset, offset + length));
+                return;
+            }
+
+            sendPlain(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        private void sendPlain(ByteBuffer src) throws IOException {
+            if (mEngine != null) {
+                wrap(src);
+                return;
+            }
+
+            if (mNetOut.remaining() < src.remaining()) {
+                flush();
+                if (mNetOut.remaining() < src.remaining()) {
+                    mNetOut = grow(mNetOut, src.remaining());
+                }
+            }
+
+            mNetOut.put(src);
+            flush();
+        }
+
+        private void wrap(ByteBuffer src) throws IOException {
+            do {
+                SSLEngineResult result = mEngine.wrap(src, mNetOut);
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    final int packetSize = mEngine.getSession().getPacketBufferSize();
+                    flush();
+                    if (mNetOut.remaining() < packetSize) {
+                        mNetOut = grow(mNetOut, packetSize);
+                    }
+                    continue;
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new EOFException("NioConclaveClient: SSL session closed");
+                }
+
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            } while (src.hasRemaining());
+
+            flush();
+        }
+
+        private void flush() throws IOException {
+            mNetOut.flip();
+            while (mNetOut.hasRemaining()) {
+                if (mChannel.write(mNetOut) == 0) {
+                    break;
+                }
+            }
+            mNetOut.compact();
+
+            final int ops = mNetOut.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ;
+
+            if (mKey.isValid() && mKey.interestOps() != ops) {
+                mKey.interestOps(ops);
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@
 
 package io.afero.sdk.conclave.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.Arrays;
@@ -59,6 +60,9 @@ public class DeviceSync {
     public String deviceId;
     public String profileId;
     public int seq;
+    // Conclave generation the seq belongs to; 0 if the state didn't come from a Conclave session
+    @JsonIgnore
+    public long generation;
     public long createdTimestamp;
     public DeviceTag[] deviceTags;
     public boolean virtual;
@@ -120,6 +124,7 @@ public class DeviceSync {
                 "deviceId='" + deviceId + '\'' +
                 ", profileId='" + profileId + '\'' +
                 ", seq=" + seq +
+                ", generation=" + generation +
                 ", createdTimeStamp=" + createdTimestamp +
                 ", deviceTags=" + Arrays.toString(deviceTags) +
                 ", virtual=" + virtual +
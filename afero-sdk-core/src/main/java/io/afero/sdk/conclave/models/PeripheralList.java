@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PeripheralList {
+
+    public PeripheralList() {}
+
+    public Integer currentSeq;
+    public DeviceSync[] peripherals;
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Arrays;
+
+import io.afero.sdk.client.afero.models.AttributeValue;
+
+/**
+ * Per-device attribute state keyed by attribute id. Entries are stored densely in parallel arrays
+ * in insertion order, with an open addressing hash of attribute id to entry index, so lookups
+ * don't box and each entry costs a few array slots rather than a map node plus a holder object.
+ * Entries are never removed or moved, so an index stays valid once returned.
+ *
+ * <p>Every method is atomic: the device's event thread adds entries while writers and UI
+ * threads read and set values, and growing the table replaces all of its arrays.</p>
+ *
+ * <p>Values received from the service are kept as their raw strings. The decoded current value
+ * is a memo that {@link DeviceModel} fills in on first access, and a null pending value means the
+ * pending value is the current value.</p>
+ */
+final class AttributeTable {
+
+    private static final int MIN_CAPACITY = 8;
+    private static final int[] EMPTY_INTS = new int[0];
+    private static final long[] EMPTY_LONGS = new long[0];
+    private static final String[] EMPTY_STRINGS = new String[0];
+    private static final AttributeValue[] EMPTY_VALUES = new AttributeValue[0];
+
+    private int[] mIds = EMPTY_INTS;
+    private String[] mRawValues = EMPTY_STRINGS;
+    private AttributeValue[] mCurrentValues = EMPTY_VALUES;
+    private AttributeValue[] mPendingValues = EMPTY_VALUES;
+    private long[] mUpdatedTimes = EMPTY_LONGS;
+    private long[] mExpectedUpdateTimes = EMPTY_LONGS;
+    private int mSize;
+
+    // entry index + 1 for each hash slot, 0 if the slot is empty; length is a power of two at
+    // least twice the capacity, so probe sequences stay short
+    private int[] mSlots = EMPTY_INTS;
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return index of the entry for the attribute, or -1 if there is none
+     */
+    synchronized int indexOf(int attrId) {
+        final int[] slots = mSlots;
+        if (slots.length == 0) {
+            return -1;
+        }
+
+        final int mask = slots.length - 1;
+        for (int slot = hash(attrId) & mask; ; slot = (slot + 1) & mask) {
+            final int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (mIds[entry - 1] == attrId) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * @return index of the entry for the attribute, which is added if it didn't exist
+     */
+    synchronized int add(int attrId) {
+        int index = indexOf(attrId);
+        if (index >= 0) {
+            return index;
+        }
+
+        ensureCapacity(mSize + 1);
+
+        index = mSize++;
+        mIds[index] = attrId;
+        insertSlot(attrId, index);
+
+        return index;
+    }
+
+    /**
+     * Grows the table, if needed, so it can hold {@code capacity} entries without reallocating.
+     */
+    synchronized void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+
+        final int newCapacity = Math.max(capacity, Math.max(MIN_CAPACITY, mIds.length + (mIds.length >> 1)));
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mRawValues = Arrays.copyOf(mRawValues, newCapacity);
+        mCurrentValues = Arrays.copyOf(mCurrentValues, newCapacity);
+        mPendingValues = Arrays.copyOf(mPendingValues, newCapacity);
+        mUpdatedTimes = Arrays.copyOf(mUpdatedTimes, newCapacity);
+        mExpectedUpdateTimes = Arrays.copyOf(mExpectedUpdateTimes, newCapacity);
+
+        final int slotCount = Integer.highestOneBit(newCapacity * 2 - 1) << 1;
+        if (slotCount != mSlots.length) {
+            mSlots = new int[slotCount];
+            for (int i = 0; i < mSize; ++i) {
+                insertSlot(mIds[i], i);
+            }
+        }
+    }
+
+    synchronized int getId(int index) {
+        return mIds[index];
+    }
+
+    synchronized String getRawValue(int index) {
+        return mRawValues[index];
+    }
+
+    /**
+     * Sets the value last received from the service, discarding the decoded current value and
+     * any pending value.
+     */
+    synchronized void setRawValue(int index, String value) {
+        mRawValues[index] = value;
+        mCurrentValues[index] = null;
+        mPendingValues[index] = null;
+    }
+
+    synchronized AttributeValue getCurrentValue(int index) {
+        return mCurrentValues[index];
+    }
+
+    synchronized void setCurrentValue(int index, AttributeValue value) {
+        mCurrentValues[index] = value;
+    }
+
+    /**
+     * Memoizes a decoded current value, unless the raw value was replaced after it was read.
+     *
+     * @param raw raw value, as returned by {@link #getRawValue}, that {@code value} was decoded from
+     * @return false if the raw value has changed and {@code value} was discarded
+     */
+    synchronized boolean setCurrentValueIfRaw(int index, String raw, AttributeValue value) {
+        // identity, not equals: the same string arriving again still clears the memo
+        if (mRawValues[index] != raw) {
+            return false;
+        }
+        mCurrentValues[index] = value;
+        return true;
+    }
+
+    synchronized AttributeValue getPendingValue(int index) {
+        return mPendingValues[index];
+    }
+
+    synchronized void setPendingValue(int index, AttributeValue value) {
+        mPendingValues[index] = value;
+    }
+
+    synchronized long getUpdatedTime(int index) {
+        return mUpdatedTimes[index];
+    }
+
+    synchronized void setUpdatedTime(int index, long time) {
+        mUpdatedTimes[index] = time;
+    }
+
+    synchronized long getExpectedUpdateTime(int index) {
+        return mExpectedUpdateTimes[index];
+    }
+
+    synchronized void setExpectedUpdateTime(int index, long time) {
+        mExpectedUpdateTimes[index] = time;
+    }
+
+    private void insertSlot(int attrId, int index) {
+        final int mask = mSlots.length - 1;
+        int slot = hash(attrId) & mask;
+        while (mSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mSlots[slot] = index + 1;
+    }
+
+    // attribute ids are clustered in small ranges, so spread them before masking
+    private static int hash(int attrId) {
+        final int h = attrId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -5,25 +5,25 @@
 package io.afero.sdk.device;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import io.afero.sdk.client.afero.models.AferoError;
 import io.afero.sdk.client.afero.models.AttributeValue;
 import io.afero.sdk.client.afero.models.WriteRequest;
 import io.afero.sdk.client.afero.models.WriteResponse;
-import io.afero.sdk.conclave.models.DeviceError;
-import io.afero.sdk.conclave.models.DeviceSync;
 import io.afero.sdk.utils.Clock;
-import io.afero.sdk.utils.RxUtils;
 import rx.Emitter;
 import rx.Observable;
-import rx.Subscription;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.functions.Func2;
 
@@ -37,18 +37,30 @@ public final class AttributeWriter {
     private static final int WRITE_ATTRIBUTE_RETRY_COUNT = 4;
     private static final long DEFAULT_TIMEOUT = 30;
     private static final int HTTP_LOCKED = 423; // https://tools.ietf.org/html/rfc4918#section-11.3
-    private static final int REQUEST_BATCH_SIZE = 5;
+    static final int REQUEST_BATCH_SIZE = 5;
 
     private final WeakReference<DeviceModel> mDeviceModelRef;
+    private final String mDeviceId;
     private final TreeMap<Integer, WriteRequest> mWriteRequests = new TreeMap<>();
     private final TreeMap<Integer, WriteRequestResponsePair> mPendingResponses = new TreeMap<>();
     private final HashMap<Integer, Result> mResultsNotAttempted = new HashMap<>();
+    private final ArrayDeque<WriteRequest> mUnsentRequests = new ArrayDeque<>();
+    private final Object mLock = new Object();
     private final long mTimeoutSeconds;
+    private int mMaxBatchesInFlight = 1;
+    private boolean mAdaptiveBatchSize;
+    private int mBatchesInFlight;
 
     private final Observable<Result> mDeviceResultObservable = deviceResultObservable();
     private Emitter<Result> mResultEmitter;
-    private Subscription mDeviceSyncSubscription;
-    private Subscription mDeviceErrorSubscription;
+
+    // device updates and errors for our requestIds arrive through WriteAckIndex
+    private final WriteAckIndex.Listener mAckListener = new WriteAckIndex.Listener() {
+        @Override
+        public void onWriteAck(int requestId, Result.Status status) {
+            emitResult(requestId, status);
+        }
+    };
 
     /**
      * Class that represents the final status of a write to a particular device attribute.
@@ -146,6 +158,7 @@ public final class AttributeWriter {
      */
     AttributeWriter(DeviceModel deviceModel, long timeoutSeconds) {
         mDeviceModelRef = new WeakReference<>(deviceModel);
+        mDeviceId = deviceModel.getId();
         mTimeoutSeconds = timeoutSeconds;
     }
 
@@ -154,6 +167,7 @@ public final class AttributeWriter {
      */
     private AttributeWriter() {
         mDeviceModelRef = null;
+        mDeviceId = null;
         mTimeoutSeconds = 0;
     }
 
@@ -169,6 +183,38 @@ public final class AttributeWriter {
         return this;
     }
 
+    /**
+     * Sets how many batch requests may be outstanding at once. The default of 1 issues batches
+     * strictly in series; higher values pipeline large writes at the cost of putting more load on
+     * the device at once.
+     *
+     * @param count maximum number of batch requests in flight, at least 1
+     * @return this AttributeWriter instance
+     */
+    public AttributeWriter setMaxBatchesInFlight(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        mMaxBatchesInFlight = count;
+        return this;
+    }
+
+    /**
+     * Sizes batches using the device's {@link WriteBatchStats#getBatchSize()}, which grows while
+     * batches succeed and shrinks when the device is busy, rather than a fixed size.
+     *
+     * @param adaptive {@code true} to use the adaptive batch size
+     * @return this AttributeWriter instance
+     */
+    public AttributeWriter setAdaptiveBatchSize(boolean adaptive) {
+        mAdaptiveBatchSize = adaptive;
+        return this;
+    }
+
+    int size() {
+        return mWriteRequests.size();
+    }
+
     /**
      * @return {@code true} if this AttributeWriter contains no attributes; false otherwise.
      */
@@ -189,44 +235,23 @@ public final class AttributeWriter {
             throw new IllegalArgumentException("Must put at least one attribute");
         }
 
-        return Observable.from(mWriteRequests.values())
-
-            // Since requests may be issued in batches, an error could abort the process before
-            // we even issue the batch request, but we still need to emit an appropriate Result.
-            // So we add a NOT_ATTEMPTED Result to this list for each request, then as each request
-            // is issued, the corresponding Result is removed from this list. When an error occurs
-            // any Results remaining in this list will be emitted.
-            .doOnNext(new Action1<WriteRequest>() {
+        return Observable.defer(new Func0<Observable<Result>>() {
                 @Override
-                public void call(WriteRequest writeRequest) {
-                    mResultsNotAttempted.put(writeRequest.attrId, new Result(writeRequest.attrId));
-                }
-            })
-
-            // Issue requests in chunks so we don't overwhelm the device with attribute spray
-            .buffer(REQUEST_BATCH_SIZE)
-
-            // Map each chunk of requests to an Observable that will execute that chunk
-            .map(new Func1<List<WriteRequest>, Observable<Result>>() {
-                @Override
-                public Observable<Result> call(List<WriteRequest> writeRequests) {
-                    return deviceBatchWrite(writeRequests);
-                }
-            })
-
-            // Concat each batch together so they execute serially
-            .reduce(new Func2<Observable<Result>, Observable<Result>, Observable<Result>>() {
-                @Override
-                public Observable<Result> call(Observable<Result> resultObservable, Observable<Result> resultObservable2) {
-                    return resultObservable.concatWith(resultObservable2);
-                }
-            })
+                public Observable<Result> call() {
+                    // Since requests may be issued in batches, an error could abort the process before
+                    // we even issue the batch request, but we still need to emit an appropriate Result.
+                    // So we add a NOT_ATTEMPTED Result to this list for each request, then as each batch
+                    // is issued, the corresponding Results are removed from this list. When an error occurs
+                    // any Results remaining in this list will be emitted.
+                    synchronized (mLock) {
+                        for (WriteRequest writeRequest : mWriteRequests.values()) {
+                            mResultsNotAttempted.put(writeRequest.attrId, new Result(writeRequest.attrId));
+                        }
+                        mUnsentRequests.clear();
+                        mUnsentRequests.addAll(mWriteRequests.values());
+                    }
 
-            // Execute the Observable chain
-            .flatMap(new Func1<Observable<Result>, Observable<Result>>() {
-                @Override
-                public Observable<Result> call(Observable<Result> resultObservable) {
-                    return Observable.mergeDelayError(mDeviceResultObservable, resultObservable);
+                    return Observable.mergeDelayError(mDeviceResultObservable, batchWrites());
                 }
             })
 
@@ -239,6 +264,64 @@ public final class AttributeWriter {
             ;
     }
 
+    // Issue requests in chunks so we don't overwhelm the device with attribute spray. Each chunk
+    // is taken from mUnsentRequests when its request is issued, so an adaptive batch size change
+    // applies to the rest of this write. There can't be more chunks than requests, so any extra
+    // chunks are empty.
+    private Observable<Result> batchWrites() {
+        final int maxBatchCount;
+        synchronized (mLock) {
+            maxBatchCount = mUnsentRequests.size();
+        }
+
+        // delay errors so a failure in one batch doesn't drop the results of the others in flight
+        return Observable.mergeDelayError(Observable.range(0, maxBatchCount)
+            .map(new Func1<Integer, Observable<Result>>() {
+                @Override
+                public Observable<Result> call(Integer i) {
+                    return Observable.defer(new Func0<Observable<Result>>() {
+                        @Override
+                        public Observable<Result> call() {
+                            return nextBatchWrite();
+                        }
+                    });
+                }
+            }), mMaxBatchesInFlight);
+    }
+
+    private Observable<Result> nextBatchWrite() {
+        final DeviceModel deviceModel = getDevice();
+        final int batchSize = mAdaptiveBatchSize && deviceModel != null
+            ? deviceModel.getWriteBatchStats().getBatchSize()
+            : REQUEST_BATCH_SIZE;
+        final ArrayList<WriteRequest> writeRequests = new ArrayList<>(batchSize);
+
+        synchronized (mLock) {
+            while (writeRequests.size() < batchSize && !mUnsentRequests.isEmpty()) {
+                final WriteRequest writeRequest = mUnsentRequests.poll();
+                mResultsNotAttempted.remove(writeRequest.attrId);
+                writeRequests.add(writeRequest);
+            }
+
+            if (writeRequests.isEmpty()) {
+                return Observable.empty();
+            }
+
+            ++mBatchesInFlight;
+        }
+
+        return deviceBatchWrite(writeRequests)
+            .doOnTerminate(new Action0() {
+                @Override
+                public void call() {
+                    synchronized (mLock) {
+                        --mBatchesInFlight;
+                        completeIfFinished();
+                    }
+                }
+            });
+    }
+
     private Observable<Result> deviceBatchWrite(final List<WriteRequest> writeRequests) {
 
         DeviceModel deviceModel = getDevice();
@@ -258,10 +341,27 @@ public final class AttributeWriter {
          * response before issuing the AttributeWriteFailure to the main Observable.
          */
         // See http://wiki.afero.io/display/CD/Batch+Attribute+Requests
+        final WriteBatchStats batchStats = deviceModel.getWriteBatchStats();
+        final HashSet<Integer> answeredAttrIds = new HashSet<>();
+
         return deviceModel.postBatchAttributeWrite(writeRequests, WRITE_ATTRIBUTE_RETRY_COUNT, HTTP_LOCKED)
+            .doOnError(new Action1<Throwable>() {
+                @Override
+                public void call(Throwable t) {
+                    DeviceModel deviceModel = getDevice();
+                    if (deviceModel != null && deviceModel.getStatusCode(t) == HTTP_LOCKED) {
+                        batchStats.onBackoff();
+                    }
+                }
+            })
             .flatMap(new Func1<WriteResponse[], Observable<Result>>() {
                 @Override
                 public Observable<Result> call(WriteResponse[] writeResponses) {
+                    boolean wasLocked = false;
+                    for (WriteResponse writeResponse : writeResponses) {
+                        wasLocked |= writeResponse.statusCode == HTTP_LOCKED;
+                    }
+                    batchStats.onBatchResponse(Clock.getElapsedMillis() - now, wasLocked);
 
                     // This Observable emits Results as they come in:
                     //  - Results for failed requests (rare) are emitted immediately
@@ -273,7 +373,7 @@ public final class AttributeWriter {
                         // so zip them together into one object for easier processing...
                         .zipWith(Observable.from(writeRequests), zipDeviceRequestWithRequestResponse(now))
 
-                        .doOnNext(processResponse())
+                        .doOnNext(processResponse(answeredAttrIds))
 
                         // let failed responses fall through and be emitted
                         .filter(new Func1<WriteRequestResponsePair, Boolean>() {
@@ -285,9 +385,36 @@ public final class AttributeWriter {
 
                         .map(toWriteResult());
                 }
+            })
+            .doOnError(new Action1<Throwable>() {
+                @Override
+                public void call(Throwable t) {
+                    synchronized (mLock) {
+                        returnUnanswered(writeRequests, answeredAttrIds);
+                        stopIssuingBatches();
+                    }
+                }
+            })
+            .doOnUnsubscribe(new Action0() {
+                @Override
+                public void call() {
+                    // e.g. the write timed out while this batch was in flight
+                    synchronized (mLock) {
+                        returnUnanswered(writeRequests, answeredAttrIds);
+                    }
+                }
             });
     }
 
+    // call with mLock held; requests in a batch that never got a response weren't applied
+    private void returnUnanswered(List<WriteRequest> writeRequests, Set<Integer> answeredAttrIds) {
+        for (WriteRequest writeRequest : writeRequests) {
+            if (!answeredAttrIds.contains(writeRequest.attrId)) {
+                mResultsNotAttempted.put(writeRequest.attrId, new Result(writeRequest.attrId));
+            }
+        }
+    }
+
     private Func2<WriteResponse, WriteRequest, WriteRequestResponsePair> zipDeviceRequestWithRequestResponse(final long now) {
         return new Func2<WriteResponse, WriteRequest, WriteRequestResponsePair>() {
             @Override
@@ -297,24 +424,30 @@ public final class AttributeWriter {
         };
     }
 
-    private Action1<WriteRequestResponsePair> processResponse() {
+    private Action1<WriteRequestResponsePair> processResponse(final Set<Integer> answeredAttrIds) {
         return new Action1<WriteRequestResponsePair>() {
             @Override
             public void call(WriteRequestResponsePair wrrp) {
-                mResultsNotAttempted.remove(wrrp.writeRequest.attrId);
+                synchronized (mLock) {
+                    answeredAttrIds.add(wrrp.writeRequest.attrId);
 
-                final long now = Clock.getElapsedMillis();
+                    final long now = Clock.getElapsedMillis();
 
-                if (wrrp.writeResponse.isSuccess()) {
-                    mPendingResponses.put(wrrp.writeResponse.requestId, wrrp);
-                } else {
-                    mResultEmitter.onNext(new Result(wrrp, Result.Status.FAILURE, now));
+                    if (wrrp.writeResponse.isSuccess()) {
+                        // registered with mLock held, so an ack that arrives right away waits in
+                        // emitResult until the response is pending
+                        WriteAckIndex.getDefault().register(mDeviceId, wrrp.writeResponse.requestId,
+                            mAckListener, mTimeoutSeconds, TimeUnit.SECONDS);
+                        mPendingResponses.put(wrrp.writeResponse.requestId, wrrp);
+                    } else {
+                        mResultEmitter.onNext(new Result(wrrp, Result.Status.FAILURE, now));
 
-                    if (mPendingResponses.isEmpty()) {
-                        mResultEmitter.onCompleted();
-                    }
+                        // batches already in flight still get their results before the error is emitted
+                        stopIssuingBatches();
+                        completeIfFinished();
 
-                    throw new AttributeWriteRequestFailure(wrrp.writeRequest.attrId);
+                        throw new AttributeWriteRequestFailure(wrrp.writeRequest.attrId);
+                    }
                 }
             }
         };
@@ -361,10 +494,14 @@ public final class AttributeWriter {
         return new Func1<Throwable, Observable<Result>>() {
             @Override
             public Observable<Result> call(Throwable throwable) {
-                if (!mResultsNotAttempted.isEmpty()) {
-                    Result[] results = new Result[mResultsNotAttempted.size()];
+                final Result[] results;
+                synchronized (mLock) {
+                    results = new Result[mResultsNotAttempted.size()];
                     mResultsNotAttempted.values().toArray(results);
                     mResultsNotAttempted.clear();
+                }
+
+                if (results.length > 0) {
                     return Observable.from(results)
                             .concatWith(Observable.<Result>error(throwable));
                 }
@@ -372,6 +509,11 @@ public final class AttributeWriter {
                 final long now = Clock.getElapsedMillis();
 
                 if (throwable instanceof TimeoutException) {
+                    DeviceModel deviceModel = getDevice();
+                    if (deviceModel != null) {
+                        deviceModel.getWriteBatchStats().onBackoff();
+                    }
+
                     if (!mPendingResponses.isEmpty()) {
                         return Observable.from(mPendingResponses.values())
                             .map(new Func1<WriteRequestResponsePair, Result>() {
@@ -409,27 +551,6 @@ public final class AttributeWriter {
                 }
 
                 deviceModel.onWriteStart(mWriteRequests.values());
-
-                mDeviceSyncSubscription = deviceModel.getDeviceSyncPostUpdateObservable()
-                        .subscribe(new Action1<DeviceSync>() {
-                            @Override
-                            public void call(DeviceSync deviceSync) {
-                                if (deviceSync.hasRequestId()) {
-                                    emitResult(deviceSync.requestId, Result.Status.SUCCESS);
-                                }
-                            }
-                        });
-
-                mDeviceErrorSubscription = deviceModel.getErrorObservable()
-                        .subscribe(new Action1<AferoError>() {
-                            @Override
-                            public void call(AferoError error) {
-                                WriteRequestResponsePair wrrp = getResponseFromError(error);
-                                if (wrrp != null) {
-                                    emitResult(wrrp.writeResponse.requestId, Result.Status.FAILURE);
-                                }
-                            }
-                        });
             }
         };
     }
@@ -438,8 +559,11 @@ public final class AttributeWriter {
         return new Action0() {
             @Override
             public void call() {
-                mDeviceSyncSubscription = RxUtils.safeUnSubscribe(mDeviceSyncSubscription);
-                mDeviceErrorSubscription = RxUtils.safeUnSubscribe(mDeviceErrorSubscription);
+                synchronized (mLock) {
+                    for (Integer requestId : mPendingResponses.keySet()) {
+                        WriteAckIndex.getDefault().remove(requestId, mAckListener);
+                    }
+                }
             }
         };
     }
@@ -449,26 +573,29 @@ public final class AttributeWriter {
             return;
         }
 
-        // if this deviceSync matches one of our requestIds, emit it
-        WriteRequestResponsePair wrrp = mPendingResponses.remove(requestId);
-        if (wrrp != null) {
-            final long now = Clock.getElapsedMillis();
-            mResultEmitter.onNext(new Result(wrrp, status, now));
-        }
+        synchronized (mLock) {
+            // if this deviceSync matches one of our requestIds, emit it
+            WriteRequestResponsePair wrrp = mPendingResponses.remove(requestId);
+            if (wrrp != null) {
+                final long now = Clock.getElapsedMillis();
+                mResultEmitter.onNext(new Result(wrrp, status, now));
+            }
 
-        // no more responses left means we're done
-        if (mPendingResponses.isEmpty()) {
-            mResultEmitter.onCompleted();
+            completeIfFinished();
         }
     }
 
-    private WriteRequestResponsePair getResponseFromError(AferoError error) {
-        if (error instanceof DeviceError) {
-            int reqId = ((DeviceError) error).requestId;
-            return mPendingResponses.get(reqId);
-        }
+    // call with mLock held; requests that weren't issued stay in mResultsNotAttempted
+    private void stopIssuingBatches() {
+        mUnsentRequests.clear();
+    }
 
-        return null;
+    // call with mLock held; no more responses left and no more requests to issue means we're done
+    private void completeIfFinished() {
+        if (mResultEmitter != null && mPendingResponses.isEmpty()
+                && mUnsentRequests.isEmpty() && mBatchesInFlight == 0) {
+            mResultEmitter.onCompleted();
+        }
     }
 
     private DeviceModel getDevice() {
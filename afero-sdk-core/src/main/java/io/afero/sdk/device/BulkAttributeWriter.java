@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.client.afero.models.AttributeValue;
+import io.afero.sdk.log.AfLog;
+import io.afero.sdk.utils.Clock;
+import io.afero.sdk.utils.RateLimiter;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+/**
+ * Writes the same attribute values to many devices, with a bounded number of devices written at
+ * once and the collection's request rate limit applied, so a fleet-wide change doesn't issue
+ * thousands of requests at the same time.
+ *
+ * @see DeviceCollection#writeAttributes(rx.functions.Func1)
+ */
+public final class BulkAttributeWriter {
+
+    static final int DEFAULT_MAX_CONCURRENT_DEVICES = 8;
+
+    private final List<DeviceModel> mDevices;
+    private final RateLimiter mRateLimiter;
+    private final TreeMap<Integer, AttributeValue> mValues = new TreeMap<>();
+    private final AsyncSubject<Summary> mSummarySubject = AsyncSubject.create();
+    private int mMaxConcurrentDevices = DEFAULT_MAX_CONCURRENT_DEVICES;
+
+    private final Object mLock = new Object();
+    private long mStartMillis;
+    private int mSucceededDeviceCount;
+    private int mFailedDeviceCount;
+    private int mSkippedDeviceCount;
+    private int mSuccessCount;
+    private int mFailureCount;
+
+    /**
+     * A {@link AttributeWriter.Result} for one of the devices being written.
+     */
+    public static final class DeviceResult {
+        public final DeviceModel deviceModel;
+        public final AttributeWriter.Result result;
+
+        DeviceResult(DeviceModel deviceModel, AttributeWriter.Result result) {
+            this.deviceModel = deviceModel;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Totals for a completed bulk write.
+     */
+    public static final class Summary {
+        /** devices selected for the write */
+        public final int deviceCount;
+        /** devices for which every attribute write succeeded */
+        public final int succeededDeviceCount;
+        /** devices for which any attribute write failed, timed out or was not attempted */
+        public final int failedDeviceCount;
+        /** devices whose profile has none of the attributes being written */
+        public final int skippedDeviceCount;
+        /** attribute writes that succeeded */
+        public final int successCount;
+        /** attribute writes that failed, timed out or were not attempted */
+        public final int failureCount;
+        public final long elapsedMillis;
+
+        private Summary(int deviceCount, int succeededDeviceCount, int failedDeviceCount, int skippedDeviceCount,
+                        int successCount, int failureCount, long elapsedMillis) {
+            this.deviceCount = deviceCount;
+            this.succeededDeviceCount = succeededDeviceCount;
+            this.failedDeviceCount = failedDeviceCount;
+            this.skippedDeviceCount = skippedDeviceCount;
+            this.successCount = successCount;
+            this.failureCount = failureCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{devices=" + deviceCount +
+                ", succeeded=" + succeededDeviceCount +
+                ", failed=" + failedDeviceCount +
+                ", skipped=" + skippedDeviceCount +
+                ", successCount=" + successCount +
+                ", failureCount=" + failureCount +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+        }
+    }
+
+    BulkAttributeWriter(List<DeviceModel> devices, RateLimiter rateLimiter) {
+        mDevices = devices;
+        mRateLimiter = rateLimiter;
+    }
+
+    /**
+     * Adds an attribute value to be written to each device. Devices whose profile doesn't have the
+     * attribute are not sent that value.
+     *
+     * @param attrId Id of the attribute
+     * @param value  {@link AttributeValue} to write to the specified attribute
+     * @return this BulkAttributeWriter instance
+     */
+    public BulkAttributeWriter put(int attrId, AttributeValue value) {
+        mValues.put(attrId, value);
+        return this;
+    }
+
+    /**
+     * @param count maximum number of devices being written at once, at least 1
+     * @return this BulkAttributeWriter instance
+     */
+    public BulkAttributeWriter setMaxConcurrentDevices(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        mMaxConcurrentDevices = count;
+        return this;
+    }
+
+    /**
+     * @return number of devices selected for the write
+     */
+    public int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    /**
+     * Starts execution of the write operation. A failure on one device doesn't stop the others;
+     * it is reported through that device's {@link DeviceResult}s and the {@link Summary}.
+     *
+     * @return {@link Observable} that emits a {@link DeviceResult} for each attribute written to
+     * each device, and completes when all devices are done
+     */
+    public Observable<DeviceResult> commit() {
+        if (mValues.isEmpty()) {
+            throw new IllegalArgumentException("Must put at least one attribute");
+        }
+
+        return Observable.defer(new Func0<Observable<DeviceResult>>() {
+                @Override
+                public Observable<DeviceResult> call() {
+                    synchronized (mLock) {
+                        mStartMillis = Clock.getElapsedMillis();
+                    }
+
+                    return Observable.from(mDevices)
+                        .flatMap(new Func1<DeviceModel, Observable<DeviceResult>>() {
+                            @Override
+                            public Observable<DeviceResult> call(DeviceModel deviceModel) {
+                                return writeDevice(deviceModel);
+                            }
+                        }, mMaxConcurrentDevices);
+                }
+            })
+            .doOnTerminate(new Action0() {
+                @Override
+                public void call() {
+                    mSummarySubject.onNext(getSummary());
+                    mSummarySubject.onCompleted();
+                }
+            });
+    }
+
+    /**
+     * @return Observable that emits the {@link Summary} once the write started by
+     * {@link #commit()} completes
+     */
+    public Observable<Summary> getSummaryObservable() {
+        return mSummarySubject;
+    }
+
+    /**
+     * @return {@link Summary} of the write so far
+     */
+    public Summary getSummary() {
+        synchronized (mLock) {
+            return new Summary(mDevices.size(), mSucceededDeviceCount, mFailedDeviceCount, mSkippedDeviceCount,
+                mSuccessCount, mFailureCount, Clock.getElapsedMillis() - mStartMillis);
+        }
+    }
+
+    private Observable<DeviceResult> writeDevice(final DeviceModel deviceModel) {
+        final AttributeWriter writer = deviceModel.writeAttributes();
+        for (Map.Entry<Integer, AttributeValue> entry : mValues.entrySet()) {
+            if (deviceModel.getAttributeById(entry.getKey()) != null) {
+                writer.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (writer.isEmpty()) {
+            synchronized (mLock) {
+                ++mSkippedDeviceCount;
+            }
+            return Observable.empty();
+        }
+
+        final boolean[] failed = new boolean[1];
+
+        return Observable.defer(new Func0<Observable<AttributeWriter.Result>>() {
+                @Override
+                public Observable<AttributeWriter.Result> call() {
+                    // one permit per batch request the writer will issue
+                    final int permits = (writer.size() + AttributeWriter.REQUEST_BATCH_SIZE - 1) / AttributeWriter.REQUEST_BATCH_SIZE;
+                    final long waitMillis = mRateLimiter != null ? mRateLimiter.reserve(permits) : 0;
+                    return waitMillis > 0
+                        ? writer.commit().delaySubscription(waitMillis, TimeUnit.MILLISECONDS)
+                        : writer.commit();
+                }
+            })
+            .map(new Func1<AttributeWriter.Result, DeviceResult>() {
+                @Override
+                public DeviceResult call(AttributeWriter.Result result) {
+                    synchronized (mLock) {
+                        if (result.isSuccess()) {
+                            ++mSuccessCount;
+                        } else {
+                            ++mFailureCount;
+                            failed[0] = true;
+                        }
+                    }
+                    return new DeviceResult(deviceModel, result);
+                }
+            })
+            .onErrorResumeNext(new Func1<Throwable, Observable<DeviceResult>>() {
+                @Override
+                public Observable<DeviceResult> call(Throwable t) {
+                    AfLog.e("BulkAttributeWriter: write to " + deviceModel.getId() + " failed: " + t);
+                    failed[0] = true;
+                    return Observable.empty();
+                }
+            })
+            .doOnCompleted(new Action0() {
+                @Override
+                public void call() {
+                    synchronized (mLock) {
+                        if (failed[0]) {
+                            ++mFailedDeviceCount;
+                        } else {
+                            ++mSucceededDeviceCount;
+                        }
+                    }
+                }
+            });
+    }
+}
@@ -4,15 +4,15 @@
 
 package io.afero.sdk.device;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.util.Locale;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.afero.sdk.client.afero.models.ConclaveAccessDetails;
 import io.afero.sdk.conclave.ConclaveAccessManager;
 import io.afero.sdk.conclave.ConclaveClient;
+import io.afero.sdk.conclave.ConclaveEvent;
+import io.afero.sdk.conclave.ConclaveEventRegistry;
 import io.afero.sdk.conclave.ConclaveMessage;
 import io.afero.sdk.conclave.DeviceEventSource;
 import io.afero.sdk.conclave.models.DeviceError;
@@ -21,8 +21,8 @@ import io.afero.sdk.conclave.models.DeviceState;
 import io.afero.sdk.conclave.models.DeviceSync;
 import io.afero.sdk.conclave.models.InvalidateMessage;
 import io.afero.sdk.conclave.models.OTAInfo;
+import io.afero.sdk.conclave.models.PeripheralList;
 import io.afero.sdk.log.AfLog;
-import io.afero.sdk.utils.JSONUtils;
 import io.afero.sdk.utils.RxUtils;
 import rx.Observable;
 import rx.Observer;
@@ -32,7 +32,7 @@ import rx.subjects.PublishSubject;
 
 public class ConclaveDeviceEventSource implements DeviceEventSource {
 
-    private ConclaveClient mConclaveClient = new ConclaveClient();
+    private final ConclaveClient mConclaveClient;
     private ConclaveAccessManager mConclaveAccessManager;
 
     private PublishSubject<DeviceSync[]> mSnapshotSubject = PublishSubject.create();
@@ -43,9 +43,6 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
     private PublishSubject<OTAInfo> mOTASubject = PublishSubject.create();
     private PublishSubject<InvalidateMessage> mInvalidateSubject = PublishSubject.create();
 
-    private static final String KEY_EVENT = "event";
-    private static final String KEY_DATA = "data";
-
     private String mAccountId;
     private String mUserId;
     private String mClientId;
@@ -58,9 +55,23 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
     private long mGeneration;
     private int mSequenceNum;
 
+    private boolean mResumeEnabled;
+    private boolean mHasSnapshot;
+    private boolean mSkipNextSnapshot;
+    private boolean mResyncPending;
+    private final AtomicInteger mResumedCount = new AtomicInteger();
+    private final AtomicInteger mResyncedCount = new AtomicInteger();
+
     private Subscription mConclaveSubscription;
 
-    private Observer<JsonNode> mConclaveObserver = new Observer<JsonNode>() {
+    private interface EventHandler {
+        void onEvent(ConclaveEvent event);
+    }
+
+    private final ConcurrentHashMap<String, EventHandler> mEventHandlers = new ConcurrentHashMap<>();
+    private final HashSet<String> mBuiltInEvents = new HashSet<>();
+
+    private Observer<ConclaveEvent> mConclaveObserver = new Observer<ConclaveEvent>() {
         @Override
         public void onCompleted() {
 
@@ -74,9 +85,9 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
         }
 
         @Override
-        public void onNext(JsonNode node) {
+        public void onNext(ConclaveEvent event) {
             try {
-                onNextConclave(node);
+                onNextConclave(event);
             } catch (Exception e) {
                 // eat all exceptions - the spice must flow
                 AfLog.e(e);
@@ -85,11 +96,52 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
     };
 
     public ConclaveDeviceEventSource(ConclaveAccessManager cam) {
+        this(cam, new ConclaveClient());
+    }
+
+    /**
+     * @param cam {@link ConclaveAccessManager} that supplies the Conclave access token
+     * @param conclaveClient transport to use, e.g. {@link io.afero.sdk.conclave.NioConclaveClient}
+     */
+    public ConclaveDeviceEventSource(ConclaveAccessManager cam, ConclaveClient conclaveClient) {
+        mConclaveClient = conclaveClient;
         mConclaveAccessManager = cam;
 
+        addBuiltInEventHandlers();
+
         cam.getObservable().subscribe(mConclaveAccessObserver);
     }
 
+    /**
+     * Subscribes to a Conclave event that the SDK doesn't handle itself. The event's
+     * {@code data} is decoded straight into {@code dataType}.
+     *
+     * @param eventName name of the event, matched case-insensitively
+     * @param dataType class to bind the event's {@code data} to
+     * @return Observable that emits the decoded {@code data} of each matching event
+     * @throws IllegalArgumentException if eventName is one of the events handled by the SDK
+     */
+    public synchronized <T> Observable<T> observeEvent(String eventName, final Class<T> dataType) {
+        ConclaveEventRegistry registry = mConclaveClient.getEventRegistry();
+
+        ConclaveEventRegistry.Entry entry = registry.lookup(eventName);
+        if (entry != null && mBuiltInEvents.contains(entry.getName())) {
+            throw new IllegalArgumentException("ConclaveDeviceEventSource: " + eventName + " is handled by the SDK");
+        }
+
+        entry = registry.register(eventName, dataType);
+
+        final PublishSubject<T> subject = PublishSubject.create();
+        mEventHandlers.put(entry.getName(), new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                subject.onNext(dataType.cast(event.data));
+            }
+        });
+
+        return subject;
+    }
+
     public Observable<ConclaveClient.Status> observeConclaveStatus() {
         return mConclaveClient.statusObservable();
     }
@@ -99,8 +151,7 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
         mUserId = userId;
         mClientId = clientId;
         mType = type;
-        mGeneration = 0;
-        mSequenceNum = 0;
+        resetSequence();
 
         return reconnect();
     }
@@ -131,6 +182,60 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
     public void resetSequence() {
         mGeneration = 0;
         mSequenceNum = 0;
+        mHasSnapshot = false;
+        mSkipNextSnapshot = false;
+        mResyncPending = false;
+    }
+
+    /**
+     * Seeds the resume state from device state saved by an earlier process, so that in resume mode
+     * the first session can skip its snapshot if the server's generation and sequence number
+     * still match. Ignored once this event source has received a snapshot of its own.
+     *
+     * @param generation Conclave generation of the saved state
+     * @param seq Conclave sequence number of the last event applied to the saved state
+     * @see #setResumeEnabled(boolean)
+     */
+    public void setResumeState(long generation, int seq) {
+        if (mHasSnapshot || generation == 0) {
+            return;
+        }
+
+        mGeneration = generation;
+        mSequenceNum = seq;
+        mHasSnapshot = true;
+        mSkipNextSnapshot = false;
+        mResyncPending = false;
+    }
+
+    /**
+     * Enables resume mode. When a session reconnects and the server's generation and sequence
+     * number match the last event received, no events were missed, so the snapshot the server
+     * sends after login is skipped instead of being reconciled. If a gap in the sequence is
+     * detected mid-session a fresh snapshot is requested.
+     *
+     * @param enabled true to enable resume mode; default is false.
+     */
+    public void setResumeEnabled(boolean enabled) {
+        mResumeEnabled = enabled;
+    }
+
+    public boolean isResumeEnabled() {
+        return mResumeEnabled;
+    }
+
+    /**
+     * @return number of sessions that reconnected without missing any events and skipped the snapshot.
+     */
+    public int getResumedSessionCount() {
+        return mResumedCount.get();
+    }
+
+    /**
+     * @return number of times events were missed and a full snapshot had to be applied.
+     */
+    public int getResyncedSessionCount() {
+        return mResyncedCount.get();
     }
 
     public void stop() {
@@ -153,7 +258,7 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
             mConclaveSubscription.unsubscribe();
         }
 
-        mConclaveSubscription = mConclaveClient.messageObservable()
+        mConclaveSubscription = mConclaveClient.eventObservable()
             .subscribe(mConclaveObserver);
 
         rx.Observable<ConclaveDeviceEventSource> connectObservable;
@@ -224,101 +329,185 @@ public class ConclaveDeviceEventSource implements DeviceEventSource {
         return mInvalidateSubject;
     }
 
-    private void onNextConclave(JsonNode node) {
-        Map.Entry<String,JsonNode> entry = node.fields().next();
-        String key = entry.getKey().toLowerCase(Locale.ROOT);
+    private void onNextConclave(ConclaveEvent event) {
+        switch (event.key) {
+            case ConclaveEvent.KEY_PUBLIC:
+            case ConclaveEvent.KEY_PRIVATE:
+                onMessage(event);
+                break;
+
+            case ConclaveEvent.KEY_HELLO:
+                if (!mConclaveClient.login(mAccountId, mUserId, mClientId, mToken, mType, mSessionTrace)) {
+                    // an unauthenticated session never delivers events; drop it so the owner reconnects
+                    AfLog.e("ConclaveDeviceEventSource: couldn't send login, closing session");
+                    mConclaveClient.close();
+                }
+                break;
+
+            case ConclaveEvent.KEY_WELCOME: {
+                ConclaveMessage.WelcomeFields welcome = (ConclaveMessage.WelcomeFields)event.data;
+                long generation = welcome.generation;
+                int seq = welcome.seq;
+
+                // a gap that the resync snapshot never repaired means the sequence number can't be trusted
+                final boolean wasResyncPending = mResyncPending;
+                mResyncPending = false;
+
+                final boolean isInSync = !wasResyncPending && mGeneration == generation && mSequenceNum == seq;
+                if (!isInSync) {
+                    AfLog.i("ConclaveDeviceEventSource: generation/sequence # mismatch " + mGeneration + " != " + generation + " || " + mSequenceNum + " != " + seq);
+                    mGeneration = generation;
+                    mSequenceNum = seq;
+                } else {
+                    AfLog.i("ConclaveDeviceEventSource: generation/sequence # match " + mGeneration + "/" + mSequenceNum);
+                }
 
-        if (key.equals("public") || key.equals("private")) {
-            onMessage(entry.getValue());
-        }
-        else if (key.equals("hello")) {
-            mConclaveClient.login(mAccountId, mUserId, mClientId, mToken, mType, mSessionTrace);
-        }
-        else if (key.equals("welcome")) {
-            long generation = mGeneration;
-            JsonNode genNode = entry.getValue().get("generation");
-            if (genNode != null) {
-                generation = genNode.asLong();
+                if (mResumeEnabled && mHasSnapshot) {
+                    mSkipNextSnapshot = isInSync;
+                    if (isInSync) {
+                        mResumedCount.incrementAndGet();
+                        AfLog.i("ConclaveDeviceEventSource: resuming session");
+                    } else {
+                        if (!wasResyncPending) {
+                            mResyncedCount.incrementAndGet();
+                        }
+                        AfLog.i("ConclaveDeviceEventSource: events were missed, resyncing");
+                    }
+                }
+                break;
             }
 
-            int seq = mSequenceNum;
-            JsonNode seqNode = entry.getValue().get("seq");
-            if (seqNode != null) {
-                seq = seqNode.asInt();
+            case ConclaveEvent.KEY_ERROR: {
+                ConclaveMessage.ErrorFields error = (ConclaveMessage.ErrorFields)event.data;
+                if (error.code == ConclaveClient.ERROR_CODE_INVALID_TOKEN) {
+                    mConclaveAccessManager.updateAccess();
+                }
+                break;
             }
+        }
+    }
 
-            if (mGeneration != generation || mSequenceNum != seq) {
-                AfLog.i("ConclaveDeviceEventSource: generation/sequence # mismatch " + mGeneration + " != " + generation + " || " + mSequenceNum + " != " + seq);
-                mGeneration = generation;
-                mSequenceNum = seq;
-//                mConclaveClient.say("snapshot?", null);
+    private void onMessage(ConclaveEvent event) {
+        if (event.hasSeq) {
+            if (mResumeEnabled && mHasSnapshot && !mResyncPending && event.seq > mSequenceNum + 1
+                    && !requestResync(event.seq)) {
+                // leave the gap open so the next event asks again
+                AfLog.e("ConclaveDeviceEventSource: couldn't request resync snapshot");
             } else {
-                AfLog.i("ConclaveDeviceEventSource: generation/sequence # match " + mGeneration + "/" + mSequenceNum);
+                mSequenceNum = event.seq;
             }
         }
-        else if (key.equals("error")) {
-            JsonNode errNode = entry.getValue().get("code");
-            if (errNode != null) {
-                int err = errNode.asInt();
-                if (err == ConclaveClient.ERROR_CODE_INVALID_TOKEN) {
-                    mConclaveAccessManager.updateAccess();
-                }
-            }
+
+        if (event.data == null) {
+            return;
+        }
+
+        EventHandler handler = mEventHandlers.get(event.event);
+        if (handler != null) {
+            handler.onEvent(event);
         }
     }
 
-    private void onMessage(JsonNode node) {
-        try {
-            String event = node.get(KEY_EVENT).asText().toLowerCase(Locale.ROOT);
-            JsonNode data = node.get(KEY_DATA);
-            final ObjectMapper mapper = JSONUtils.getObjectMapper();
+    private void onPeripheralList(PeripheralList peripheralList) {
+        int seq = peripheralList.currentSeq != null ? peripheralList.currentSeq : 0;
+
+        if (peripheralList.currentSeq != null) {
+            mSequenceNum = seq;
+        }
 
-            int seq = 0;
-            JsonNode seqNode = node.get("seq");
-            if (seqNode != null) {
-                mSequenceNum = seqNode.asInt();
+        if (mSkipNextSnapshot) {
+            mSkipNextSnapshot = false;
+            if (!mResyncPending) {
+                AfLog.i("ConclaveDeviceEventSource: session resumed, skipping snapshot");
+                return;
             }
+        }
+
+        mHasSnapshot = true;
+        mResyncPending = false;
+
+        DeviceSync[] deviceSync = peripheralList.peripherals != null ? peripheralList.peripherals : new DeviceSync[0];
+        for (DeviceSync ds : deviceSync) {
+            ds.seq = seq;
+            ds.generation = mGeneration;
+        }
 
-            if (event.equals("attr_change")) {
-                DeviceSync deviceSync = mapper.treeToValue(data, DeviceSync.class);
-                deviceSync.seq = seq;
+        mSnapshotSubject.onNext(deviceSync);
+    }
+
+    private void addBuiltInEventHandlers() {
+        addBuiltInEventHandler(ConclaveEvent.EVENT_ATTR_CHANGE, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                DeviceSync deviceSync = (DeviceSync)event.data;
+                deviceSync.seq = event.seq;
+                deviceSync.generation = mGeneration;
                 mAttributeChangeSubject.onNext(deviceSync);
             }
-            else if (event.equals("peripherallist")) {
-                if (data.has("currentSeq")) {
-                    seq = data.get("currentSeq").asInt();
-                }
-
-                DeviceSync[] deviceSync = mapper.treeToValue(data.get("peripherals"), DeviceSync[].class);
-                for (DeviceSync ds : deviceSync) {
-                    ds.seq = seq;
-                }
+        });
 
-                mSnapshotSubject.onNext(deviceSync);
+        addBuiltInEventHandler(ConclaveEvent.EVENT_PERIPHERAL_LIST, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                onPeripheralList((PeripheralList)event.data);
             }
-            else if (event.equals("invalidate")) {
-                InvalidateMessage invalidateMessage = mapper.treeToValue(data, InvalidateMessage.class);
-                mInvalidateSubject.onNext(invalidateMessage);
+        });
+
+        addBuiltInEventHandler(ConclaveEvent.EVENT_INVALIDATE, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                mInvalidateSubject.onNext((InvalidateMessage)event.data);
             }
-            else if (event.equals("status_change")) {
-                DeviceState state = mapper.treeToValue(data, DeviceState.class);
-                mStatusChange.onNext(state);
+        });
+
+        addBuiltInEventHandler(ConclaveEvent.EVENT_STATUS_CHANGE, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                mStatusChange.onNext((DeviceState)event.data);
             }
-            else if (event.equals("device:error")) {
-                DeviceError err = mapper.treeToValue(data, DeviceError.class);
-                mDeviceErrorSubject.onNext(err);
+        });
+
+        addBuiltInEventHandler(ConclaveEvent.EVENT_DEVICE_ERROR, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                mDeviceErrorSubject.onNext((DeviceError)event.data);
             }
-            else if (event.equals("device:mute")) {
-                DeviceMute mute = mapper.treeToValue(data, DeviceMute.class);
-                mDeviceMuteSubject.onNext(mute);
+        });
+
+        addBuiltInEventHandler(ConclaveEvent.EVENT_DEVICE_MUTE, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                mDeviceMuteSubject.onNext((DeviceMute)event.data);
             }
-            else if (event.equals("device:ota_progress")) {
-                OTAInfo otaInfo = mapper.treeToValue(data, OTAInfo.class);
-                mOTASubject.onNext(otaInfo);
+        });
+
+        addBuiltInEventHandler(ConclaveEvent.EVENT_OTA_PROGRESS, new EventHandler() {
+            @Override
+            public void onEvent(ConclaveEvent event) {
+                mOTASubject.onNext((OTAInfo)event.data);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        });
+    }
+
+    private void addBuiltInEventHandler(String eventName, EventHandler handler) {
+        mBuiltInEvents.add(eventName);
+        mEventHandlers.put(eventName, handler);
+    }
+
+    /**
+     * @return true if the snapshot request was queued; false if it was dropped, e.g. because the
+     * outbound queue is full
+     */
+    private boolean requestResync(int seq) {
+        AfLog.i("ConclaveDeviceEventSource: sequence gap " + mSequenceNum + " -> " + seq + ", requesting snapshot");
+
+        if (!mConclaveClient.requestSnapshot()) {
+            return false;
         }
+
+        mResyncPending = true;
+        mResyncedCount.incrementAndGet();
+        return true;
     }
 
     private void setConclaveAccessDetails(ConclaveAccessDetails cad) {
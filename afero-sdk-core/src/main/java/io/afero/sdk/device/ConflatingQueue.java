@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.afero.sdk.log.AfLog;
+import rx.functions.Action1;
+
+/**
+ * Hands values to a consumer on an {@link Executor}, keeping only the latest pending value
+ * per key. A value that arrives while an older value with the same key is still waiting
+ * replaces it and takes its place at the end of the queue, so it is never delivered ahead of
+ * values offered before it, and the backlog is bounded by the number of distinct keys rather
+ * than by the event rate. Values without a key are never conflated, so their backlog is bounded
+ * only by how fast they arrive; a warning is logged each time it grows by another
+ * {@link #UNKEYED_WARNING_THRESHOLD} values without having drained.
+ */
+final class ConflatingQueue<T> {
+
+    interface KeySelector<T> {
+        /**
+         * @return the conflation key for {@code value}, or null if it must always be delivered
+         */
+        Object keyOf(T value);
+    }
+
+    static final int UNKEYED_WARNING_THRESHOLD = 1000;
+
+    // stands in for the key of a value that must always be delivered
+    private static final class UnkeyedKey {}
+
+    private final LinkedHashMap<Object, T> mPending = new LinkedHashMap<>();
+    private final KeySelector<T> mKeySelector;
+    private final Executor mExecutor;
+    private final Action1<T> mConsumer;
+    private final AtomicBoolean mIsDrainScheduled = new AtomicBoolean();
+    private final AtomicLong mConflatedCount = new AtomicLong();
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+    private int mUnkeyedCount;
+    private int mUnkeyedWarningLevel = UNKEYED_WARNING_THRESHOLD;
+    private volatile Thread mDrainThread;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    ConflatingQueue(KeySelector<T> keySelector, Executor executor, Action1<T> consumer) {
+        mKeySelector = keySelector;
+        mExecutor = executor;
+        mConsumer = consumer;
+    }
+
+    void offer(T value) {
+        Object key = mKeySelector.keyOf(value);
+        int unkeyedCount = 0;
+
+        synchronized (mPending) {
+            if (key == null) {
+                key = new UnkeyedKey();
+                unkeyedCount = ++mUnkeyedCount;
+            } else if (mPending.remove(key) != null) {
+                // removed first: put() alone would keep the replaced value's older position
+                mConflatedCount.incrementAndGet();
+            }
+            mPending.put(key, value);
+
+            if (unkeyedCount >= mUnkeyedWarningLevel) {
+                mUnkeyedWarningLevel += UNKEYED_WARNING_THRESHOLD;
+            } else {
+                unkeyedCount = 0;
+            }
+        }
+
+        if (unkeyedCount > 0) {
+            AfLog.w("ConflatingQueue: " + unkeyedCount + " values that can't be conflated are waiting");
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * Drops everything that is pending.
+     */
+    void clear() {
+        synchronized (mPending) {
+            mPending.clear();
+            mUnkeyedCount = 0;
+            mUnkeyedWarningLevel = UNKEYED_WARNING_THRESHOLD;
+        }
+    }
+
+    int size() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * @return number of pending values that have no key
+     */
+    int getUnkeyedCount() {
+        synchronized (mPending) {
+            return mUnkeyedCount;
+        }
+    }
+
+    /**
+     * @return number of values that were replaced by a newer value before being delivered
+     */
+    long getConflatedCount() {
+        return mConflatedCount.get();
+    }
+
+    long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * @return true if called from the consumer while it is handling a value
+     */
+    boolean isDeliveringOnCurrentThread() {
+        return mDrainThread == Thread.currentThread();
+    }
+
+    private void scheduleDrain() {
+        if (mIsDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        mDrainThread = Thread.currentThread();
+        try {
+            T value;
+            // take one value at a time so anything arriving meanwhile can still be conflated
+            while ((value = poll()) != null) {
+                try {
+                    mConsumer.call(value);
+                } catch (Throwable t) {
+                    AfLog.e(t);
+                }
+                mDeliveredCount.incrementAndGet();
+            }
+        } finally {
+            mDrainThread = null;
+            mIsDrainScheduled.set(false);
+        }
+
+        // pick up anything offered after the last poll but before the flag was cleared
+        if (size() > 0) {
+            scheduleDrain();
+        }
+    }
+
+    private T poll() {
+        synchronized (mPending) {
+            Iterator<Map.Entry<Object, T>> it = mPending.entrySet().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+
+            Map.Entry<Object, T> entry = it.next();
+            it.remove();
+            if (entry.getKey() instanceof UnkeyedKey && --mUnkeyedCount == 0) {
+                mUnkeyedWarningLevel = UNKEYED_WARNING_THRESHOLD;
+            }
+            return entry.getValue();
+        }
+    }
+}
@@ -5,12 +5,20 @@
 package io.afero.sdk.device;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.afero.sdk.client.afero.AferoClient;
 import io.afero.sdk.client.afero.models.DeviceAssociateResponse;
@@ -26,6 +34,7 @@ import io.afero.sdk.conclave.models.InvalidateMessage;
 import io.afero.sdk.conclave.models.OTAInfo;
 import io.afero.sdk.log.AfLog;
 import io.afero.sdk.utils.MetricUtil;
+import io.afero.sdk.utils.RateLimiter;
 import io.afero.sdk.utils.RxUtils;
 import rx.Observable;
 import rx.Observer;
@@ -33,7 +42,8 @@ import rx.Subscription;
 import rx.functions.Action0;
 import rx.functions.Action1;
 import rx.functions.Func1;
-import rx.functions.Func2;
+import rx.functions.Func3;
+import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
 
 /**
@@ -46,25 +56,86 @@ public class DeviceCollection {
     private final DeviceEventSource mDeviceEventSource;
     private final DeviceProfileCollection mDeviceProfileCollection;
     private final AferoClient mAferoClient;
-    private final TreeMap<String,DeviceModel> mModelMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // keyed by lower case device id; see indexKey()
+    private final ConcurrentHashMap<String,DeviceModel> mModelMap = new ConcurrentHashMap<>();
+    private final AtomicLong mVersion = new AtomicLong();
+    private final Object mSnapshotLock = new Object();
+    private volatile DeviceCollectionSnapshot mSnapshot = DeviceCollectionSnapshot.EMPTY;
 
     private PublishSubject<DeviceModel> mModelCreateSubject = PublishSubject.create();
     private PublishSubject<DeviceModel> mModelUpdateSubject = PublishSubject.create();
     private PublishSubject<DeviceCollection> mModelSnapshotSubject = PublishSubject.create();
     private PublishSubject<DeviceModel> mModelDeleteSubject = PublishSubject.create();
     private PublishSubject<DeviceModel> mModelProfileChangeSubject = PublishSubject.create();
+    private PublishSubject<DeviceCollectionDiff> mSnapshotDiffSubject = PublishSubject.create();
 
     private Subscription mInvalidateSubscription;
     private Subscription mMetricSubscription;
     private Subscription mDeviceErrorSubscription;
     private Subscription mOTASubscription;
     private Subscription mSnapshotSubscription;
+    private Subscription mSnapshotSourceSubscription;
+    private Subscription mProfileRevalidateSubscription;
+    private Subscription mSnapshotSaveSubscription;
+
+    public static final long SNAPSHOT_SAVE_INTERVAL_MINUTES = 5;
+    private static final int BULK_WRITE_BURST = 10;
+
+    private volatile DeviceSnapshotStore mSnapshotStore;
+    private final Object mSequenceLock = new Object();
+    private long mLastGeneration;
+    private int mLastSequence;
+    private volatile boolean mIsSnapshotSaveDue;
     private Subscription mAttributeChangeSubscription;
     private Subscription mStatusChangeSubscription;
     private Subscription mMuteSubscription;
 
     private boolean mIsStarted;
 
+    private final EventGate mEventGate = new EventGate();
+    private final RateLimiter mBulkWriteRateLimiter = new RateLimiter(0, BULK_WRITE_BURST);
+    private volatile DeviceCollectionStartupTimings mStartupTimings;
+
+    private volatile boolean mIsConflationEnabled;
+    private volatile ConflatingQueue<Object> mEventQueue;
+    private volatile long mConflatedCountBase;
+
+    // one per collection, so a slow observer of one collection doesn't hold up the others;
+    // the thread exits when idle
+    private final Executor mConflationExecutor = newConflationExecutor();
+
+    // attribute changes conflate per device attribute; write responses are always delivered
+    static final ConflatingQueue.KeySelector<DeviceSync> ATTRIBUTE_CHANGE_KEY = new ConflatingQueue.KeySelector<DeviceSync>() {
+        @Override
+        public Object keyOf(DeviceSync deviceSync) {
+            if (deviceSync.hasRequestId() || deviceSync.attribute == null || deviceSync.getDeviceId() == null) {
+                return null;
+            }
+            return deviceSync.getDeviceId().toLowerCase(Locale.ROOT) + '/' + deviceSync.attribute.id;
+        }
+    };
+
+    static final ConflatingQueue.KeySelector<DeviceState> STATUS_CHANGE_KEY = new ConflatingQueue.KeySelector<DeviceState>() {
+        @Override
+        public Object keyOf(DeviceState deviceState) {
+            return deviceState.id != null ? deviceState.id.toLowerCase(Locale.ROOT) + "/status" : null;
+        }
+    };
+
+    // every other event is queued as a Runnable and delivered in order, never conflated
+    static final ConflatingQueue.KeySelector<Object> DEVICE_EVENT_KEY = new ConflatingQueue.KeySelector<Object>() {
+        @Override
+        public Object keyOf(Object event) {
+            if (event instanceof DeviceSync) {
+                return ATTRIBUTE_CHANGE_KEY.keyOf((DeviceSync)event);
+            }
+            if (event instanceof DeviceState) {
+                return STATUS_CHANGE_KEY.keyOf((DeviceState)event);
+            }
+            return null;
+        }
+    };
+
     /**
      * Constructs a {@code DeviceCollection}. The contents of the collection are managed dynamically
      * in response to messages received from the specified deviceEventSource.
@@ -75,8 +146,23 @@ public class DeviceCollection {
      *                    and disassociate devices with the active account
      */
     public DeviceCollection(DeviceEventSource deviceEventSource, AferoClient aferoClient) {
+        this(deviceEventSource, aferoClient, null);
+    }
+
+    /**
+     * Constructs a {@code DeviceCollection} that keeps device profiles in a persistent store.
+     * Stored profiles are loaded immediately; if there are any, {@link #start()} no longer waits
+     * for the account profiles to download and instead revalidates them in the background.
+     *
+     * @param deviceEventSource {@link DeviceEventSource} to which the {@code DeviceCollection} subscribes
+     *                          for all device messages
+     * @param aferoClient The {@link AferoClient} used by the {@code DeviceCollection} to associate
+     *                    and disassociate devices with the active account
+     * @param profileStore {@link DeviceProfileStore} in which to keep profiles, or null
+     */
+    public DeviceCollection(DeviceEventSource deviceEventSource, AferoClient aferoClient, DeviceProfileStore profileStore) {
         mDeviceEventSource = deviceEventSource;
-        mDeviceProfileCollection = new DeviceProfileCollection(aferoClient);
+        mDeviceProfileCollection = new DeviceProfileCollection(aferoClient, profileStore);
         mAferoClient = aferoClient;
     }
 
@@ -103,27 +189,94 @@ public class DeviceCollection {
      * @return {@link Observable} that returns this DeviceCollection instance.
      */
     public Observable<DeviceCollection> start() {
+        return start(null);
+    }
+
+    /**
+     * Starts {@code DeviceCollection} operations while the {@link DeviceEventSource} connects.
+     * The account profiles, the devices and the event source connection are all requested at
+     * once. Device events that arrive before the devices have been loaded are held back and
+     * applied in order afterward. When the Observable returned from {@code start} completes the
+     * {@code DeviceCollection} will contain all the {@link DeviceModel}s associated with the
+     * active account.
+     *
+     * @param eventSourceConnect {@link Observable} that connects the event source, such as the one
+     *                           returned by {@link ConclaveDeviceEventSource#start}, or null if the
+     *                           event source is connected separately. Only its first item is
+     *                           awaited; an error fails the startup.
+     * @return {@link Observable} that returns this DeviceCollection instance.
+     */
+    public Observable<DeviceCollection> start(Observable<?> eventSourceConnect) {
 
         // Startup sequence:
-        // 1. Fetch account profiles
-        // 2. Fetch devices and add them to the collection
-        // 3. Subscribe to DeviceEventSource
-        return mDeviceProfileCollection
-                .fetchAccountProfiles()
-                .flatMap(new Func1<DeviceProfile[], Observable<DeviceCollection>>() {
+        // 1. Subscribe to DeviceEventSource, holding back events in mEventGate
+        // 2. Concurrently fetch account profiles (unless they were loaded from the profile
+        //    store), fetch devices and connect the event source
+        // 3. Resolve any profiles still missing and add the devices to the collection
+        // 4. Apply the events that arrived in the meantime and let the rest through
+        final DeviceCollectionStartupTimings timings = new DeviceCollectionStartupTimings();
+        final boolean isUsingStoredProfiles = mDeviceProfileCollection.hasProfiles();
+
+        final Observable<DeviceProfile[]> profilesObservable;
+        if (isUsingStoredProfiles) {
+            profilesObservable = Observable.just(new DeviceProfile[0]);
+        } else {
+            profilesObservable = mDeviceProfileCollection.fetchAccountProfiles();
+        }
+
+        final Observable<?> connectObservable;
+        if (eventSourceConnect != null) {
+            connectObservable = eventSourceConnect.take(1).toList()
+                    .doOnCompleted(timings.markAction(DeviceCollectionStartupTimings.Phase.EVENT_SOURCE));
+        } else {
+            connectObservable = Observable.just(Boolean.TRUE);
+        }
+
+        return Observable.zip(
+                    profilesObservable.doOnCompleted(timings.markAction(DeviceCollectionStartupTimings.Phase.PROFILES)),
+                    mAferoClient.getDevicesWithState().doOnCompleted(timings.markAction(DeviceCollectionStartupTimings.Phase.DEVICES)),
+                    connectObservable,
+                    new Func3<DeviceProfile[], DeviceSync[], Object, DeviceSync[]>() {
+                        @Override
+                        public DeviceSync[] call(DeviceProfile[] deviceProfiles, DeviceSync[] deviceSyncs, Object connected) {
+                            return deviceSyncs;
+                        }
+                    })
+                .flatMap(new Func1<DeviceSync[], Observable<DeviceCollection>>() {
                     @Override
-                    public Observable<DeviceCollection> call(DeviceProfile[] deviceProfiles) {
-                        return mAferoClient.getDevicesWithState()
-                            .flatMap(new Func1<DeviceSync[], Observable<DeviceCollection>>() {
+                    public Observable<DeviceCollection> call(final DeviceSync[] deviceSyncs) {
+                        ArrayList<String> profileIds = new ArrayList<>(deviceSyncs.length);
+                        for (DeviceSync ds : deviceSyncs) {
+                            profileIds.add(ds.profileId);
+                        }
+
+                        return mDeviceProfileCollection.fetchMissingProfiles(profileIds)
+                            .toList()
+                            .map(new Func1<List<DeviceProfile>, DeviceCollection>() {
                                 @Override
-                                public Observable<DeviceCollection> call(DeviceSync[] deviceSyncs) {
+                                public DeviceCollection call(List<DeviceProfile> fetchedProfiles) {
+                                    if (mModelMap.isEmpty()) {
+                                        for (DeviceSync ds : deviceSyncs) {
+                                            AfLog.i("DeviceCollection.start: deviceSync=" + ds.toString());
+                                            addOrUpdate(ds);
+                                        }
+                                    } else {
+                                        // restored from the snapshot store; bring it up to date
+                                        DeviceCollectionDiff diff = reconcile(deviceSyncs);
+                                        AfLog.i("DeviceCollection.start: " + diff);
+                                        mSnapshotDiffSubject.onNext(diff);
+                                    }
+                                    timings.mark(DeviceCollectionStartupTimings.Phase.APPLY);
 
-                                    for (DeviceSync ds : deviceSyncs) {
-                                        AfLog.i("DeviceCollection.start: deviceSync=" + ds.toString());
-                                        addOrUpdate(ds);
+                                    if (isUsingStoredProfiles) {
+                                        revalidateProfiles();
                                     }
 
-                                    return Observable.just(subscribeToDeviceEventSource());
+                                    timings.finish(mEventGate.open());
+                                    mStartupTimings = timings;
+                                    AfLog.i("DeviceCollection.start: " + timings);
+
+                                    return DeviceCollection.this;
                                 }
                             });
                     }
@@ -134,6 +287,12 @@ public class DeviceCollection {
                         if (isStarted()) {
                             throw new IllegalStateException("DeviceCollection has already been started");
                         }
+
+                        timings.begin();
+                        restoreSnapshot();
+
+                        mEventGate.close();
+                        subscribeToDeviceEventSource();
                     }
                 })
                 .doOnUnsubscribe(new Action0() {
@@ -145,6 +304,7 @@ public class DeviceCollection {
                 .doOnError(new Action1<Throwable>() {
                     @Override
                     public void call(Throwable t) {
+                        mEventGate.discard();
                         unsubscribeFromDeviceEventSource();
                     }
                 })
@@ -166,6 +326,7 @@ public class DeviceCollection {
         throwIfNotStarted();
 
         unsubscribeFromDeviceEventSource();
+        saveSnapshot();
         mIsStarted = false;
     }
 
@@ -223,23 +384,74 @@ public class DeviceCollection {
      * @return {@link Observable} containing a snapshot of all devices in the {@code DeviceCollection}
      */
     public Observable<DeviceModel> getDevices() {
-        // Make a copy of the map since the original could change while the Observable is iterating.
-        Map<String,DeviceModel> mapCopy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        synchronized (mModelMap) {
-            mapCopy.putAll(mModelMap);
-            return Observable.from(mapCopy.values());
+        return Observable.from(getSnapshot());
+    }
+
+    /**
+     * Returns an immutable view of the devices in the collection, sorted by device id. The view
+     * is rebuilt only after devices have been added or removed; otherwise the same instance is
+     * returned, so repeated calls are cheap.
+     *
+     * @return {@link DeviceCollectionSnapshot} of the current contents of the collection
+     */
+    public DeviceCollectionSnapshot getSnapshot() {
+        DeviceCollectionSnapshot snapshot = mSnapshot;
+        if (snapshot.getVersion() == mVersion.get()) {
+            return snapshot;
+        }
+
+        synchronized (mSnapshotLock) {
+            snapshot = mSnapshot;
+
+            // read the version before the map so a concurrent change forces another rebuild
+            final long version = mVersion.get();
+            if (snapshot.getVersion() != version) {
+                TreeMap<String,DeviceModel> sorted = new TreeMap<>(mModelMap);
+                snapshot = new DeviceCollectionSnapshot(sorted.values().toArray(new DeviceModel[sorted.size()]), version);
+                mSnapshot = snapshot;
+            }
+
+            return snapshot;
         }
     }
 
+    /**
+     * Creates a {@link BulkAttributeWriter} to write the same attribute values to every device
+     * the selector accepts. Devices are selected when this is called.
+     *
+     * @param selector returns {@code true} for each {@link DeviceModel} to write
+     * @return {@link BulkAttributeWriter} used to compose, initiate, and monitor the write
+     * @see #setBulkWriteRateLimit(double)
+     */
+    public BulkAttributeWriter writeAttributes(Func1<DeviceModel, Boolean> selector) {
+        ArrayList<DeviceModel> devices = new ArrayList<>();
+        for (DeviceModel deviceModel : getSnapshot()) {
+            if (Boolean.TRUE.equals(selector.call(deviceModel))) {
+                devices.add(deviceModel);
+            }
+        }
+        return new BulkAttributeWriter(devices, mBulkWriteRateLimiter);
+    }
+
+    /**
+     * Limits the rate of write requests issued by {@link BulkAttributeWriter}s from this
+     * collection. All of the collection's requests go to the same Afero Cloud host, so the limit
+     * is shared by every bulk write in progress. Defaults to unlimited, in which case only
+     * {@link BulkAttributeWriter#setMaxConcurrentDevices(int)} bounds the load.
+     *
+     * @param requestsPerSecond maximum sustained request rate; zero or less means unlimited
+     */
+    public void setBulkWriteRateLimit(double requestsPerSecond) {
+        mBulkWriteRateLimiter.setRate(requestsPerSecond);
+    }
+
     /**
      * @param deviceId Identifier of a {@link DeviceModel}.
      * @return the {@link DeviceModel} with the specified {@code deviceId}, or {@code null} if no such
      * {@link DeviceModel} exists.
      */
     public DeviceModel getDevice(String deviceId) {
-        synchronized (mModelMap) {
-            return mModelMap.get(deviceId);
-        }
+        return deviceId != null ? mModelMap.get(indexKey(deviceId)) : null;
     }
 
     /**
@@ -252,7 +464,8 @@ public class DeviceCollection {
     }
 
     /**
-     * @return Observable that emits when an existing {@link DeviceModel} is updated.
+     * @return Observable that emits when an existing {@link DeviceModel} is updated. Devices
+     * updated by a snapshot are reported together by {@link #observeSnapshotDiffs()} instead.
      */
     public Observable<DeviceModel> observeUpdates() {
         return mModelUpdateSubject;
@@ -283,13 +496,20 @@ public class DeviceCollection {
         return mModelSnapshotSubject;
     }
 
+    /**
+     * @return Observable that emits a single {@link DeviceCollectionDiff} for each "snapshot" of
+     * devices, listing the devices it added, changed and removed. Emits just before
+     * {@link #observeSnapshots()}.
+     */
+    public Observable<DeviceCollectionDiff> observeSnapshotDiffs() {
+        return mSnapshotDiffSubject;
+    }
+
     /**
      * @return The current count of {@link DeviceModel}s in the collection.
      */
     public int getCount() {
-        synchronized (mModelMap) {
-            return mModelMap.size();
-        }
+        return mModelMap.size();
     }
 
     /**
@@ -306,6 +526,58 @@ public class DeviceCollection {
         return mIsStarted;
     }
 
+    /**
+     * @return timing of the phases of the last successful {@link #start()}, or null if the
+     * collection has never been started
+     */
+    public DeviceCollectionStartupTimings getStartupTimings() {
+        return mStartupTimings;
+    }
+
+    /**
+     * Sets the store used to warm start the collection. If the collection is empty when
+     * {@link #start()} is called, the saved devices are restored immediately and can be queried
+     * while the collection is brought up to date with the service. The state of the collection
+     * is saved by {@link #stop()} and, while started, with the first event applied after each
+     * {@link #SNAPSHOT_SAVE_INTERVAL_MINUTES} minute interval. If the event source is a
+     * {@link ConclaveDeviceEventSource}, the saved Conclave generation and sequence number seed its
+     * resume state, so in resume mode its first session can skip the snapshot.
+     *
+     * @param store {@link DeviceSnapshotStore} to use, or null to disable warm starts
+     */
+    public void setSnapshotStore(DeviceSnapshotStore store) {
+        mSnapshotStore = store;
+    }
+
+    /**
+     * Enables conflating delivery of attribute and status changes. When enabled, all device
+     * events are applied in arrival order on a background thread belonging to this collection
+     * and, if a newer change for the same device attribute (or device status) arrives before the
+     * previous one was applied, only the latest is kept, so the backlog of those is bounded by
+     * the number of devices. Attribute changes that carry a requestId and the other device events
+     * are never dropped; their backlog is bounded only by how fast they arrive, which is tied to
+     * the app's own writes and to rare device events. Takes effect on the next call to
+     * {@link #start()}.
+     *
+     * @param enabled true to conflate, false to apply every change on the event source's thread
+     */
+    public void setConflationEnabled(boolean enabled) {
+        mIsConflationEnabled = enabled;
+    }
+
+    public boolean isConflationEnabled() {
+        return mIsConflationEnabled;
+    }
+
+    /**
+     * @return number of attribute and status changes that were superseded by a newer change
+     * before being applied
+     */
+    public long getConflatedEventCount() {
+        final ConflatingQueue<Object> queue = mEventQueue;
+        return mConflatedCountBase + (queue != null ? queue.getConflatedCount() : 0);
+    }
+
     /**
      * Removes all {@link DeviceModel}s from the local cache. Typically done when signing out
      * or switching active accounts.
@@ -313,9 +585,8 @@ public class DeviceCollection {
     public void reset() {
         Observable<DeviceModel> devices = getDevices();
 
-        synchronized (mModelMap) {
-            mModelMap.clear();
-        }
+        mModelMap.clear();
+        mVersion.incrementAndGet();
 
         devices.forEach(new Action1<DeviceModel>() {
             @Override
@@ -325,9 +596,27 @@ public class DeviceCollection {
         });
     }
 
-    private DeviceCollection subscribeToDeviceEventSource() {
+    // events are routed through mEventGate, so they're held back while start() is in progress
+    private void subscribeToDeviceEventSource() {
 
-        mSnapshotSubscription = mDeviceEventSource.observeSnapshot()
+        if (mSnapshotStore != null) {
+            mSnapshotSaveSubscription = Observable.interval(SNAPSHOT_SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES)
+                    .subscribe(new Action1<Long>() {
+                        @Override
+                        public void call(Long tick) {
+                            // DeviceModel isn't thread safe, so the snapshot is taken by the next event applied
+                            mIsSnapshotSaveDue = true;
+                        }
+                    }, new Action1<Throwable>() {
+                        @Override
+                        public void call(Throwable t) {
+                            AfLog.e(t);
+                        }
+                    });
+        }
+
+        final PublishSubject<DeviceSync[]> snapshotSubject = PublishSubject.create();
+        mSnapshotSubscription = snapshotSubject
                 .flatMap(new Func1<DeviceSync[], Observable<DeviceSync[]>>() {
                     // Make sure we have a profile for any new devices in our local registry
                     // If not, fetch it before passing it on...
@@ -335,98 +624,44 @@ public class DeviceCollection {
                     public Observable<DeviceSync[]> call(final DeviceSync[] deviceSyncs) {
                         AfLog.i("DeviceCollection.flatMap('snapshot'): deviceSync[].length=" + deviceSyncs.length);
 
-                        return Observable.from(deviceSyncs)
-                            .map(new Func1<DeviceSync, Observable<DeviceSync>>() {
-                                @Override
-                                public Observable<DeviceSync> call(DeviceSync ds) {
-                                    if (mDeviceProfileCollection.getProfileFromID(ds.profileId) == null) {
-                                        return mDeviceProfileCollection.fetchDeviceProfile(ds.profileId)
-                                                .onErrorResumeNext(Observable.<DeviceProfile>empty())
-                                                .flatMap(new RxUtils.FlatMapper<DeviceProfile, DeviceSync>(Observable.just(ds)));
-                                    }
-
-                                    return Observable.just(ds);
-                                }
-                            })
-                            .reduce(new ArrayList<Observable<DeviceSync>>(deviceSyncs.length), new Func2<ArrayList<Observable<DeviceSync>>, Observable<DeviceSync>, ArrayList<Observable<DeviceSync>>>() {
-                                @Override
-                                public ArrayList<Observable<DeviceSync>> call(ArrayList<Observable<DeviceSync>> list, Observable<DeviceSync> deviceSyncObservable) {
-                                    list.add(deviceSyncObservable);
-                                    return list;
-                                }
-                            })
-                            .flatMap(new Func1<ArrayList<Observable<DeviceSync>>, Observable<DeviceSync[]>>() {
-                                @Override
-                                public Observable<DeviceSync[]> call(ArrayList<Observable<DeviceSync>> observables) {
-                                    return Observable.mergeDelayError(observables)
-                                            .reduce(new ArrayList<DeviceSync>(), new Func2<ArrayList<DeviceSync>, DeviceSync, ArrayList<DeviceSync>>() {
-                                                @Override
-                                                public ArrayList<DeviceSync> call(ArrayList<DeviceSync> list, DeviceSync deviceSync) {
-                                                    list.add(deviceSync);
-                                                    return list;
-                                                }
-                                            })
-                                            .map(new Func1<ArrayList<DeviceSync>, DeviceSync[]>() {
-                                                @Override
-                                                public DeviceSync[] call(ArrayList<DeviceSync> list) {
-                                                    return list.toArray(new DeviceSync[list.size()]);
-                                                }
-                                            });
-                                }
-                            })
-                            ;
-                    }
-                })
-                .doOnNext(new Action1<DeviceSync[]>() {
-                    @Override
-                    public void call(DeviceSync[] deviceSyncs) {
-
-                        AfLog.i("DeviceCollection.onNext('snapshot'): deviceSync[].length=" + deviceSyncs.length);
-
-                        TreeSet<String> deviceSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                        ArrayList<String> profileIds = new ArrayList<>(deviceSyncs.length);
                         for (DeviceSync ds : deviceSyncs) {
-                            deviceSet.add(ds.getDeviceId());
+                            profileIds.add(ds.profileId);
                         }
 
-                        for (DeviceSync ds : deviceSyncs) {
-                            AfLog.i("DeviceCollection.onNext('snapshot'): deviceSync=" + ds.toString());
-                            addOrUpdate(ds);
-                        }
-
-                        ArrayList<DeviceModel> removedDevices;
-                        synchronized (mModelMap) {
-                            removedDevices = new ArrayList<>(mModelMap.size());
-                            Iterator<DeviceModel> iter = mModelMap.values().iterator();
-
-                            while (iter.hasNext()) {
-                                DeviceModel dm = iter.next();
-                                if (!deviceSet.contains(dm.getId())) {
-                                    iter.remove();
-                                    removedDevices.add(dm);
+                        return mDeviceProfileCollection.fetchMissingProfiles(profileIds)
+                            .toList()
+                            .map(new Func1<List<DeviceProfile>, DeviceSync[]>() {
+                                @Override
+                                public DeviceSync[] call(List<DeviceProfile> fetchedProfiles) {
+                                    // drop devices whose profile couldn't be fetched
+                                    ArrayList<DeviceSync> list = new ArrayList<>(deviceSyncs.length);
+                                    for (DeviceSync ds : deviceSyncs) {
+                                        if (mDeviceProfileCollection.getProfileFromID(ds.profileId) != null) {
+                                            list.add(ds);
+                                        }
+                                    }
+                                    return list.toArray(new DeviceSync[list.size()]);
                                 }
-                            }
-                        }
-
-                        // publish the deletes outside the synchronized block to avoid badness
-                        for (DeviceModel dm : removedDevices) {
-                            mModelDeleteSubject.onNext(dm);
-                        }
+                            });
                     }
                 })
                 .subscribe(
                         new Action1<DeviceSync[]>() {    // onNext
                             @Override
-                            public void call(DeviceSync[] deviceSync) {
-
-                                for (DeviceSync ds : deviceSync) {
-                                    DeviceModel deviceModel = getDevice(ds.getDeviceId());
-                                    DeviceProfile profile = mDeviceProfileCollection.getProfileFromID(ds.profileId);
-                                    if (profile != null) {
-                                        deviceModel.setProfile(profile);
+                            public void call(final DeviceSync[] deviceSyncs) {
+                                runInOrder(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        AfLog.i("DeviceCollection.onNext('snapshot'): deviceSync[].length=" + deviceSyncs.length);
+                                        DeviceCollectionDiff diff = reconcile(deviceSyncs);
+                                        AfLog.i("DeviceCollection.onNext('snapshot'): " + diff);
+                                        mSnapshotDiffSubject.onNext(diff);
+                                        mModelSnapshotSubject.onNext(DeviceCollection.this);
+
+                                        saveSnapshotIfDue();
                                     }
-                                }
-
-                                mModelSnapshotSubject.onNext(DeviceCollection.this);
+                                });
                             }
                         },
                         new Action1<Throwable>() {   // onError
@@ -437,19 +672,52 @@ public class DeviceCollection {
                             }
                         });
 
-        mAttributeChangeSubscription = mDeviceEventSource.observeAttributeChange().onBackpressureBuffer()
+        mSnapshotSourceSubscription = mDeviceEventSource.observeSnapshot()
+                .subscribe(
+                        mEventGate.wrap(new Action1<DeviceSync[]>() {
+                            @Override
+                            public void call(DeviceSync[] deviceSyncs) {
+                                snapshotSubject.onNext(deviceSyncs);
+                            }
+                        }),
+                        new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable t) {
+                                snapshotSubject.onError(t);
+                            }
+                        });
+
+        if (mIsConflationEnabled) {
+            mEventQueue = new ConflatingQueue<>(DEVICE_EVENT_KEY, mConflationExecutor,
+                    new Action1<Object>() {
+                        @Override
+                        public void call(Object event) {
+                            if (event instanceof DeviceSync) {
+                                onAttributeChange((DeviceSync)event);
+                            } else if (event instanceof DeviceState) {
+                                onStatusChange((DeviceState)event);
+                            } else {
+                                ((Runnable)event).run();
+                            }
+                        }
+                    });
+        } else {
+            mEventQueue = null;
+        }
+
+        mAttributeChangeSubscription = bufferUnlessConflating(mDeviceEventSource.observeAttributeChange())
                 .subscribe(
-                        new Action1<DeviceSync>() {    // onNext
+                        mEventGate.wrap(new Action1<DeviceSync>() {    // onNext
                             @Override
                             public void call(DeviceSync deviceSync) {
-                                AfLog.i("DeviceCollection.observeUpdate.onNext: deviceSync=" + deviceSync.toString());
-                                DeviceModel deviceModel = getDevice(deviceSync.getDeviceId());
-                                if (deviceModel != null) {
-                                    deviceModel.update(deviceSync);
-                                    mModelUpdateSubject.onNext(deviceModel);
+                                final ConflatingQueue<Object> queue = mEventQueue;
+                                if (queue != null) {
+                                    queue.offer(deviceSync);
+                                } else {
+                                    onAttributeChange(deviceSync);
                                 }
                             }
-                        },
+                        }),
                         new Action1<Throwable>() {   // onError
                             @Override
                             public void call(Throwable t) {
@@ -458,19 +726,19 @@ public class DeviceCollection {
                             }
                         });
 
-        mStatusChangeSubscription = mDeviceEventSource.observeStatusChange().onBackpressureBuffer()
+        mStatusChangeSubscription = bufferUnlessConflating(mDeviceEventSource.observeStatusChange())
                 .subscribe(
-                        new Action1<DeviceState>() {    // onNext
+                        mEventGate.wrap(new Action1<DeviceState>() {    // onNext
                             @Override
                             public void call(DeviceState deviceState) {
-                            AfLog.i("DeviceCollection.observeState.onNext: deviceState=" + deviceState.toString());
-                                DeviceModel deviceModel = getDevice(deviceState.id);
-                                if (deviceModel != null) {
-                                    deviceModel.update(deviceState.status);
-                                    mModelUpdateSubject.onNext(deviceModel);
+                                final ConflatingQueue<Object> queue = mEventQueue;
+                                if (queue != null) {
+                                    queue.offer(deviceState);
+                                } else {
+                                    onStatusChange(deviceState);
                                 }
                             }
-                        },
+                        }),
                         new Action1<Throwable>() {   // onError
                             @Override
                             public void call(Throwable t) {
@@ -479,18 +747,23 @@ public class DeviceCollection {
                             }
                         });
 
-        mMuteSubscription = mDeviceEventSource.observeMute().onBackpressureBuffer()
+        mMuteSubscription = bufferUnlessConflating(mDeviceEventSource.observeMute())
                 .subscribe(
-                        new Action1<DeviceMute>() {    // onNext
+                        mEventGate.wrap(new Action1<DeviceMute>() {    // onNext
                             @Override
-                            public void call(DeviceMute deviceMute) {
+                            public void call(final DeviceMute deviceMute) {
 //                            AfLog.i("DeviceCollection.observeMute.onNext: deviceMute=" + deviceMute.toString());
-                                DeviceModel deviceModel = getDevice(deviceMute.id);
-                                if (deviceModel != null) {
-                                    deviceModel.onMute(deviceMute);
-                                }
+                                runInOrder(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        DeviceModel deviceModel = getDevice(deviceMute.id);
+                                        if (deviceModel != null) {
+                                            deviceModel.onMute(deviceMute);
+                                        }
+                                    }
+                                });
                             }
-                        },
+                        }),
                         new Action1<Throwable>() {   // onError
                             @Override
                             public void call(Throwable t) {
@@ -499,17 +772,22 @@ public class DeviceCollection {
                             }
                         });
 
-        mDeviceErrorSubscription = mDeviceEventSource.observeError().onBackpressureBuffer()
+        mDeviceErrorSubscription = bufferUnlessConflating(mDeviceEventSource.observeError())
                 .subscribe(
-                        new Action1<DeviceError>() {    // onNext
+                        mEventGate.wrap(new Action1<DeviceError>() {    // onNext
                             @Override
-                            public void call(DeviceError deviceError) {
-                                DeviceModel deviceModel = getDevice(deviceError.id);
-                                if (deviceModel != null) {
-                                    deviceModel.onError(deviceError);
-                                }
+                            public void call(final DeviceError deviceError) {
+                                runInOrder(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        DeviceModel deviceModel = getDevice(deviceError.id);
+                                        if (deviceModel != null) {
+                                            deviceModel.onError(deviceError);
+                                        }
+                                    }
+                                });
                             }
-                        },
+                        }),
                         new Action1<Throwable>() {   // onError
                             @Override
                             public void call(Throwable t) {
@@ -519,53 +797,33 @@ public class DeviceCollection {
                         });
 
         mInvalidateSubscription = mDeviceEventSource.observeInvalidate()
-                .subscribe(new Action1<InvalidateMessage>() {
+                .subscribe(mEventGate.wrap(new Action1<InvalidateMessage>() {
                     @Override
-                    public void call(InvalidateMessage im) {
-                        try {
-                            if (im.deviceId == null) {
-                                AfLog.e("Got invalidate without deviceId");
-                                return;
-                            }
-                            DeviceModel deviceModel = getDevice(im.deviceId);
-                            if (deviceModel == null) {
-                                AfLog.e("Got invalidate on unknown deviceId: " + im.deviceId);
-                                return;
+                    public void call(final InvalidateMessage im) {
+                        runInOrder(new Runnable() {
+                            @Override
+                            public void run() {
+                                onInvalidate(im);
                             }
+                        });
+                    }
+                }));
 
-                            switch (im.kind.toLowerCase(Locale.ROOT)) {
-                                case "profiles":
-                                    updateDeviceProfile(deviceModel, im.profileId);
-                                    break;
-
-                                case "location":
-                                    deviceModel.invalidateLocationState();
-                                    break;
-
-                                case "timezone":
-                                    deviceModel.invalidateTimeZone();
-                                    break;
-
-                                case "tags":
-                                    deviceModel.invalidateTag(im.deviceTagAction, im.deviceTag);
-                                    break;
-                            }
-                        } catch (Exception e) {
-                            AfLog.e("Unable to parse invalidate json: " + e);
+        mOTASubscription = mDeviceEventSource.observeOTA().subscribe(mEventGate.wrap(new Action1<OTAInfo>() {
+            @Override
+            public void call(final OTAInfo otaInfo) {
+                runInOrder(new Runnable() {
+                    @Override
+                    public void run() {
+                        DeviceModel deviceModel = getDevice(otaInfo.id);
+                        if (deviceModel != null) {
+                            AfLog.d("mDeviceEventSource.observeOTA state="+otaInfo.getState());
+                            deviceModel.onOTA(otaInfo);
                         }
                     }
                 });
-
-        mOTASubscription = mDeviceEventSource.observeOTA().subscribe(new Action1<OTAInfo>() {
-            @Override
-            public void call(OTAInfo otaInfo) {
-                DeviceModel deviceModel = getDevice(otaInfo.id);
-                if (deviceModel != null) {
-                    AfLog.d("mDeviceEventSource.observeOTA state="+otaInfo.getState());
-                    deviceModel.onOTA(otaInfo);
-                }
             }
-        });
+        }));
 
         mMetricSubscription = MetricUtil.getInstance().getEventObservable().subscribe(new Observer<ConclaveMessage.Metric>() {
             @Override
@@ -580,13 +838,305 @@ public class DeviceCollection {
             }
         });
 
-        return this;
+    }
+
+    // Refreshes the account profiles in the background and moves devices over to any profile whose
+    // content changed. Unchanged profiles keep their instance, so their devices aren't touched.
+    private void revalidateProfiles() {
+        mProfileRevalidateSubscription = mDeviceProfileCollection.fetchAccountProfiles()
+                .subscribe(
+                        new Action1<DeviceProfile[]>() {
+                            @Override
+                            public void call(DeviceProfile[] deviceProfiles) {
+                                for (DeviceModel deviceModel : getSnapshot()) {
+                                    DeviceProfile profile = mDeviceProfileCollection.getProfileFromID(deviceModel.getProfileID());
+                                    if (profile != null && profile != deviceModel.getProfile()) {
+                                        deviceModel.setProfile(profile);
+                                        mModelProfileChangeSubject.onNext(deviceModel);
+                                        mModelUpdateSubject.onNext(deviceModel);
+                                    }
+                                }
+                            }
+                        },
+                        new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable t) {
+                                AfLog.i("DeviceCollection.revalidateProfiles.onError: e=" + t.toString());
+                            }
+                        });
+    }
+
+    private void restoreSnapshot() {
+        final DeviceSnapshotStore store = mSnapshotStore;
+        if (store == null || !mModelMap.isEmpty()) {
+            return;
+        }
+
+        final DeviceSync[] deviceSyncs = store.load();
+        int restoredCount = 0;
+        for (DeviceSync ds : deviceSyncs) {
+            if (ds.getDeviceId() == null) {
+                continue;
+            }
+
+            // devices whose profile isn't cached are picked up once the service responds
+            DeviceModel deviceModel = add(ds);
+            if (deviceModel != null) {
+                ++restoredCount;
+            }
+        }
+
+        AfLog.i("DeviceCollection.restoreSnapshot: restored " + restoredCount + " devices");
+
+        // every entry carries the generation and seq of the save
+        if (deviceSyncs.length > 0) {
+            final DeviceSync ds = deviceSyncs[0];
+            updateSequence(ds.generation, ds.seq);
+            if (mDeviceEventSource instanceof ConclaveDeviceEventSource) {
+                ((ConclaveDeviceEventSource)mDeviceEventSource).setResumeState(ds.generation, ds.seq);
+            }
+        }
+    }
+
+    private void saveSnapshot() {
+        final DeviceSnapshotStore store = mSnapshotStore;
+        if (store == null) {
+            return;
+        }
+
+        try {
+            final long generation;
+            final int seq;
+            synchronized (mSequenceLock) {
+                generation = mLastGeneration;
+                seq = mLastSequence;
+            }
+            store.save(takeSnapshot(), generation, seq);
+        } catch (Exception e) {
+            AfLog.e(e);
+        }
+    }
+
+    // called on the thread that applies events; only the write to the store is done in the background
+    private void saveSnapshotIfDue() {
+        final DeviceSnapshotStore store = mSnapshotStore;
+        if (!mIsSnapshotSaveDue || store == null) {
+            return;
+        }
+        mIsSnapshotSaveDue = false;
+
+        final DeviceSync[] deviceSyncs;
+        try {
+            deviceSyncs = takeSnapshot();
+        } catch (Exception e) {
+            AfLog.e(e);
+            return;
+        }
+
+        final long generation;
+        final int seq;
+        synchronized (mSequenceLock) {
+            generation = mLastGeneration;
+            seq = mLastSequence;
+        }
+        Observable.fromCallable(new Callable<DeviceSync[]>() {
+                @Override
+                public DeviceSync[] call() throws Exception {
+                    store.save(deviceSyncs, generation, seq);
+                    return deviceSyncs;
+                }
+            })
+            .subscribeOn(Schedulers.io())
+            .subscribe(new RxUtils.IgnoreResponseObserver<DeviceSync[]>());
+    }
+
+    private DeviceSync[] takeSnapshot() {
+        final DeviceCollectionSnapshot snapshot = getSnapshot();
+        final DeviceSync[] deviceSyncs = new DeviceSync[snapshot.size()];
+        for (int i = 0; i < deviceSyncs.length; ++i) {
+            deviceSyncs[i] = snapshot.get(i).toDeviceSync();
+        }
+        return deviceSyncs;
+    }
+
+    // seq restarts when the server starts a new generation, so it only ratchets within one
+    private void updateSequence(long generation, int seq) {
+        if (generation == 0) {
+            // not from a Conclave session, e.g. getDevicesWithState
+            return;
+        }
+
+        synchronized (mSequenceLock) {
+            if (generation != mLastGeneration) {
+                mLastGeneration = generation;
+                mLastSequence = seq;
+            } else if (seq > mLastSequence) {
+                mLastSequence = seq;
+            }
+        }
+    }
+
+    private DeviceCollectionDiff reconcile(DeviceSync[] deviceSyncs) {
+        final HashSet<String> deviceSet = new HashSet<>(deviceSyncs.length * 2);
+        final ArrayList<DeviceSync> addedSyncs = new ArrayList<>();
+        final ArrayList<SnapshotReconciler.Change> changes = new ArrayList<>();
+        int unchangedCount = 0;
+
+        for (DeviceSync ds : deviceSyncs) {
+            final String key = indexKey(ds.getDeviceId());
+            deviceSet.add(key);
+            updateSequence(ds.generation, ds.seq);
+
+            final DeviceModel deviceModel = mModelMap.get(key);
+            if (deviceModel == null) {
+                addedSyncs.add(ds);
+                continue;
+            }
+
+            final long fingerprint = SnapshotReconciler.fingerprint(ds);
+            if (deviceModel.getSyncFingerprint() == fingerprint) {
+                ++unchangedCount;
+            } else {
+                DeviceProfile profile = mDeviceProfileCollection.getProfileFromID(ds.profileId);
+                changes.add(new SnapshotReconciler.Change(deviceModel, ds, profile, fingerprint));
+            }
+        }
+
+        SnapshotReconciler.apply(changes);
+
+        final ArrayList<DeviceModel> changed = new ArrayList<>(changes.size());
+        for (SnapshotReconciler.Change change : changes) {
+            if (change.mChanged) {
+                changed.add(change.mModel);
+            } else {
+                ++unchangedCount;
+            }
+        }
+
+        final ArrayList<DeviceModel> added = new ArrayList<>(addedSyncs.size());
+        for (DeviceSync ds : addedSyncs) {
+            DeviceModel deviceModel = add(ds);
+            if (deviceModel != null) {
+                deviceModel.setSyncFingerprint(SnapshotReconciler.fingerprint(ds));
+                added.add(deviceModel);
+            }
+        }
+
+        final ArrayList<DeviceModel> removed = new ArrayList<>();
+        for (Map.Entry<String,DeviceModel> entry : mModelMap.entrySet()) {
+            if (!deviceSet.contains(entry.getKey())
+                    && mModelMap.remove(entry.getKey(), entry.getValue())) {
+                mVersion.incrementAndGet();
+                removed.add(entry.getValue());
+            }
+        }
+
+        for (DeviceModel dm : removed) {
+            mModelDeleteSubject.onNext(dm);
+        }
+
+        return new DeviceCollectionDiff(added, changed, removed, unchangedCount);
+    }
+
+    private void onInvalidate(InvalidateMessage im) {
+        try {
+            if (im.deviceId == null) {
+                AfLog.e("Got invalidate without deviceId");
+                return;
+            }
+            DeviceModel deviceModel = getDevice(im.deviceId);
+            if (deviceModel == null) {
+                AfLog.e("Got invalidate on unknown deviceId: " + im.deviceId);
+                return;
+            }
+
+            switch (im.kind.toLowerCase(Locale.ROOT)) {
+                case "profiles":
+                    updateDeviceProfile(deviceModel, im.profileId);
+                    break;
+
+                case "location":
+                    deviceModel.invalidateLocationState();
+                    break;
+
+                case "timezone":
+                    deviceModel.invalidateTimeZone();
+                    break;
+
+                case "tags":
+                    deviceModel.invalidateTag(im.deviceTagAction, im.deviceTag);
+                    break;
+            }
+        } catch (Exception e) {
+            AfLog.e("Unable to parse invalidate json: " + e);
+        }
+    }
+
+    // with conflation enabled, everything that touches a DeviceModel is applied on the conflation
+    // thread in arrival order, so no event overtakes another and models are only mutated from one thread
+    private void runInOrder(Runnable action) {
+        final ConflatingQueue<Object> queue = mEventQueue;
+        if (queue != null && !queue.isDeliveringOnCurrentThread()) {
+            queue.offer(action);
+        } else {
+            action.run();
+        }
+    }
+
+    // the conflation queue takes events as fast as they arrive, so it needs no buffer in front of it
+    private <T> Observable<T> bufferUnlessConflating(Observable<T> events) {
+        return mEventQueue != null ? events : events.onBackpressureBuffer();
+    }
+
+    private static Executor newConflationExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DeviceCollection-updates");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void onAttributeChange(DeviceSync deviceSync) {
+        AfLog.i("DeviceCollection.observeUpdate.onNext: deviceSync=" + deviceSync.toString());
+        updateSequence(deviceSync.generation, deviceSync.seq);
+        DeviceModel deviceModel = getDevice(deviceSync.getDeviceId());
+        if (deviceModel != null && deviceModel.update(deviceSync)) {
+            mModelUpdateSubject.onNext(deviceModel);
+        }
+
+        saveSnapshotIfDue();
+    }
+
+    private void onStatusChange(DeviceState deviceState) {
+        AfLog.i("DeviceCollection.observeState.onNext: deviceState=" + deviceState.toString());
+        DeviceModel deviceModel = getDevice(deviceState.id);
+        if (deviceModel != null && deviceModel.update(deviceState.status)) {
+            mModelUpdateSubject.onNext(deviceModel);
+        }
+
+        saveSnapshotIfDue();
     }
 
     private void unsubscribeFromDeviceEventSource() {
+        mSnapshotSourceSubscription = RxUtils.safeUnSubscribe(mSnapshotSourceSubscription);
         mSnapshotSubscription = RxUtils.safeUnSubscribe(mSnapshotSubscription);
+        mProfileRevalidateSubscription = RxUtils.safeUnSubscribe(mProfileRevalidateSubscription);
+        mSnapshotSaveSubscription = RxUtils.safeUnSubscribe(mSnapshotSaveSubscription);
         mAttributeChangeSubscription = RxUtils.safeUnSubscribe(mAttributeChangeSubscription);
         mStatusChangeSubscription = RxUtils.safeUnSubscribe(mStatusChangeSubscription);
+
+        if (mEventQueue != null) {
+            mConflatedCountBase += mEventQueue.getConflatedCount();
+            mEventQueue.clear();
+            mEventQueue = null;
+        }
         mMuteSubscription = RxUtils.safeUnSubscribe(mMuteSubscription);
         mDeviceErrorSubscription = RxUtils.safeUnSubscribe(mDeviceErrorSubscription);
         mInvalidateSubscription = RxUtils.safeUnSubscribe(mInvalidateSubscription);
@@ -595,29 +1145,27 @@ public class DeviceCollection {
     }
 
     private DeviceModel addOrUpdate(String deviceId, DeviceStatus ds, DeviceProfile deviceProfile) {
-        synchronized (mModelMap) {
-            DeviceModel deviceModel = mModelMap.get(deviceId);
-            if (deviceModel != null) {
-                deviceModel.update(ds);
+        DeviceModel deviceModel = getDevice(deviceId);
+        if (deviceModel != null) {
+            if (deviceModel.update(ds)) {
                 mModelUpdateSubject.onNext(deviceModel);
-            } else {
-                deviceModel = add(deviceId, ds, deviceProfile);
             }
-            return deviceModel;
+        } else {
+            deviceModel = add(deviceId, ds, deviceProfile);
         }
+        return deviceModel;
     }
 
     private DeviceModel addOrUpdate(DeviceSync ds) {
-        synchronized (mModelMap) {
-            DeviceModel deviceModel = mModelMap.get(ds.getDeviceId());
-            if (deviceModel != null) {
-                deviceModel.update(ds);
+        DeviceModel deviceModel = getDevice(ds.getDeviceId());
+        if (deviceModel != null) {
+            if (deviceModel.update(ds)) {
                 mModelUpdateSubject.onNext(deviceModel);
-            } else {
-                add(ds);
             }
-            return deviceModel;
+        } else {
+            add(ds);
         }
+        return deviceModel;
     }
 
     private void updateDeviceProfile(final DeviceModel deviceModel, String profileId) {
@@ -668,9 +1216,12 @@ public class DeviceCollection {
     }
 
     private DeviceModel add(DeviceModel deviceModel) {
-        synchronized (mModelMap) {
-            mModelMap.put(deviceModel.getId(), deviceModel);
+        DeviceModel existing = mModelMap.putIfAbsent(indexKey(deviceModel.getId()), deviceModel);
+        if (existing != null) {
+            // lost a race with another thread adding the same device
+            return existing;
         }
+        mVersion.incrementAndGet();
 
         mModelCreateSubject.onNext(deviceModel);
 
@@ -678,13 +1229,18 @@ public class DeviceCollection {
     }
 
     private void onDeleteDevice(DeviceModel deviceModel) {
-        synchronized (mModelMap) {
-            mModelMap.remove(deviceModel.getId());
+        if (mModelMap.remove(indexKey(deviceModel.getId())) != null) {
+            mVersion.incrementAndGet();
         }
 
         mModelDeleteSubject.onNext(deviceModel);
     }
 
+    // toLowerCase returns the same instance for ids that are already lower case, which is the norm
+    private static String indexKey(String deviceId) {
+        return deviceId.toLowerCase(Locale.ROOT);
+    }
+
     private void throwIfNotStarted() {
         if (!isStarted()) {
             throw new IllegalStateException("DeviceCollection.start must be called first");
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of reconciling a {@link DeviceCollection} against a device snapshot from the
+ * {@link io.afero.sdk.conclave.DeviceEventSource}. Devices whose state already matched the
+ * snapshot are only counted.
+ */
+public final class DeviceCollectionDiff {
+
+    private final List<DeviceModel> mAdded;
+    private final List<DeviceModel> mChanged;
+    private final List<DeviceModel> mRemoved;
+    private final int mUnchangedCount;
+
+    DeviceCollectionDiff(List<DeviceModel> added, List<DeviceModel> changed, List<DeviceModel> removed, int unchangedCount) {
+        mAdded = Collections.unmodifiableList(added);
+        mChanged = Collections.unmodifiableList(changed);
+        mRemoved = Collections.unmodifiableList(removed);
+        mUnchangedCount = unchangedCount;
+    }
+
+    /**
+     * @return devices that were created from the snapshot
+     */
+    public List<DeviceModel> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * @return existing devices that were updated from the snapshot
+     */
+    public List<DeviceModel> getChanged() {
+        return mChanged;
+    }
+
+    /**
+     * @return devices that were not in the snapshot and have been removed from the collection
+     */
+    public List<DeviceModel> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return number of devices in the snapshot that were already up to date
+     */
+    public int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mChanged.isEmpty() && mRemoved.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceCollectionDiff{" +
+                "added=" + mAdded.size() +
+                ", changed=" + mChanged.size() +
+                ", removed=" + mRemoved.size() +
+                ", unchanged=" + mUnchangedCount +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Immutable view of the {@link DeviceModel}s in a {@link DeviceCollection}, sorted by device id.
+ * A snapshot never changes after it is created, so it can be iterated from any thread without
+ * copying. Use {@link #getVersion()} to tell whether the collection has changed since.
+ */
+public final class DeviceCollectionSnapshot implements Iterable<DeviceModel> {
+
+    static final DeviceCollectionSnapshot EMPTY = new DeviceCollectionSnapshot(new DeviceModel[0], 0);
+
+    private final DeviceModel[] mDevices;
+    private final long mVersion;
+
+    DeviceCollectionSnapshot(DeviceModel[] devices, long version) {
+        mDevices = devices;
+        mVersion = version;
+    }
+
+    /**
+     * @return the version of the collection this snapshot was taken from. The version
+     * increases every time a device is added or removed.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int size() {
+        return mDevices.length;
+    }
+
+    public boolean isEmpty() {
+        return mDevices.length == 0;
+    }
+
+    public DeviceModel get(int index) {
+        return mDevices[index];
+    }
+
+    @Override
+    public Iterator<DeviceModel> iterator() {
+        return new Iterator<DeviceModel>() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mDevices.length;
+            }
+
+            @Override
+            public DeviceModel next() {
+                if (mIndex >= mDevices.length) {
+                    throw new NoSuchElementException();
+                }
+                return mDevices[mIndex++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return a sized, splittable {@link Spliterator}, suitable for parallel streams
+     */
+    @Override
+    public Spliterator<DeviceModel> spliterator() {
+        return Spliterators.spliterator(mDevices,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+}
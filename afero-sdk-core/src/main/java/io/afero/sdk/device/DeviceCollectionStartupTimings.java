@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import io.afero.sdk.utils.Clock;
+import rx.functions.Action0;
+
+/**
+ * Timing of the phases of {@link DeviceCollection#start()}. The profile fetch, device fetch and
+ * event source connection run concurrently, so each phase is reported as the time from the start
+ * of startup until the phase completed.
+ */
+public final class DeviceCollectionStartupTimings {
+
+    public enum Phase {
+        /** account profiles fetched, or taken from the profile store */
+        PROFILES,
+        /** devices and their state fetched */
+        DEVICES,
+        /** event source connected; only reported by {@link DeviceCollection#start(rx.Observable)} */
+        EVENT_SOURCE,
+        /** missing profiles fetched and devices added to the collection */
+        APPLY
+    }
+
+    private final long[] mPhaseMillis = new long[Phase.values().length];
+    private volatile long mStartMillis;
+    private volatile long mTotalMillis = -1;
+    private volatile int mBufferedEventCount;
+
+    DeviceCollectionStartupTimings() {
+        Arrays.fill(mPhaseMillis, -1);
+    }
+
+    /**
+     * @return milliseconds from the start of startup until the phase completed, or -1 if the
+     * phase didn't run
+     */
+    public long getPhaseMillis(Phase phase) {
+        synchronized (mPhaseMillis) {
+            return mPhaseMillis[phase.ordinal()];
+        }
+    }
+
+    /**
+     * @return milliseconds from the start of startup until all buffered events were applied, or
+     * -1 if startup hasn't completed
+     */
+    public long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    /**
+     * @return number of device events that arrived before the base state was loaded and were
+     * applied afterward
+     */
+    public int getBufferedEventCount() {
+        return mBufferedEventCount;
+    }
+
+    void begin() {
+        mStartMillis = Clock.getElapsedMillis();
+    }
+
+    void mark(Phase phase) {
+        final long elapsed = Clock.getElapsedMillis() - mStartMillis;
+        synchronized (mPhaseMillis) {
+            mPhaseMillis[phase.ordinal()] = elapsed;
+        }
+    }
+
+    Action0 markAction(final Phase phase) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mark(phase);
+            }
+        };
+    }
+
+    void finish(int bufferedEventCount) {
+        mBufferedEventCount = bufferedEventCount;
+        mTotalMillis = Clock.getElapsedMillis() - mStartMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DeviceCollectionStartupTimings{");
+        for (Phase phase : Phase.values()) {
+            sb.append(phase.name().toLowerCase(Locale.ROOT))
+                .append('=')
+                .append(getPhaseMillis(phase))
+                .append("ms, ");
+        }
+        return sb.append("total=").append(mTotalMillis)
+                .append("ms, buffered=").append(mBufferedEventCount)
+                .append('}')
+                .toString();
+    }
+}
@@ -10,6 +10,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -33,14 +35,17 @@ import io.afero.sdk.conclave.models.DeviceSync;
 import io.afero.sdk.conclave.models.OTAInfo;
 import io.afero.sdk.log.AfLog;
 import io.afero.sdk.utils.Clock;
+import io.afero.sdk.utils.HashedWheelTimer;
 import io.afero.sdk.utils.JSONUtils;
 import io.afero.sdk.utils.MetricUtil;
+import io.afero.sdk.utils.RetryBudget;
 import io.afero.sdk.utils.RxUtils;
 import rx.Observable;
 import rx.Observer;
 import rx.Subscription;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.subjects.PublishSubject;
 
@@ -71,12 +76,21 @@ public final class DeviceModel {
     private static final long WRITE_TIMEOUT_INTERVAL = 30000;
     private static final int WRITE_ATTRIBUTE_RETRY_COUNT = 4;
 
-    @SuppressWarnings("WeakerAccess")
-    private class AttributeData {
-        public AttributeValue mCurrentValue;
-        public AttributeValue mPendingValue;
-        long mExpectedUpdateTime;
-        long mUpdatedTimeStamp;
+    /**
+     * Emitted by {@link #getAttributeChangeObservable()} when the values of one or more attributes
+     * have changed.
+     */
+    public static class AttributeChangeEvent {
+
+        public final DeviceModel deviceModel;
+
+        /** ids of the attributes whose value changed, in the order they were received */
+        public final int[] attributeIds;
+
+        AttributeChangeEvent(DeviceModel dm, int[] ids) {
+            deviceModel = dm;
+            attributeIds = ids;
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -88,11 +102,38 @@ public final class DeviceModel {
     private static final int HTTP_LOCKED = 423; // https://tools.ietf.org/html/rfc4918#section-11.3
     private static final long OTA_WATCHDOG_TIMEOUT_SECONDS = 30L;
 
-    private Subscription mPendingWriteSubscription;
+    private HashedWheelTimer.Timeout mUpdateTimeout;
 
     private final String mId;
     private final AferoClient mAferoClient;
-    private final HashMap<Integer,AttributeData> mAttributes = new HashMap<>();
+    private final AttributeTable mAttributes = new AttributeTable();
+    private final WriteBatchStats mWriteBatchStats = new WriteBatchStats();
+    private final DeviceWriteLimiter mWriteLimiter = new DeviceWriteLimiter(RetryBudget.getDefault());
+    private final WriteCoalescer mWriteCoalescer = new WriteCoalescer(new WriteCoalescer.Sender() {
+        @Override
+        public Observable<WriteResponse[]> send(final WriteRequest[] requests, final int retryCount, final int statusCode) {
+            return Observable.defer(new Func0<Observable<WriteResponse[]>>() {
+                    @Override
+                    public Observable<WriteResponse[]> call() {
+                        final Observable<WriteResponse[]> post = mAferoClient.postBatchAttributeWrite(DeviceModel.this, requests, retryCount, statusCode);
+                        final long waitMillis = mWriteLimiter.reserve();
+                        return waitMillis > 0 ? post.delaySubscription(waitMillis, TimeUnit.MILLISECONDS) : post;
+                    }
+                })
+                .doOnNext(new Action1<WriteResponse[]>() {
+                    @Override
+                    public void call(WriteResponse[] writeResponses) {
+                        for (WriteResponse writeResponse : writeResponses) {
+                            if (writeResponse.statusCode == HTTP_LOCKED) {
+                                mWriteLimiter.onLocked();
+                                return;
+                            }
+                        }
+                        mWriteLimiter.onSuccess();
+                    }
+                });
+        }
+    }, AttributeWriter.REQUEST_BATCH_SIZE);
 
     private String mName;
 
@@ -106,6 +147,7 @@ public final class DeviceModel {
     private final PublishSubject<AferoError> mErrorSubject = PublishSubject.create();
     private final PublishSubject<DeviceModel> mProfileUpdateSubject = PublishSubject.create();
     private final PublishSubject<DeviceModel> mUpdateSubject = PublishSubject.create();
+    private final PublishSubject<AttributeChangeEvent> mAttributeChangeSubject = PublishSubject.create();
     private final Observable<DeviceModel> mUpdateObservable;
 
     private OTAWatcher mOTAWatcher;
@@ -129,6 +171,9 @@ public final class DeviceModel {
 
     private ViewingDeviceNotifier mViewingDeviceNotifier;
 
+    // fingerprint of the snapshot DeviceSync this model was last synced from, 0 if modified since
+    private volatile long mSyncFingerprint;
+
 
     private DeviceModel() {
         mId = null;
@@ -391,6 +436,19 @@ public final class DeviceModel {
         return mUpdateObservable;
     }
 
+    /**
+     * Gets an {@link Observable} that emits an {@link AttributeChangeEvent} listing the
+     * {@link DeviceProfile.Attribute}s whose values changed, whenever an update from the
+     * {@link DeviceEventSource} changes any. Updates that repeat the existing values are not
+     * reported. Emits just before {@link #getUpdateObservable()}.
+     *
+     * @return {@link Observable}
+     */
+    @JsonIgnore
+    public Observable<AttributeChangeEvent> getAttributeChangeObservable() {
+        return mAttributeChangeSubject;
+    }
+
     /**
      * Gets an {@link Observable} that emits a {@link DeviceSync} whenever this device receives
      * one via the {@link DeviceEventSource}. {@link Observer#onNext(Object)} will be called *before*
@@ -454,9 +512,10 @@ public final class DeviceModel {
         UpdateState updateState = UpdateState.NORMAL;
         long now = Clock.getElapsedMillis();
 
-        for (AttributeData data : mAttributes.values()) {
-            if (data.mExpectedUpdateTime != 0) {
-                if (now > data.mExpectedUpdateTime) {
+        for (int i = 0, n = mAttributes.size(); i < n; ++i) {
+            final long expectedUpdateTime = mAttributes.getExpectedUpdateTime(i);
+            if (expectedUpdateTime != 0) {
+                if (now > expectedUpdateTime) {
                     updateState = UpdateState.UPDATE_TIMED_OUT;
                 } else {
                     updateState = UpdateState.WAITING_FOR_UPDATE;
@@ -546,6 +605,36 @@ public final class DeviceModel {
         return new AttributeWriter(this);
     }
 
+    /**
+     * Sets the window within which writes committed by separate {@link AttributeWriter}s are
+     * merged into a single request to the Afero Cloud. When more than one write targets the same
+     * attribute within the window the last value wins, and each {@link AttributeWriter} still
+     * emits its own {@link AttributeWriter.Result}s. Useful for rapidly changing controls such as
+     * sliders. Writes are delayed by up to the window. Defaults to zero, which disables merging.
+     *
+     * @param window time to wait for more writes before sending
+     * @param unit unit of {@code window}
+     */
+    public void setWriteCoalescingWindow(long window, TimeUnit unit) {
+        mWriteCoalescer.setWindow(window, unit);
+    }
+
+    /**
+     * @return {@link DeviceWriteLimiter} that paces write requests to this device and limits
+     * retries of requests rejected because the device was busy
+     */
+    public DeviceWriteLimiter getWriteLimiter() {
+        return mWriteLimiter;
+    }
+
+    /**
+     * @return {@link WriteBatchStats} with the batch write latency and adaptive batch size for
+     * this device
+     */
+    public WriteBatchStats getWriteBatchStats() {
+        return mWriteBatchStats;
+    }
+
     /**
      * Gets the local cached attribute value last received from the Afero Cloud.
      *
@@ -553,8 +642,13 @@ public final class DeviceModel {
      * @return {@link AttributeValue} of the specified Attribute.
      */
     public AttributeValue getAttributeCurrentValue(DeviceProfile.Attribute attribute) {
-        AttributeData ad = getAttributeData(attribute);
-        return ad != null ? ad.mCurrentValue : null;
+        if (attribute == null) {
+            return null;
+        }
+
+        final int index = mAttributes.indexOf(attribute.getId());
+        final AttributeValue value = index >= 0 ? decodeCurrentValue(index, attribute) : null;
+        return value != null ? value : new AttributeValue(attribute.getDataType());
     }
 
     /**
@@ -565,18 +659,26 @@ public final class DeviceModel {
      * @return {@link AttributeValue} of the specified Attribute.
      */
     public AttributeValue getAttributePendingValue(DeviceProfile.Attribute attribute) {
-        AttributeData ad = getAttributeData(attribute);
-        return ad != null ? ad.mPendingValue : null;
+        if (attribute == null) {
+            return null;
+        }
+
+        final int index = mAttributes.indexOf(attribute.getId());
+        AttributeValue value = index >= 0 ? mAttributes.getPendingValue(index) : null;
+        if (value == null && index >= 0) {
+            value = decodeCurrentValue(index, attribute);
+        }
+        return value != null ? value : new AttributeValue(attribute.getDataType());
     }
 
     /**
      * @param attribute {@link DeviceProfile.Attribute}
      */
     public void cancelAttributePendingValue(DeviceProfile.Attribute attribute) {
-        AttributeData ad = getAttributeData(attribute);
-        if (ad != null && ad.mCurrentValue != null) {
-            ad.mPendingValue = new AttributeValue(ad.mCurrentValue.toString(), attribute.getDataType());
-            ad.mExpectedUpdateTime = 0;
+        final int index = attribute != null ? mAttributes.indexOf(attribute.getId()) : -1;
+        if (index >= 0 && mAttributes.getRawValue(index) != null) {
+            mAttributes.setPendingValue(index, null);
+            mAttributes.setExpectedUpdateTime(index, 0);
         }
     }
 
@@ -588,8 +690,8 @@ public final class DeviceModel {
      * @return long timestamp in milliseconds
      */
     public long getAttributeUpdatedTime(DeviceProfile.Attribute attribute) {
-        AttributeData ad = getAttributeData(attribute);
-        return ad != null ? ad.mUpdatedTimeStamp : 0;
+        final int index = attribute != null ? mAttributes.indexOf(attribute.getId()) : -1;
+        return index >= 0 ? mAttributes.getUpdatedTime(index) : 0;
     }
 
     /**
@@ -721,12 +823,13 @@ public final class DeviceModel {
     @JsonProperty("attributes")
     public HashMap<Integer,AttributeDebug> getAttributeValues() {
         HashMap<Integer,AttributeDebug> result = new HashMap<>();
-        for (Map.Entry<Integer, AttributeData> attrEntry : mAttributes.entrySet()) {
-            AttributeData data = attrEntry.getValue();
+        for (int i = 0, n = mAttributes.size(); i < n; ++i) {
+            final AttributeValue current = decodeCurrentValue(i, getAttributeById(mAttributes.getId(i)));
+            final AttributeValue pending = mAttributes.getPendingValue(i);
             AttributeDebug ad = new AttributeDebug();
-            ad.current = data.mCurrentValue != null ? data.mCurrentValue.toString() : null;
-            ad.pending = data.mPendingValue != null ? data.mPendingValue.toString() : null;
-            result.put(attrEntry.getKey(), ad);
+            ad.current = current != null ? current.toString() : mAttributes.getRawValue(i);
+            ad.pending = pending != null ? pending.toString() : ad.current;
+            result.put(mAttributes.getId(i), ad);
         }
         return result;
     }
@@ -789,24 +892,32 @@ public final class DeviceModel {
         // ideally we could check the profile ids here, but we still can't
         // tell if this is just a presentation update
         if (oldProfile != newProfile) {
+            mSyncFingerprint = 0;
             mProfileUpdateSubject.onNext(this);
         }
     }
 
     void onWriteStart(Collection<WriteRequest> requests) {
         mLastError = null;
+        mSyncFingerprint = 0;
+
+        final long expectedUpdateTime = Clock.getElapsedMillis() + WRITE_TIMEOUT_INTERVAL;
+        boolean isWaiting = false;
 
         for (WriteRequest dr : requests) {
-            AttributeData data = mAttributes.get(dr.attrId);
             DeviceProfile.Attribute attribute = getAttributeById(dr.attrId);
-            if (data != null && attribute != null) {
-                data.mPendingValue = new AttributeValue(dr.value, attribute.getDataType());
-                data.mExpectedUpdateTime = Clock.getElapsedMillis() + WRITE_TIMEOUT_INTERVAL;
-
-                startWaitingForUpdate();
+            if (attribute != null) {
+                final int index = mAttributes.add(dr.attrId);
+                mAttributes.setPendingValue(index, new AttributeValue(dr.value, attribute.getDataType()));
+                mAttributes.setExpectedUpdateTime(index, expectedUpdateTime);
+                isWaiting = true;
             }
         }
 
+        if (isWaiting) {
+            startWaitingForUpdate();
+        }
+
         mUpdateSubject.onNext(this);
     }
 
@@ -828,36 +939,59 @@ public final class DeviceModel {
         mErrorSubject.onNext(error);
     }
 
+    int getStatusCode(Throwable t) {
+        return mAferoClient.getStatusCode(t);
+    }
+
     Observable<WriteResponse[]> postBatchAttributeWrite(Collection<WriteRequest> requests, int retryCount, int statusCode) {
-        WriteRequest[] reqArray = requests.toArray(new WriteRequest[0]);
-        return mAferoClient.postBatchAttributeWrite(this, reqArray, retryCount, statusCode);
+        return mWriteCoalescer.write(requests, retryCount, statusCode);
     }
 
-    void update(DeviceSync deviceSync) {
+    /**
+     * @return true if anything observable about the device changed
+     */
+    boolean update(DeviceSync deviceSync) {
 
+        mSyncFingerprint = 0;
         mDeviceSyncPreUpdateSubject.onNext(deviceSync);
 
         final boolean hasValidValues = deviceSync.hasValidAttributeValues();
         boolean hasChanged = false;
+        int[] changedIds = null;
+        int changedCount = 0;
 
         if (hasValidValues && deviceSync.attributes != null) {
-            hasChanged = true;
+            mAttributes.ensureCapacity(deviceSync.attributes.length);
             for (DeviceSync.AttributeEntry ae : deviceSync.attributes) {
-                updateAttributeValues(ae);
+                if (updateAttributeValues(ae)) {
+                    if (changedIds == null) {
+                        changedIds = new int[deviceSync.attributes.length + (deviceSync.attribute != null ? 1 : 0)];
+                    }
+                    changedIds[changedCount++] = ae.id;
+                }
             }
         }
 
         if (hasValidValues && deviceSync.attribute != null) {
+            if (updateAttributeValues(deviceSync.attribute)) {
+                if (changedIds == null) {
+                    changedIds = new int[1];
+                }
+                changedIds[changedCount++] = deviceSync.attribute.id;
+            }
+        }
+
+        if (mLastError != null && hasValidValues && (deviceSync.attributes != null || deviceSync.attribute != null)) {
+            mLastError = null;
             hasChanged = true;
-            updateAttributeValues(deviceSync.attribute);
         }
 
-        if (deviceSync.profileId != null) {
+        if (deviceSync.profileId != null && !deviceSync.profileId.equals(mProfileId)) {
             hasChanged = true;
             mProfileId = deviceSync.profileId;
         }
 
-        if (deviceSync.friendlyName != null) {
+        if (deviceSync.friendlyName != null && !deviceSync.friendlyName.equals(mName)) {
             hasChanged = true;
             mName = deviceSync.friendlyName;
         }
@@ -881,24 +1015,99 @@ public final class DeviceModel {
 
         mDeviceSyncPostUpdateSubject.onNext(deviceSync);
 
+        if (deviceSync.hasRequestId()) {
+            WriteAckIndex.getDefault().resolve(mId, deviceSync.requestId, AttributeWriter.Result.Status.SUCCESS);
+        }
+
+        if (changedCount > 0) {
+            hasChanged = true;
+            mAttributeChangeSubject.onNext(new AttributeChangeEvent(this,
+                changedCount == changedIds.length ? changedIds : Arrays.copyOf(changedIds, changedCount)));
+        }
+
         if (hasChanged) {
             mUpdateSubject.onNext(this);
+            runDataMigrations();
         }
 
-        runDataMigrations();
+        return hasChanged;
     }
 
-    void update(DeviceStatus deviceStatus) {
+    /**
+     * @return true if the status of the device changed
+     */
+    boolean update(DeviceStatus deviceStatus) {
+        mSyncFingerprint = 0;
         if (updateStatus(deviceStatus)) {
             mUpdateSubject.onNext(this);
 
             runDataMigrations();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the current state of the device in the form it arrives from the service
+     */
+    DeviceSync toDeviceSync() {
+        final DeviceSync ds = new DeviceSync();
+
+        ds.setDeviceId(mId);
+        ds.profileId = mProfileId;
+        ds.friendlyName = mName;
+        ds.virtual = mIsVirtual;
+
+        final DeviceStatus status = new DeviceStatus();
+        if (mAvailableState != AvailableState.NONE) {
+            status.available = mAvailableState == AvailableState.AVAILABLE;
         }
+        status.linked = mIsLinked;
+        status.direct = mDirect;
+        status.rssi = mRSSI;
+        ds.status = status;
+
+        if (mTimeZoneValue.getState() == TimeZoneValue.State.SET && mTimeZoneValue.getTimeZone() != null) {
+            ds.timezone = ds.new DeviceTimeZone();
+            ds.timezone.timezone = mTimeZoneValue.getTimeZone().getID();
+        }
+
+        final ArrayList<DeviceTag> tags = new ArrayList<>();
+        for (DeviceTagCollection.Tag tag : getDeviceTagCollection().getTags()) {
+            tags.add(tag.getDeviceTag());
+        }
+        ds.deviceTags = tags.toArray(new DeviceTag[tags.size()]);
+
+        final ArrayList<DeviceSync.AttributeEntry> attributes = new ArrayList<>(mAttributes.size());
+        for (int i = 0, n = mAttributes.size(); i < n; ++i) {
+            final String value = mAttributes.getRawValue(i);
+            if (value != null) {
+                DeviceSync.AttributeEntry ae = new DeviceSync.AttributeEntry(mAttributes.getId(i), value);
+                ae.updatedTimestamp = mAttributes.getUpdatedTime(i);
+                attributes.add(ae);
+            }
+        }
+        ds.attributes = attributes.toArray(new DeviceSync.AttributeEntry[attributes.size()]);
+
+        return ds;
+    }
+
+    long getSyncFingerprint() {
+        return mSyncFingerprint;
+    }
+
+    void setSyncFingerprint(long fingerprint) {
+        mSyncFingerprint = fingerprint;
     }
 
     void onError(DeviceError deviceError) {
         mLastError = deviceError;
         mErrorSubject.onNext(deviceError);
+
+        if (deviceError.requestId != 0) {
+            WriteAckIndex.getDefault().resolve(mId, deviceError.requestId, AttributeWriter.Result.Status.FAILURE);
+        }
     }
 
     void onMute(DeviceMute deviceMute) {
@@ -911,11 +1120,13 @@ public final class DeviceModel {
     }
 
     void invalidateTimeZone() {
+        mSyncFingerprint = 0;
         mTimeZoneValue.invalidate();
         mUpdateSubject.onNext(this);
     }
 
     void invalidateTag(String deviceTagAction, DeviceTag deviceTag) {
+        mSyncFingerprint = 0;
         getDeviceTagCollection().invalidateTag(deviceTagAction, deviceTag);
     }
 
@@ -990,35 +1201,66 @@ public final class DeviceModel {
         }
     }
 
-    private void updateAttributeValues(DeviceSync.AttributeEntry ae) {
+    // returns true if the value changed, or a pending write to the attribute was resolved
+    private boolean updateAttributeValues(DeviceSync.AttributeEntry ae) {
         try {
-            AttributeData data = mAttributes.get(ae.id);
-            if (data == null) {
-                data = new AttributeData();
-                mAttributes.put(ae.id, data);
-            }
-
-            DeviceProfile.Attribute attribute = getAttributeById(ae.id);
-            if (attribute != null && ae.value != null) {
-                data.mCurrentValue = new AttributeValue(ae.value, attribute.getDataType());
-                data.mPendingValue = new AttributeValue(ae.value, attribute.getDataType());
+            final int index = mAttributes.add(ae.id);
+            boolean hasChanged = mAttributes.getExpectedUpdateTime(index) != 0;
+
+            // values for ids the profile doesn't define are kept raw, so they can be decoded if a
+            // later profile defines them, but they aren't reported as changes
+            final boolean isKnown = getAttributeById(ae.id) != null;
+            if (ae.value != null) {
+                if (!ae.value.equals(mAttributes.getRawValue(index))) {
+                    // decoded on first access; most values are replaced before they're ever read
+                    mAttributes.setRawValue(index, ae.value);
+                    hasChanged = isKnown || hasChanged;
+                } else if (mAttributes.getPendingValue(index) != null) {
+                    mAttributes.setPendingValue(index, null);
+                    hasChanged = true;
+                }
 
                 if (ae.updatedTimestamp != 0) {
-                    data.mUpdatedTimeStamp = ae.updatedTimestamp;
+                    mAttributes.setUpdatedTime(index, ae.updatedTimestamp);
                 }
             }
-            data.mExpectedUpdateTime = 0;
+            mAttributes.setExpectedUpdateTime(index, 0);
 
-            mLastError = null;
+            return hasChanged;
         } catch (Exception e) {
             AfLog.e(e);
         }
+
+        return false;
     }
 
-    private void startWaitingForUpdate() {
-        mPendingWriteSubscription = Observable.just(this)
-            .delay(WRITE_TIMEOUT_INTERVAL, TimeUnit.MILLISECONDS)
-            .subscribe(new UpdateTimeoutAction(this));
+    // returns the memoized current value, decoding it from the raw value if necessary
+    private AttributeValue decodeCurrentValue(int index, DeviceProfile.Attribute attribute) {
+        AttributeValue value = mAttributes.getCurrentValue(index);
+        if (attribute == null || (value != null && value.getDataType() == attribute.getDataType())) {
+            return value;
+        }
+
+        final String raw = mAttributes.getRawValue(index);
+        if (raw == null) {
+            return null;
+        }
+
+        // an update may replace the raw value while this decodes; don't memoize the stale value
+        value = new AttributeValue(raw, attribute.getDataType());
+        mAttributes.setCurrentValueIfRaw(index, raw, value);
+
+        return value;
+    }
+
+    // one timeout per device: getState() only reports UPDATE_TIMED_OUT once the latest write
+    // has expired, so each write batch just pushes the deadline out
+    private synchronized void startWaitingForUpdate() {
+        if (mUpdateTimeout != null) {
+            mUpdateTimeout.cancel();
+        }
+        mUpdateTimeout = HashedWheelTimer.getDefault()
+            .schedule(new UpdateTimeoutAction(this), WRITE_TIMEOUT_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     private void onUpdateTimeout() {
@@ -1029,22 +1271,25 @@ public final class DeviceModel {
     private boolean updateStatus(DeviceStatus deviceStatus) {
         boolean hasChanged = false;
 
-        if (deviceStatus.rssi != null) {
+        if (deviceStatus.rssi != null && deviceStatus.rssi != mRSSI) {
             mRSSI = deviceStatus.rssi;
             hasChanged = true;
         }
 
-        if (deviceStatus.linked != null) {
+        if (deviceStatus.linked != null && deviceStatus.linked != mIsLinked) {
             mIsLinked = deviceStatus.linked;
             hasChanged = true;
         }
 
         if (deviceStatus.available != null) {
-            mAvailableState = deviceStatus.available ? AvailableState.AVAILABLE : AvailableState.UNAVAILABLE;
-            hasChanged = true;
+            final AvailableState availableState = deviceStatus.available ? AvailableState.AVAILABLE : AvailableState.UNAVAILABLE;
+            if (availableState != mAvailableState) {
+                mAvailableState = availableState;
+                hasChanged = true;
+            }
         }
 
-        if (deviceStatus.direct != null) {
+        if (deviceStatus.direct != null && deviceStatus.direct != mDirect) {
             mDirect = deviceStatus.direct;
             hasChanged = true;
         }
@@ -1052,23 +1297,6 @@ public final class DeviceModel {
         return hasChanged;
     }
     
-    private AttributeData getAttributeData(DeviceProfile.Attribute attribute) {
-        if (attribute == null) {
-            return null;
-        }
-
-        final int attrId = attribute.getId();
-        AttributeData data = mAttributes.get(attrId);
-        if (data == null) {
-            data = new AttributeData();
-            data.mCurrentValue = new AttributeValue(attribute.getDataType());
-            data.mPendingValue = new AttributeValue(attribute.getDataType());
-            mAttributes.put(attrId, data);
-        }
-
-        return data;
-    }
-
     private DeviceTagCollection getDeviceTagCollection() {
         if (mTags == null) {
             mTags = new DeviceTagCollection(this);
@@ -1077,15 +1305,17 @@ public final class DeviceModel {
         return mTags;
     }
 
-    private static class UpdateTimeoutAction extends RxUtils.WeakAction1<DeviceModel, DeviceModel> {
+    private static class UpdateTimeoutAction extends RxUtils.WeakAction0<DeviceModel> {
 
         UpdateTimeoutAction(DeviceModel deviceModel) {
             super(deviceModel);
         }
 
         @Override
-        public void call(DeviceModel deviceModel, DeviceModel nextDeviceModel) {
-            nextDeviceModel.onUpdateTimeout();
+        public void call(DeviceModel deviceModel) {
+            if (deviceModel != null) {
+                deviceModel.onUpdateTimeout();
+            }
         }
     }
 }
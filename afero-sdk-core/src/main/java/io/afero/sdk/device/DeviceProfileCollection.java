@@ -4,24 +4,58 @@
 
 package io.afero.sdk.device;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 
 import io.afero.sdk.client.afero.AferoClient;
+import io.afero.sdk.log.AfLog;
 import rx.Observable;
+import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func1;
 import rx.subjects.PublishSubject;
 
 class DeviceProfileCollection {
 
+    // fetch everything for the account rather than this many profiles one by one
+    static final int ACCOUNT_FETCH_THRESHOLD = 8;
+    static final int MAX_CONCURRENT_FETCHES = 4;
+
     private final AferoClient mAferoClient;
+    private final DeviceProfileStore mStore;
     private final HashMap<String, DeviceProfile> mProfiles = new HashMap<>();
+    private final HashMap<String, Observable<DeviceProfile>> mProfileFetches = new HashMap<>();
+    private Observable<DeviceProfile[]> mAccountProfilesFetch;
     private final PublishSubject<DeviceProfile> mProfileSubject = PublishSubject.create();
 
     DeviceProfileCollection(AferoClient aferoClient) {
+        this(aferoClient, null);
+    }
+
+    DeviceProfileCollection(AferoClient aferoClient, DeviceProfileStore store) {
         mAferoClient = aferoClient;
+        mStore = store;
+
+        if (store != null) {
+            for (DeviceProfile profile : store.loadAll()) {
+                mProfiles.put(profile.getId(), profile);
+            }
+        }
     }
 
     private DeviceProfile addProfile(DeviceProfile profile) {
+        if (mStore != null && !mStore.put(profile)) {
+            // same content as the stored profile; keep the instance the devices already use
+            synchronized (mProfiles) {
+                DeviceProfile existing = mProfiles.get(profile.getId());
+                if (existing != null) {
+                    return existing;
+                }
+            }
+        }
+
         synchronized (mProfiles) {
             mProfiles.put(profile.getId(), profile);
         }
@@ -31,32 +65,140 @@ class DeviceProfileCollection {
         return profile;
     }
 
+    boolean hasProfiles() {
+        synchronized (mProfiles) {
+            return !mProfiles.isEmpty();
+        }
+    }
+
     DeviceProfile getProfileFromID(String profileId) {
         synchronized (mProfiles) {
             return mProfiles.get(profileId);
         }
     }
 
+    /**
+     * Fetches all profiles for the account. Concurrent callers share a single request.
+     */
     Observable<DeviceProfile[]> fetchAccountProfiles() {
-        return mAferoClient.getAccountDeviceProfiles()
-            .doOnNext(new Action1<DeviceProfile[]>() {
-                @Override
-                public void call(DeviceProfile[] deviceProfiles) {
-                    for (DeviceProfile dp : deviceProfiles) {
-                        addProfile(dp);
-                    }
+        synchronized (mProfiles) {
+            if (mAccountProfilesFetch == null) {
+                mAccountProfilesFetch = mAferoClient.getAccountDeviceProfiles()
+                    .doOnNext(new Action1<DeviceProfile[]>() {
+                        @Override
+                        public void call(DeviceProfile[] deviceProfiles) {
+                            for (DeviceProfile dp : deviceProfiles) {
+                                addProfile(dp);
+                            }
+                        }
+                    })
+                    .doOnTerminate(new Action0() {
+                        @Override
+                        public void call() {
+                            synchronized (mProfiles) {
+                                mAccountProfilesFetch = null;
+                            }
+                        }
+                    })
+                    .cache();
+            }
+
+            return mAccountProfilesFetch;
+        }
+    }
+
+    /**
+     * Fetches a single profile. Concurrent callers asking for the same profile id share a
+     * single request.
+     */
+    Observable<DeviceProfile> fetchDeviceProfile(final String profileId) {
+        synchronized (mProfiles) {
+            Observable<DeviceProfile> fetch = mProfileFetches.get(profileId);
+            if (fetch == null) {
+                fetch = mAferoClient.getDeviceProfile(profileId)
+                    .doOnNext(new Action1<DeviceProfile>() {
+                        @Override
+                        public void call(DeviceProfile dp) {
+                            addProfile(dp);
+                        }
+                    })
+                    .doOnTerminate(new Action0() {
+                        @Override
+                        public void call() {
+                            synchronized (mProfiles) {
+                                mProfileFetches.remove(profileId);
+                            }
+                        }
+                    })
+                    .cache();
+                mProfileFetches.put(profileId, fetch);
+            }
+
+            return fetch;
+        }
+    }
+
+    /**
+     * Resolves every profile id in {@code profileIds} that isn't already known. Small sets are
+     * fetched individually with bounded parallelism; if {@link #ACCOUNT_FETCH_THRESHOLD} or more
+     * are missing, all account profiles are fetched with a single request instead, falling back
+     * to individual fetches if that request fails. Profiles that can't be fetched are skipped.
+     *
+     * @return Observable that emits each newly resolved {@link DeviceProfile}
+     */
+    Observable<DeviceProfile> fetchMissingProfiles(Collection<String> profileIds) {
+        final LinkedHashSet<String> missing = new LinkedHashSet<>();
+        synchronized (mProfiles) {
+            for (String profileId : profileIds) {
+                if (profileId != null && !mProfiles.containsKey(profileId)) {
+                    missing.add(profileId);
                 }
-            });
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return Observable.empty();
+        }
+
+        if (missing.size() >= ACCOUNT_FETCH_THRESHOLD) {
+            AfLog.i("DeviceProfileCollection: fetching account profiles for " + missing.size() + " missing profiles");
+            return fetchAccountProfiles()
+                .onErrorResumeNext(new Func1<Throwable, Observable<DeviceProfile[]>>() {
+                    @Override
+                    public Observable<DeviceProfile[]> call(Throwable t) {
+                        // fall back to fetching each missing profile on its own
+                        AfLog.e("DeviceProfileCollection: account profile fetch failed: " + t);
+                        return Observable.just(new DeviceProfile[0]);
+                    }
+                })
+                .flatMap(new Func1<DeviceProfile[], Observable<DeviceProfile>>() {
+                    @Override
+                    public Observable<DeviceProfile> call(DeviceProfile[] deviceProfiles) {
+                        ArrayList<DeviceProfile> resolved = new ArrayList<>(missing.size());
+                        for (DeviceProfile dp : deviceProfiles) {
+                            if (missing.remove(dp.getId())) {
+                                resolved.add(dp);
+                            }
+                        }
+
+                        // anything the account doesn't know about is fetched individually
+                        return Observable.from(resolved).concatWith(fetchEach(missing));
+                    }
+                });
+        }
+
+        return fetchEach(missing);
     }
 
-    Observable<DeviceProfile> fetchDeviceProfile(String profileId) {
-        return mAferoClient.getDeviceProfile(profileId)
-            .doOnNext(new Action1<DeviceProfile>() {
+    private Observable<DeviceProfile> fetchEach(Collection<String> profileIds) {
+        return Observable.from(new ArrayList<>(profileIds))
+            .flatMap(new Func1<String, Observable<DeviceProfile>>() {
                 @Override
-                public void call(DeviceProfile dp) {
-                    addProfile(dp);
+                public Observable<DeviceProfile> call(String profileId) {
+                    return fetchDeviceProfile(profileId)
+                        .onErrorResumeNext(Observable.<DeviceProfile>empty());
                 }
-            });
+            }, MAX_CONCURRENT_FETCHES);
     }
 
     Observable<DeviceProfile> getObservable() {
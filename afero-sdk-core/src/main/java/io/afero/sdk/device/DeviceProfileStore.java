@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Collection;
+
+/**
+ * Persistent storage for {@link DeviceProfile}s, keyed by profile id. When a store is passed to
+ * {@link DeviceCollection} its profiles are loaded up front, so {@link DeviceCollection#start()}
+ * doesn't have to wait for the account profiles to download.
+ *
+ * @see FileDeviceProfileStore
+ */
+public interface DeviceProfileStore {
+
+    /**
+     * @return every stored profile, never null
+     */
+    Collection<DeviceProfile> loadAll();
+
+    /**
+     * Stores a profile, replacing any stored profile with the same id.
+     *
+     * @return false if the stored profile already had identical content
+     */
+    boolean put(DeviceProfile profile);
+
+    void remove(String profileId);
+}
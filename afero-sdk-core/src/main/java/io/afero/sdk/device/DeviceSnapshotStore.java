@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import io.afero.sdk.conclave.models.DeviceSync;
+
+/**
+ * Persistent storage for the state of every device in a {@link DeviceCollection}, used to warm
+ * start the collection before the service has been contacted.
+ *
+ * @see FileDeviceSnapshotStore
+ * @see DeviceCollection#setSnapshotStore(DeviceSnapshotStore)
+ */
+public interface DeviceSnapshotStore {
+
+    /**
+     * @return the saved device state, or an empty array if there is none. The {@code generation}
+     * and {@code seq} of each {@link DeviceSync} are the Conclave generation and sequence number
+     * at the time of the save.
+     */
+    DeviceSync[] load();
+
+    /**
+     * Replaces the saved device state.
+     *
+     * @param deviceSyncs state of every device in the collection
+     * @param generation Conclave generation of the last event applied to the collection, or 0 if
+     *                   none has been
+     * @param seq Conclave sequence number of the last event applied to the collection
+     */
+    void save(DeviceSync[] deviceSyncs, long generation, int seq);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Random;
+
+import io.afero.sdk.utils.RateLimiter;
+import io.afero.sdk.utils.RetryBudget;
+
+/**
+ * Paces write requests to one device and decides whether a request the service rejected with
+ * HTTP 423 (device busy) may be retried. The allowed request rate adapts AIMD-style: it halves on
+ * each 423 and creeps back up with each accepted request. Retries are also charged to a
+ * {@link RetryBudget} shared by all devices, so retries from many writers can't amplify the load
+ * on a contended device.
+ *
+ * <p>{@link io.afero.sdk.client.afero.AferoClient} implementations consult this through
+ * {@link DeviceModel#getWriteLimiter()} when retrying writes.</p>
+ */
+public final class DeviceWriteLimiter {
+
+    static final double MAX_RATE = 10;
+    static final double MIN_RATE = 0.2;
+    private static final double RATE_INCREASE = 0.5;
+    private static final int BURST = 2;
+
+    private static final long RETRY_BASE_DELAY_MILLIS = 1000;
+    private static final long RETRY_MAX_DELAY_MILLIS = 16000;
+
+    private final RateLimiter mRateLimiter = new RateLimiter(MAX_RATE, BURST);
+    private final RetryBudget mRetryBudget;
+    private final Random mRandom = new Random();
+    private long mLockedCount;
+
+    DeviceWriteLimiter(RetryBudget retryBudget) {
+        mRetryBudget = retryBudget;
+    }
+
+    /**
+     * Takes a slot for a first attempt of a write request.
+     *
+     * @return milliseconds to wait before sending the request
+     */
+    public long reserve() {
+        mRetryBudget.onRequest();
+        return mRateLimiter.reserve(1);
+    }
+
+    /**
+     * Records that the service accepted a write request, raising the allowed rate.
+     */
+    public synchronized void onSuccess() {
+        mRateLimiter.setRate(Math.min(MAX_RATE, mRateLimiter.getRate() + RATE_INCREASE));
+    }
+
+    /**
+     * Records an HTTP 423 response, halving the allowed rate.
+     */
+    public synchronized void onLocked() {
+        ++mLockedCount;
+        mRateLimiter.setRate(Math.max(MIN_RATE, mRateLimiter.getRate() / 2));
+    }
+
+    /**
+     * Decides whether a failed write may be retried and, if so, takes a slot for it.
+     *
+     * @param retryCount 1 for the first retry, 2 for the second, and so on
+     * @return milliseconds to wait before retrying, or -1 if the shared retry budget is spent and
+     * the request should fail now
+     */
+    public long reserveRetry(int retryCount) {
+        if (!mRetryBudget.tryAcquireRetry()) {
+            return -1;
+        }
+
+        // exponential backoff with jitter so writers that collided don't retry in lockstep
+        final long backoff = Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << Math.min(retryCount - 1, 16));
+        final long jittered = backoff / 2 + (long)(mRandom.nextDouble() * (backoff / 2));
+
+        return Math.max(jittered, mRateLimiter.reserve(1));
+    }
+
+    /**
+     * @return requests per second currently allowed to the device
+     */
+    public double getRate() {
+        return mRateLimiter.getRate();
+    }
+
+    /**
+     * @return number of HTTP 423 responses recorded
+     */
+    public synchronized long getLockedCount() {
+        return mLockedCount;
+    }
+}
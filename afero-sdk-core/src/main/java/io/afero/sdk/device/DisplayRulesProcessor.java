@@ -125,6 +125,9 @@ public class DisplayRulesProcessor<T> {
 
             @Override
             boolean test(AttributeValue value) {
+                if (mValue.hasLongValue() && value.hasLongValue()) {
+                    return (mValue.longValue() & value.longValue()) != 0;
+                }
                 return (mValue.numericValue().toBigIntegerExact().and(value.numericValue().toBigIntegerExact())).compareTo(BigInteger.ZERO) != 0;
             }
         }
@@ -138,6 +141,9 @@ public class DisplayRulesProcessor<T> {
 
             @Override
             boolean test(AttributeValue value) {
+                if (mValue.hasLongValue() && value.hasLongValue()) {
+                    return (mValue.longValue() ^ value.longValue()) != 0;
+                }
                 return (mValue.numericValue().toBigIntegerExact().xor(value.numericValue().toBigIntegerExact())).compareTo(BigInteger.ZERO) != 0;
             }
         }
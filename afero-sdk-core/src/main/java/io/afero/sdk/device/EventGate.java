@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.ArrayList;
+
+import io.afero.sdk.log.AfLog;
+import rx.functions.Action1;
+
+/**
+ * Holds back events while closed and replays them, in arrival order, when opened. Once open,
+ * events are passed straight through to their handlers.
+ */
+final class EventGate {
+
+    private final Object mLock = new Object();
+    private ArrayList<Runnable> mPending;
+    private volatile boolean mIsOpen = true;
+
+    void close() {
+        synchronized (mLock) {
+            mPending = new ArrayList<>();
+            mIsOpen = false;
+        }
+    }
+
+    boolean isOpen() {
+        return mIsOpen;
+    }
+
+    /**
+     * @return an action that calls the specified action, or queues the call if the gate is closed
+     */
+    <T> Action1<T> wrap(final Action1<T> action) {
+        return new Action1<T>() {
+            @Override
+            public void call(final T t) {
+                if (!mIsOpen) {
+                    synchronized (mLock) {
+                        if (mPending != null) {
+                            mPending.add(new Runnable() {
+                                @Override
+                                public void run() {
+                                    action.call(t);
+                                }
+                            });
+                            return;
+                        }
+                    }
+                }
+
+                action.call(t);
+            }
+        };
+    }
+
+    /**
+     * Replays the queued events on the calling thread and opens the gate. Events that arrive
+     * during the replay are queued behind it, so ordering is preserved.
+     *
+     * @return number of events that were replayed
+     */
+    int open() {
+        int count = 0;
+
+        while (true) {
+            final ArrayList<Runnable> batch;
+            synchronized (mLock) {
+                batch = mPending;
+                if (batch == null) {
+                    mIsOpen = true;
+                    return count;
+                }
+                if (batch.isEmpty()) {
+                    mPending = null;
+                    mIsOpen = true;
+                    return count;
+                }
+                mPending = new ArrayList<>();
+            }
+
+            for (Runnable r : batch) {
+                try {
+                    r.run();
+                } catch (Exception e) {
+                    AfLog.e(e);
+                }
+            }
+            count += batch.size();
+        }
+    }
+
+    /**
+     * Drops any queued events and opens the gate.
+     */
+    void discard() {
+        synchronized (mLock) {
+            mPending = null;
+            mIsOpen = true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import io.afero.sdk.log.AfLog;
+
+/**
+ * {@link DeviceProfileStore} that keeps one file per profile in a directory. Profiles are
+ * written field by field, so a stored profile is restored exactly as it was parsed from the
+ * service without re-running any of its JSON setters. The SHA-1 of each file is kept in memory
+ * so storing a profile whose content hasn't changed costs no I/O.
+ */
+public class FileDeviceProfileStore implements DeviceProfileStore {
+
+    // bump if the serialized form of DeviceProfile changes incompatibly
+    private static final String FILE_EXTENSION = ".profile1";
+
+    private static final ObjectMapper sMapper = JsonMapper.builder()
+            .disable(MapperFeature.USE_ANNOTATIONS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .visibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .visibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .build();
+
+    private final File mDirectory;
+    private final HashMap<String, byte[]> mDigests = new HashMap<>();
+
+    /**
+     * @param directory directory in which to keep the profiles; created if it doesn't exist
+     */
+    public FileDeviceProfileStore(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public Collection<DeviceProfile> loadAll() {
+        final ArrayList<DeviceProfile> profiles = new ArrayList<>();
+
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return profiles;
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+
+            try {
+                final byte[] bytes = Files.readAllBytes(file.toPath());
+                final DeviceProfile profile = sMapper.readValue(bytes, DeviceProfile.class);
+                if (profile.getId() == null || !file.equals(getFile(profile.getId()))) {
+                    throw new IOException("profile id doesn't match file name");
+                }
+
+                synchronized (mDigests) {
+                    mDigests.put(profile.getId(), digest(bytes));
+                }
+                profiles.add(profile);
+
+            } catch (Exception e) {
+                AfLog.e("FileDeviceProfileStore: discarding " + file.getName() + ": " + e);
+                if (!file.delete()) {
+                    AfLog.e("FileDeviceProfileStore: unable to delete " + file.getName());
+                }
+            }
+        }
+
+        AfLog.i("FileDeviceProfileStore: loaded " + profiles.size() + " profiles");
+
+        return profiles;
+    }
+
+    @Override
+    public boolean put(DeviceProfile profile) {
+        final String profileId = profile.getId();
+        if (profileId == null) {
+            return true;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = sMapper.writeValueAsBytes(profile);
+        } catch (IOException e) {
+            AfLog.e(e);
+            return true;
+        }
+
+        final byte[] digest = digest(bytes);
+        synchronized (mDigests) {
+            if (Arrays.equals(digest, mDigests.get(profileId))) {
+                return false;
+            }
+
+            try {
+                write(getFile(profileId), bytes);
+                mDigests.put(profileId, digest);
+            } catch (IOException e) {
+                AfLog.e("FileDeviceProfileStore: unable to store profile " + profileId + ": " + e);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void remove(String profileId) {
+        synchronized (mDigests) {
+            mDigests.remove(profileId);
+            File file = getFile(profileId);
+            if (file.exists() && !file.delete()) {
+                AfLog.e("FileDeviceProfileStore: unable to delete " + file.getName());
+            }
+        }
+    }
+
+    private File getFile(String profileId) {
+        StringBuilder sb = new StringBuilder(profileId.length() + FILE_EXTENSION.length());
+        for (int i = 0, n = profileId.length(); i < n; ++i) {
+            final char c = profileId.charAt(i);
+            final boolean isSafe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+            sb.append(isSafe ? c : '_');
+        }
+        sb.append(FILE_EXTENSION);
+
+        return new File(mDirectory, sb.toString());
+    }
+
+    // write to a temporary file first so a crash never leaves a truncated profile behind
+    private void write(File file, byte[] bytes) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("unable to create " + mDirectory);
+        }
+
+        final File temp = new File(mDirectory, file.getName() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(temp)) {
+            os.write(bytes);
+            os.getFD().sync();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("unable to rename " + temp.getName());
+        }
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
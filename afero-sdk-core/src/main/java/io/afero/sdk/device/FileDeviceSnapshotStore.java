@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import io.afero.sdk.client.afero.models.DeviceStatus;
+import io.afero.sdk.client.afero.models.DeviceTag;
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.log.AfLog;
+
+/**
+ * {@link DeviceSnapshotStore} that keeps the device state in a single compact binary file.
+ * The file is written to a temporary file and renamed into place, and ends with a CRC32 of
+ * its contents; a file that fails the check is ignored.
+ */
+public class FileDeviceSnapshotStore implements DeviceSnapshotStore {
+
+    private static final int MAGIC = 0x41464453; // "AFDS"
+    private static final int VERSION = 2;
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private static final int MAX_COUNT = 1024 * 1024;
+
+    private static final int STATUS_HAS_STATUS = 1;
+    private static final int STATUS_AVAILABLE = 1 << 1;
+    private static final int STATUS_UNAVAILABLE = 1 << 2;
+    private static final int STATUS_LINKED = 1 << 3;
+    private static final int STATUS_DIRECT = 1 << 4;
+    private static final int STATUS_HAS_RSSI = 1 << 5;
+
+    private final File mFile;
+
+    /**
+     * @param file file in which to keep the snapshot; its directory must exist
+     */
+    public FileDeviceSnapshotStore(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public synchronized DeviceSync[] load() {
+        final CRC32 crc = new CRC32();
+
+        try (DataInputStream is = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(mFile)), crc))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IOException("unrecognized format");
+            }
+
+            final long generation = is.readLong();
+            final int seq = is.readInt();
+            final int count = is.readInt();
+            if (count < 0 || count > MAX_COUNT) {
+                throw new IOException("bad device count");
+            }
+
+            final DeviceSync[] deviceSyncs = new DeviceSync[count];
+            for (int i = 0; i < count; ++i) {
+                deviceSyncs[i] = readDeviceSync(is);
+                deviceSyncs[i].generation = generation;
+                deviceSyncs[i].seq = seq;
+            }
+
+            final long expectedCrc = crc.getValue();
+            if (is.readLong() != expectedCrc) {
+                throw new IOException("checksum mismatch");
+            }
+
+            AfLog.i("FileDeviceSnapshotStore: loaded " + count + " devices, generation=" + generation + " seq=" + seq);
+
+            return deviceSyncs;
+
+        } catch (FileNotFoundException e) {
+            return new DeviceSync[0];
+        } catch (IOException e) {
+            AfLog.e("FileDeviceSnapshotStore: ignoring " + mFile.getName() + ": " + e);
+            return new DeviceSync[0];
+        }
+    }
+
+    @Override
+    public synchronized void save(DeviceSync[] deviceSyncs, long generation, int seq) {
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final CRC32 crc = new CRC32();
+
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            try (DataOutputStream os = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fos), crc))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeLong(generation);
+                os.writeInt(seq);
+                os.writeInt(deviceSyncs.length);
+
+                for (DeviceSync ds : deviceSyncs) {
+                    writeDeviceSync(os, ds);
+                }
+
+                os.writeLong(crc.getValue());
+                os.flush();
+                fos.getFD().sync();
+            }
+
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("unable to rename " + temp.getName());
+            }
+
+        } catch (IOException e) {
+            AfLog.e("FileDeviceSnapshotStore: unable to save: " + e);
+            temp.delete();
+        }
+    }
+
+    private static void writeDeviceSync(DataOutputStream os, DeviceSync ds) throws IOException {
+        writeString(os, ds.getDeviceId());
+        writeString(os, ds.profileId);
+        writeString(os, ds.friendlyName);
+        os.writeBoolean(ds.virtual);
+        os.writeLong(ds.createdTimestamp);
+
+        final DeviceStatus status = ds.status;
+        int flags = 0;
+        if (status != null) {
+            flags |= STATUS_HAS_STATUS;
+            if (status.available != null) {
+                flags |= status.available ? STATUS_AVAILABLE : STATUS_UNAVAILABLE;
+            }
+            if (Boolean.TRUE.equals(status.linked)) {
+                flags |= STATUS_LINKED;
+            }
+            if (Boolean.TRUE.equals(status.direct)) {
+                flags |= STATUS_DIRECT;
+            }
+            if (status.rssi != null) {
+                flags |= STATUS_HAS_RSSI;
+            }
+        }
+        os.writeByte(flags);
+        if ((flags & STATUS_HAS_RSSI) != 0) {
+            os.writeInt(status.rssi);
+        }
+
+        writeString(os, ds.timezone != null ? ds.timezone.timezone : null);
+
+        final DeviceTag[] tags = ds.deviceTags;
+        os.writeInt(tags != null ? tags.length : -1);
+        if (tags != null) {
+            for (DeviceTag tag : tags) {
+                writeString(os, tag.deviceTagId);
+                writeString(os, tag.key);
+                writeString(os, tag.value);
+                writeString(os, tag.deviceTagType);
+                writeString(os, tag.localizationKey);
+            }
+        }
+
+        final DeviceSync.AttributeEntry[] attributes = ds.attributes;
+        os.writeInt(attributes != null ? attributes.length : -1);
+        if (attributes != null) {
+            for (DeviceSync.AttributeEntry ae : attributes) {
+                os.writeInt(ae.id);
+                writeString(os, ae.value);
+                os.writeLong(ae.updatedTimestamp);
+            }
+        }
+    }
+
+    private static DeviceSync readDeviceSync(DataInputStream is) throws IOException {
+        final DeviceSync ds = new DeviceSync();
+
+        ds.setDeviceId(readString(is));
+        ds.profileId = readString(is);
+        ds.friendlyName = readString(is);
+        ds.virtual = is.readBoolean();
+        ds.createdTimestamp = is.readLong();
+
+        final int flags = is.readUnsignedByte();
+        if ((flags & STATUS_HAS_STATUS) != 0) {
+            final DeviceStatus status = new DeviceStatus();
+            if ((flags & (STATUS_AVAILABLE | STATUS_UNAVAILABLE)) != 0) {
+                status.available = (flags & STATUS_AVAILABLE) != 0;
+            }
+            status.linked = (flags & STATUS_LINKED) != 0;
+            status.direct = (flags & STATUS_DIRECT) != 0;
+            if ((flags & STATUS_HAS_RSSI) != 0) {
+                status.rssi = is.readInt();
+            }
+            ds.status = status;
+        }
+
+        final String timezone = readString(is);
+        if (timezone != null) {
+            ds.timezone = ds.new DeviceTimeZone();
+            ds.timezone.timezone = timezone;
+        }
+
+        final int tagCount = readCount(is);
+        if (tagCount >= 0) {
+            ds.deviceTags = new DeviceTag[tagCount];
+            for (int i = 0; i < tagCount; ++i) {
+                final DeviceTag tag = new DeviceTag();
+                tag.deviceTagId = readString(is);
+                tag.key = readString(is);
+                tag.value = readString(is);
+                tag.deviceTagType = readString(is);
+                tag.localizationKey = readString(is);
+                ds.deviceTags[i] = tag;
+            }
+        }
+
+        final int attributeCount = readCount(is);
+        if (attributeCount >= 0) {
+            ds.attributes = new DeviceSync.AttributeEntry[attributeCount];
+            for (int i = 0; i < attributeCount; ++i) {
+                final DeviceSync.AttributeEntry ae = new DeviceSync.AttributeEntry();
+                ae.id = is.readInt();
+                ae.value = readString(is);
+                ae.updatedTimestamp = is.readLong();
+                ds.attributes[i] = ae;
+            }
+        }
+
+        return ds;
+    }
+
+    // length prefixed UTF-8; unlike writeUTF this has no 64K limit and round trips null
+    private static void writeString(DataOutputStream os, String s) throws IOException {
+        if (s == null) {
+            os.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    // -1 for a null array; checked before anything is allocated, since the CRC is only known at the end
+    private static int readCount(DataInputStream is) throws IOException {
+        final int count = is.readInt();
+        if (count < -1 || count > MAX_COUNT) {
+            throw new IOException("bad count");
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        final int length = is.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new EOFException("string too long");
+        }
+
+        final byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -8,9 +8,9 @@ import java.util.concurrent.TimeUnit;
 
 import io.afero.sdk.conclave.models.OTAInfo;
 import io.afero.sdk.log.AfLog;
+import io.afero.sdk.utils.HashedWheelTimer;
 import io.afero.sdk.utils.RxUtils;
 import rx.Observable;
-import rx.Subscription;
 import rx.subjects.BehaviorSubject;
 
 class OTAWatcher {
@@ -18,7 +18,7 @@ class OTAWatcher {
     private final long mOTATimeoutSeconds;
     private OTAInfo.OtaState mOTAState;
     private int mOTAProgress;
-    private Subscription mOTAWatchdogSubscription;
+    private HashedWheelTimer.Timeout mOTAWatchdogTimeout;
     private final BehaviorSubject<Integer> mProgressSubject = BehaviorSubject.create();
 
     OTAWatcher(long otaTimeoutSeconds) {
@@ -55,14 +55,16 @@ class OTAWatcher {
         cancelOTAWatchdog();
 
         if (mOTATimeoutSeconds > 0) {
-            mOTAWatchdogSubscription = Observable.just(mOTAProgress)
-                    .delay(mOTATimeoutSeconds, TimeUnit.SECONDS)
-                    .subscribe(new OTAWatchdogAction(this));
+            mOTAWatchdogTimeout = HashedWheelTimer.getDefault()
+                    .schedule(new OTAWatchdogAction(this, mOTAProgress), mOTATimeoutSeconds, TimeUnit.SECONDS);
         }
     }
 
     private void cancelOTAWatchdog() {
-        mOTAWatchdogSubscription = RxUtils.safeUnSubscribe(mOTAWatchdogSubscription);
+        if (mOTAWatchdogTimeout != null) {
+            mOTAWatchdogTimeout.cancel();
+            mOTAWatchdogTimeout = null;
+        }
     }
 
     private void onOTAWatchdogFired(int oldProgress) {
@@ -74,15 +76,20 @@ class OTAWatcher {
         }
     }
 
-    private static class OTAWatchdogAction extends RxUtils.WeakAction1<Integer, OTAWatcher> {
+    private static class OTAWatchdogAction extends RxUtils.WeakAction0<OTAWatcher> {
+
+        private final int mProgress;
 
-        OTAWatchdogAction(OTAWatcher strongRef) {
+        OTAWatchdogAction(OTAWatcher strongRef, int progress) {
             super(strongRef);
+            mProgress = progress;
         }
 
         @Override
-        public void call(OTAWatcher watcher, Integer progress) {
-            watcher.onOTAWatchdogFired(progress);
+        public void call(OTAWatcher watcher) {
+            if (watcher != null) {
+                watcher.onOTAWatchdogFired(mProgress);
+            }
         }
     }
 }
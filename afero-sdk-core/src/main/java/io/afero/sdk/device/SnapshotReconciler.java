@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.afero.sdk.client.afero.models.DeviceStatus;
+import io.afero.sdk.client.afero.models.DeviceTag;
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.log.AfLog;
+
+/**
+ * Helpers for reconciling a {@link DeviceCollection} against a device snapshot. Each applied
+ * snapshot {@link DeviceSync} leaves a 64 bit fingerprint on its {@link DeviceModel}; a device
+ * whose fingerprint still matches the next snapshot hasn't changed and is skipped. Large sets of
+ * changed devices are applied in parallel.
+ */
+final class SnapshotReconciler {
+
+    static final int PARALLEL_THRESHOLD = 256;
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DeviceCollection-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A device that needs updating from the snapshot.
+     */
+    static final class Change {
+        final DeviceModel mModel;
+        final DeviceSync mSync;
+        final DeviceProfile mProfile;
+        final long mFingerprint;
+
+        // set by apply(); false if the device already matched the snapshot
+        boolean mChanged;
+
+        Change(DeviceModel model, DeviceSync sync, DeviceProfile profile, long fingerprint) {
+            mModel = model;
+            mSync = sync;
+            mProfile = profile;
+            mFingerprint = fingerprint;
+        }
+
+        void apply() {
+            mChanged = mModel.update(mSync);
+            if (mProfile != null && mModel.getProfile() != mProfile) {
+                mModel.setProfile(mProfile);
+                mChanged = true;
+            }
+            mModel.setSyncFingerprint(mFingerprint);
+        }
+    }
+
+    private SnapshotReconciler() {
+    }
+
+    /**
+     * Applies {@code changes}, spreading them across cores if there are at least
+     * {@link #PARALLEL_THRESHOLD} of them. Returns once every change has been applied.
+     */
+    static void apply(final List<Change> changes) {
+        final int count = changes.size();
+        final int parts = Math.min(PARALLELISM, count / (PARALLEL_THRESHOLD / 2));
+
+        if (count < PARALLEL_THRESHOLD || parts < 2) {
+            for (Change change : changes) {
+                applySafely(change);
+            }
+            return;
+        }
+
+        final ArrayList<Callable<Void>> tasks = new ArrayList<>(parts);
+        for (int i = 0; i < parts; ++i) {
+            final int from = (int)((long)count * i / parts);
+            final int to = (int)((long)count * (i + 1) / parts);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int j = from; j < to; ++j) {
+                        applySafely(changes.get(j));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> future : sExecutor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            AfLog.e(e);
+        } catch (ExecutionException e) {
+            AfLog.e(e);
+        }
+    }
+
+    private static void applySafely(Change change) {
+        try {
+            change.apply();
+        } catch (Exception e) {
+            AfLog.e(e);
+        }
+    }
+
+    /**
+     * @return a 64 bit FNV-1a hash of every field of {@code ds} that {@link DeviceModel#update(DeviceSync)}
+     * applies, never 0
+     */
+    static long fingerprint(DeviceSync ds) {
+        long h = FNV_OFFSET;
+
+        h = hash(h, ds.getDeviceId());
+        h = hash(h, ds.profileId);
+        h = hash(h, ds.friendlyName);
+        h = hash(h, ds.virtual ? 1 : 0);
+        h = hash(h, ds.state != null ? ds.state : -1);
+
+        final DeviceStatus status = ds.status;
+        if (status != null) {
+            h = hash(h, status.available);
+            h = hash(h, status.visible);
+            h = hash(h, status.direct);
+            h = hash(h, status.connectable);
+            h = hash(h, status.connected);
+            h = hash(h, status.linked);
+            h = hash(h, status.rssi != null ? status.rssi : Integer.MIN_VALUE);
+        }
+
+        if (ds.attributes != null) {
+            h = hash(h, ds.attributes.length);
+            for (DeviceSync.AttributeEntry ae : ds.attributes) {
+                h = hash(h, ae);
+            }
+        }
+        h = hash(h, ds.attribute);
+
+        if (ds.deviceTags != null) {
+            h = hash(h, ds.deviceTags.length);
+            for (DeviceTag tag : ds.deviceTags) {
+                h = hash(h, tag.deviceTagId);
+                h = hash(h, tag.key);
+                h = hash(h, tag.value);
+                h = hash(h, tag.deviceTagType);
+            }
+        }
+
+        if (ds.timezone != null) {
+            h = hash(h, ds.timezone.timezone);
+            h = hash(h, ds.timezone.userOverride);
+        }
+
+        return h != 0 ? h : 1;
+    }
+
+    private static long hash(long h, DeviceSync.AttributeEntry ae) {
+        if (ae == null) {
+            return hash(h, -1);
+        }
+
+        h = hash(h, ae.id);
+        h = hash(h, ae.value);
+        h = hash(h, (int)(ae.updatedTimestamp >>> 32));
+        return hash(h, (int)ae.updatedTimestamp);
+    }
+
+    private static long hash(long h, Boolean b) {
+        return hash(h, b == null ? 2 : b ? 1 : 0);
+    }
+
+    private static long hash(long h, int v) {
+        for (int i = 0; i < 4; ++i) {
+            h = (h ^ (v & 0xff)) * FNV_PRIME;
+            v >>>= 8;
+        }
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null) {
+            return (h ^ 0xff) * FNV_PRIME;
+        }
+
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            final char c = s.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // terminator so adjacent fields can't run together
+        return (h ^ 0xfe) * FNV_PRIME;
+    }
+}
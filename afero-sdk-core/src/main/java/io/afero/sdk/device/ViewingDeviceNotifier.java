@@ -10,11 +10,9 @@ import java.util.concurrent.TimeUnit;
 import io.afero.sdk.client.afero.AferoClient;
 import io.afero.sdk.client.afero.models.ViewRequest;
 import io.afero.sdk.client.afero.models.ViewResponse;
-import io.afero.sdk.log.AfLog;
+import io.afero.sdk.utils.HashedWheelTimer;
 import io.afero.sdk.utils.RxUtils;
-import rx.Observable;
-import rx.Subscription;
-import rx.functions.Func1;
+import rx.functions.Action0;
 
 
 /**
@@ -31,7 +29,7 @@ public final class ViewingDeviceNotifier {
 
     private final DeviceModel mDeviceModel;
     private final AferoClient mAferoClient;
-    private Subscription mViewNotifierSubscription;
+    private HashedWheelTimer.Timeout mRefreshTimeout;
 
     private final Object mLock = new Object();
     private final long mDurationSeconds;
@@ -64,22 +62,7 @@ public final class ViewingDeviceNotifier {
                 return this;
             }
 
-            long intervalSeconds = mDurationSeconds - mRefreshDeltaSeconds;
-            mViewNotifierSubscription = Observable.interval(0, intervalSeconds, TimeUnit.SECONDS)
-                .flatMap(new Func1<Long, Observable<ViewResponse[]>>() {
-                    @Override
-                    public Observable<ViewResponse[]> call(Long x) {
-                        AfLog.d("Observable.interval: x=" + x);
-                        synchronized (mLock) {
-                            if (isRunning()) {
-                                return mAferoClient.postDeviceViewRequest(mDeviceModel, ViewRequest.start(mDurationSeconds));
-                            }
-                        }
-
-                        return Observable.empty();
-                    }
-                })
-                .subscribe(new RxUtils.IgnoreResponseObserver<ViewResponse[]>());
+            postViewRequest();
         }
 
         return this;
@@ -92,7 +75,8 @@ public final class ViewingDeviceNotifier {
     public void stop() {
         synchronized (mLock) {
             if (isRunning()) {
-                mViewNotifierSubscription = RxUtils.safeUnSubscribe(mViewNotifierSubscription);
+                mRefreshTimeout.cancel();
+                mRefreshTimeout = null;
                 mAferoClient.postDeviceViewRequest(mDeviceModel, ViewRequest.stop())
                     .subscribe(new RxUtils.IgnoreResponseObserver<ViewResponse[]>());
             }
@@ -100,6 +84,25 @@ public final class ViewingDeviceNotifier {
     }
 
     private boolean isRunning() {
-        return mViewNotifierSubscription != null;
+        return mRefreshTimeout != null;
+    }
+
+    // call with mLock held; posts the view request and schedules the next one shortly before the
+    // viewing duration expires
+    private void postViewRequest() {
+        mAferoClient.postDeviceViewRequest(mDeviceModel, ViewRequest.start(mDurationSeconds))
+            .subscribe(new RxUtils.IgnoreResponseObserver<ViewResponse[]>());
+
+        mRefreshTimeout = HashedWheelTimer.getDefault().schedule(new Action0() {
+            @Override
+            public void call() {
+                synchronized (mLock) {
+                    // skip if stopped, or stopped and restarted, since this timeout was scheduled
+                    if (isRunning() && !mRefreshTimeout.isPending()) {
+                        postViewRequest();
+                    }
+                }
+            }
+        }, mDurationSeconds - mRefreshDeltaSeconds, TimeUnit.SECONDS);
     }
 }
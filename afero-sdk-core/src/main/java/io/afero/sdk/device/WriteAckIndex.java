@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.utils.HashedWheelTimer;
+import rx.functions.Action0;
+
+/**
+ * SDK-wide index from write requestId to the {@link AttributeWriter}s waiting for the device to
+ * acknowledge that request. {@link DeviceModel} resolves entries as it ingests updates and errors,
+ * so an acknowledgement reaches only the writers that are waiting for it, in O(1), rather than
+ * being offered to every writer on the device. Entries that are never acknowledged expire via
+ * {@link HashedWheelTimer}.
+ *
+ * <p>More than one writer may wait on one requestId when their writes were coalesced into a
+ * single request, so each key maps to an immutable chain of entries that is updated with
+ * compare-and-set.</p>
+ */
+final class WriteAckIndex {
+
+    interface Listener {
+        void onWriteAck(int requestId, AttributeWriter.Result.Status status);
+    }
+
+    private static final WriteAckIndex sDefault = new WriteAckIndex();
+
+    private final ConcurrentHashMap<Integer, Entry> mEntries = new ConcurrentHashMap<>();
+
+    static WriteAckIndex getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Adds a listener for the acknowledgement of a request, which is dropped if it hasn't been
+     * resolved within the timeout.
+     */
+    void register(String deviceId, final int requestId, final Listener listener, long timeout, TimeUnit unit) {
+        final Entry entry = new Entry(deviceId, listener);
+        entry.mExpiry = HashedWheelTimer.getDefault().schedule(new Action0() {
+            @Override
+            public void call() {
+                remove(requestId, listener);
+            }
+        }, timeout, unit);
+
+        for (;;) {
+            final Entry head = mEntries.get(requestId);
+            final Entry newHead = entry.withNext(head);
+            if (head == null ? mEntries.putIfAbsent(requestId, newHead) == null : mEntries.replace(requestId, head, newHead)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a listener without notifying it.
+     *
+     * @return true if the listener was registered for the request
+     */
+    boolean remove(int requestId, Listener listener) {
+        for (;;) {
+            final Entry head = mEntries.get(requestId);
+            final Entry entry = head != null ? head.find(listener) : null;
+            if (entry == null) {
+                return false;
+            }
+
+            final Entry newHead = head.without(entry);
+            if (newHead == null ? mEntries.remove(requestId, head) : mEntries.replace(requestId, head, newHead)) {
+                entry.mExpiry.cancel();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Notifies and removes the listeners waiting on a request of the device.
+     *
+     * @return number of listeners notified
+     */
+    int resolve(String deviceId, int requestId, AttributeWriter.Result.Status status) {
+        for (;;) {
+            final Entry head = mEntries.get(requestId);
+            if (head == null) {
+                return 0;
+            }
+
+            Entry kept = null;
+            boolean matched = false;
+            for (Entry e = head; e != null; e = e.mNext) {
+                if (e.mDeviceId.equals(deviceId)) {
+                    matched = true;
+                } else {
+                    kept = e.withNext(kept);
+                }
+            }
+
+            if (!matched) {
+                return 0;
+            }
+
+            if (kept == null ? mEntries.remove(requestId, head) : mEntries.replace(requestId, head, kept)) {
+                int count = 0;
+                for (Entry e = head; e != null; e = e.mNext) {
+                    if (e.mDeviceId.equals(deviceId)) {
+                        e.mExpiry.cancel();
+                        e.mListener.onWriteAck(requestId, status);
+                        ++count;
+                    }
+                }
+                return count;
+            }
+        }
+    }
+
+    int size() {
+        int count = 0;
+        for (Entry head : mEntries.values()) {
+            for (Entry e = head; e != null; e = e.mNext) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    // chains are immutable once published; updates copy the entries in front of the change
+    private static final class Entry {
+        final String mDeviceId;
+        final Listener mListener;
+        final Entry mNext;
+        HashedWheelTimer.Timeout mExpiry;
+
+        Entry(String deviceId, Listener listener) {
+            this(deviceId, listener, null, null);
+        }
+
+        private Entry(String deviceId, Listener listener, Entry next, HashedWheelTimer.Timeout expiry) {
+            mDeviceId = deviceId;
+            mListener = listener;
+            mNext = next;
+            mExpiry = expiry;
+        }
+
+        Entry withNext(Entry next) {
+            return new Entry(mDeviceId, mListener, next, mExpiry);
+        }
+
+        Entry find(Listener listener) {
+            for (Entry e = this; e != null; e = e.mNext) {
+                if (e.mListener == listener) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        Entry without(Entry entry) {
+            if (this == entry) {
+                return mNext;
+            }
+            final Entry next = mNext != null ? mNext.without(entry) : null;
+            return next == mNext ? this : new Entry(mDeviceId, mListener, next, mExpiry);
+        }
+    }
+}
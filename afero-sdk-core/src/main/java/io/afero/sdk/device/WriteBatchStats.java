@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.Locale;
+
+/**
+ * Batch write latency and the adaptive batch size for one {@link DeviceModel}. The batch size
+ * grows by one after each batch the Afero Cloud accepts, and halves when a batch is rejected with
+ * HTTP 423 (device busy) or a write times out. {@link AttributeWriter}s only use the adaptive size
+ * if {@link AttributeWriter#setAdaptiveBatchSize(boolean)} is set, but latency is always recorded.
+ *
+ * @see DeviceModel#getWriteBatchStats()
+ */
+public final class WriteBatchStats {
+
+    static final int MIN_BATCH_SIZE = 1;
+    static final int MAX_BATCH_SIZE = 20;
+
+    // weight of the newest sample in the moving average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private int mBatchSize = AttributeWriter.REQUEST_BATCH_SIZE;
+    private long mBatchCount;
+    private long mBackoffCount;
+    private long mLastLatencyMillis = -1;
+    private long mMaxLatencyMillis = -1;
+    private double mAverageLatencyMillis = -1;
+
+    WriteBatchStats() {
+    }
+
+    /**
+     * @return number of attributes the next adaptive batch will hold
+     */
+    public synchronized int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * @return number of batches that received a response from the Afero Cloud
+     */
+    public synchronized long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * @return number of times the batch size was reduced because of HTTP 423 or a timeout
+     */
+    public synchronized long getBackoffCount() {
+        return mBackoffCount;
+    }
+
+    /**
+     * @return round trip time in milliseconds of the most recent batch, or -1 if there is none
+     */
+    public synchronized long getLastLatencyMillis() {
+        return mLastLatencyMillis;
+    }
+
+    /**
+     * @return longest batch round trip time in milliseconds, or -1 if there is none
+     */
+    public synchronized long getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+
+    /**
+     * @return exponential moving average of batch round trip times in milliseconds, or -1 if
+     * there are none
+     */
+    public synchronized long getAverageLatencyMillis() {
+        return Math.round(mAverageLatencyMillis);
+    }
+
+    synchronized void onBatchResponse(long latencyMillis, boolean wasLocked) {
+        ++mBatchCount;
+        mLastLatencyMillis = latencyMillis;
+        mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+        mAverageLatencyMillis = mAverageLatencyMillis < 0
+            ? latencyMillis
+            : mAverageLatencyMillis + (latencyMillis - mAverageLatencyMillis) * LATENCY_SMOOTHING;
+
+        if (wasLocked) {
+            backOff();
+        } else if (mBatchSize < MAX_BATCH_SIZE) {
+            ++mBatchSize;
+        }
+    }
+
+    synchronized void onBackoff() {
+        backOff();
+    }
+
+    private void backOff() {
+        ++mBackoffCount;
+        mBatchSize = Math.max(MIN_BATCH_SIZE, mBatchSize / 2);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+            "WriteBatchStats{batchSize=%d, batches=%d, backoffs=%d, lastMs=%d, avgMs=%d, maxMs=%d}",
+            mBatchSize, mBatchCount, mBackoffCount, mLastLatencyMillis, Math.round(mAverageLatencyMillis), mMaxLatencyMillis);
+    }
+}
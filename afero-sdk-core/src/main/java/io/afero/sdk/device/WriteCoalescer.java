@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.client.afero.models.WriteRequest;
+import io.afero.sdk.client.afero.models.WriteResponse;
+import io.afero.sdk.utils.HashedWheelTimer;
+import rx.Emitter;
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * Merges batch attribute writes to one device that arrive within a short window into a single
+ * request. If more than one write targets the same attribute, the last value wins. Each caller
+ * still gets a response array that lines up with its own requests, so its {@link AttributeWriter}
+ * matches request ids and emits its own {@link AttributeWriter.Result}s.
+ *
+ * <p>A window of zero disables coalescing and every write is sent as is.</p>
+ */
+final class WriteCoalescer {
+
+    interface Sender {
+        Observable<WriteResponse[]> send(WriteRequest[] requests, int retryCount, int statusCode);
+    }
+
+    private final Sender mSender;
+    private final int mMaxBatchSize;
+    private final Object mLock = new Object();
+
+    private long mWindowMillis;
+    private Batch mBatch;
+
+    WriteCoalescer(Sender sender, int maxBatchSize) {
+        mSender = sender;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    void setWindow(long window, TimeUnit unit) {
+        synchronized (mLock) {
+            mWindowMillis = Math.max(0, unit.toMillis(window));
+        }
+    }
+
+    long getWindowMillis() {
+        synchronized (mLock) {
+            return mWindowMillis;
+        }
+    }
+
+    /**
+     * @return Observable that emits the responses for {@code requests}, in the same order, once the
+     * batch they were merged into has been sent
+     */
+    Observable<WriteResponse[]> write(final Collection<WriteRequest> requests, final int retryCount, final int statusCode) {
+        if (getWindowMillis() == 0) {
+            return mSender.send(requests.toArray(new WriteRequest[0]), retryCount, statusCode);
+        }
+
+        return Observable.create(new Action1<Emitter<WriteResponse[]>>() {
+            @Override
+            public void call(Emitter<WriteResponse[]> emitter) {
+                enqueue(new Caller(requests, emitter), retryCount, statusCode);
+            }
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    /**
+     * Sends the open batch, if any, without waiting for the window to close.
+     */
+    void flush() {
+        final Batch batch;
+        synchronized (mLock) {
+            batch = mBatch;
+            mBatch = null;
+        }
+
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private void enqueue(Caller caller, int retryCount, int statusCode) {
+        Batch full = null;
+
+        synchronized (mLock) {
+            // keep merged batches within the size AttributeWriter would send on its own
+            if (mBatch != null && mBatch.countAfterMerge(caller) > mMaxBatchSize) {
+                full = mBatch;
+                full.mTimeout.cancel();
+                mBatch = null;
+            }
+
+            if (mBatch == null) {
+                final Batch batch = new Batch(retryCount, statusCode);
+                batch.mTimeout = HashedWheelTimer.getDefault().schedule(new Action0() {
+                    @Override
+                    public void call() {
+                        flush(batch);
+                    }
+                }, mWindowMillis, TimeUnit.MILLISECONDS);
+                mBatch = batch;
+            }
+
+            mBatch.add(caller);
+        }
+
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (mLock) {
+            if (mBatch != batch) {
+                return;
+            }
+            mBatch = null;
+        }
+
+        send(batch);
+    }
+
+    private void send(final Batch batch) {
+        batch.mTimeout.cancel();
+
+        final WriteRequest[] requests = batch.mRequests.values().toArray(new WriteRequest[0]);
+        mSender.send(requests, batch.mRetryCount, batch.mStatusCode)
+            .subscribe(new Observer<WriteResponse[]>() {
+                @Override
+                public void onCompleted() {
+                    for (Caller caller : batch.mCallers) {
+                        caller.mEmitter.onCompleted();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    for (Caller caller : batch.mCallers) {
+                        caller.mEmitter.onError(e);
+                    }
+                }
+
+                @Override
+                public void onNext(WriteResponse[] writeResponses) {
+                    // requests and responses match up in order
+                    final HashMap<Integer, WriteResponse> responses = new HashMap<>(writeResponses.length * 2);
+                    for (int i = 0, n = Math.min(requests.length, writeResponses.length); i < n; ++i) {
+                        responses.put(requests[i].attrId, writeResponses[i]);
+                    }
+
+                    for (Caller caller : batch.mCallers) {
+                        caller.mEmitter.onNext(caller.responsesFrom(responses));
+                    }
+                }
+            });
+    }
+
+    private static class Batch {
+        final LinkedHashMap<Integer, WriteRequest> mRequests = new LinkedHashMap<>();
+        final ArrayList<Caller> mCallers = new ArrayList<>();
+        final int mRetryCount;
+        final int mStatusCode;
+        HashedWheelTimer.Timeout mTimeout;
+
+        Batch(int retryCount, int statusCode) {
+            mRetryCount = retryCount;
+            mStatusCode = statusCode;
+        }
+
+        int countAfterMerge(Caller caller) {
+            int count = mRequests.size();
+            for (WriteRequest request : caller.mRequests) {
+                if (!mRequests.containsKey(request.attrId)) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        void add(Caller caller) {
+            for (WriteRequest request : caller.mRequests) {
+                mRequests.put(request.attrId, request);
+            }
+            mCallers.add(caller);
+        }
+    }
+
+    private static class Caller {
+        final WriteRequest[] mRequests;
+        final Emitter<WriteResponse[]> mEmitter;
+
+        Caller(Collection<WriteRequest> requests, Emitter<WriteResponse[]> emitter) {
+            mRequests = requests.toArray(new WriteRequest[0]);
+            mEmitter = emitter;
+        }
+
+        WriteResponse[] responsesFrom(HashMap<Integer, WriteResponse> responses) {
+            final WriteResponse[] result = new WriteResponse[mRequests.length];
+            for (int i = 0; i < result.length; ++i) {
+                WriteResponse response = responses.get(mRequests[i].attrId);
+                if (response == null) {
+                    response = new WriteResponse();
+                    response.status = WriteResponse.STATUS_NOT_ATTEMPTED;
+                }
+                result[i] = response;
+            }
+            return result;
+        }
+    }
+}
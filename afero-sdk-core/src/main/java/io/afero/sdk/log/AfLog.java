@@ -89,6 +89,13 @@ public class AfLog {
         }
     }
 
+    /**
+     * Allows callers to skip building an expensive log message that would be filtered anyway.
+     */
+    public static boolean isLoggable(FilterLevel level) {
+        return passesFilter(level);
+    }
+
     private static boolean passesFilter(FilterLevel level) {
         return mFilterLevel.compareTo(level) <= 0;
     }
@@ -34,6 +34,7 @@ public class OfflineScheduler {
     public static final int CALENDAR_MINUTE = Calendar.MINUTE;
 
     private static final int SCHEDULE_FLAGS_ENABLED = 1;
+    private static final int WRITE_BATCHES_IN_FLIGHT = 2; // schedules can write dozens of attributes
 
     private DeviceModel mDeviceModel;
     private final HashMap<Integer,OfflineScheduleEvent> mScheduleItems = new HashMap<>();
@@ -157,7 +158,9 @@ public class OfflineScheduler {
     }
 
     public synchronized void writeToDevice() {
-        AttributeWriter writer = mDeviceModel.writeAttributes();
+        AttributeWriter writer = mDeviceModel.writeAttributes()
+            .setMaxBatchesInFlight(WRITE_BATCHES_IN_FLIGHT)
+            .setAdaptiveBatchSize(true);
 
         for (int i = 0; i < mEventMaxCount; ++i) {
             final int onAttrId = getEventIdAtIndex(i);
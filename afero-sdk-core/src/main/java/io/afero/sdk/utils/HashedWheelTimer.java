@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.log.AfLog;
+import rx.functions.Action0;
+
+/**
+ * Hashed timing wheel for coarse timeouts such as write timeouts and watchdogs. Scheduling and
+ * cancelling are O(1); a single daemon thread advances the wheel one tick at a time and runs the
+ * actions whose deadline has passed. Actions run on that thread, so they must be short and must
+ * not block.
+ *
+ * <p>Timeouts fire no earlier than requested and at most one tick late.</p>
+ */
+public final class HashedWheelTimer {
+
+    private static final long DEFAULT_TICK_MILLIS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static HashedWheelTimer sDefault;
+
+    private final long mTickMillis;
+    private final Timeout[] mWheel;
+    private final int mMask;
+    private final boolean mStartWorker;
+
+    private final Object mLock = new Object();
+    private final long mStartMillis;
+    private long mTick;
+    private int mPendingCount;
+    private Thread mWorker;
+
+    /**
+     * @return timer shared by the whole SDK
+     */
+    public static synchronized HashedWheelTimer getDefault() {
+        if (sDefault == null) {
+            sDefault = new HashedWheelTimer(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, true);
+        }
+        return sDefault;
+    }
+
+    HashedWheelTimer(long tickMillis, int wheelSize, boolean startWorker) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+
+        mTickMillis = tickMillis;
+        mWheel = new Timeout[wheelSize];
+        mMask = wheelSize - 1;
+        mStartWorker = startWorker;
+        mStartMillis = Clock.getElapsedMillis();
+    }
+
+    /**
+     * Schedules an action to run once after a delay.
+     *
+     * @param action action to run on the timer thread
+     * @param delay time to wait before running the action
+     * @param unit unit of {@code delay}
+     * @return {@link Timeout} that can be used to cancel the action
+     */
+    public Timeout schedule(Action0 action, long delay, TimeUnit unit) {
+        if (action == null) {
+            throw new NullPointerException("action");
+        }
+
+        final long deadline = Clock.getElapsedMillis() - mStartMillis + Math.max(0, unit.toMillis(delay));
+
+        synchronized (mLock) {
+            // round up so the timeout never fires early, and never land on a tick already processed
+            final long deadlineTick = Math.max(mTick + 1, (deadline + mTickMillis - 1) / mTickMillis);
+
+            final Timeout timeout = new Timeout(action, deadlineTick);
+            link(timeout);
+            ++mPendingCount;
+
+            if (mStartWorker) {
+                if (mWorker == null) {
+                    mWorker = new Thread(new Worker(), "AferoSDK-Timer");
+                    mWorker.setDaemon(true);
+                    mWorker.start();
+                } else if (mPendingCount == 1) {
+                    mLock.notifyAll();
+                }
+            }
+
+            return timeout;
+        }
+    }
+
+    /**
+     * @return number of timeouts that have neither fired nor been cancelled
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingCount;
+        }
+    }
+
+    /**
+     * Advances the wheel to the current time and runs any expired actions on the calling thread.
+     *
+     * @return number of actions run
+     */
+    int expireTimeouts() {
+        final ArrayList<Timeout> expired = new ArrayList<>();
+
+        synchronized (mLock) {
+            final long targetTick = (Clock.getElapsedMillis() - mStartMillis) / mTickMillis;
+
+            if (mPendingCount == 0) {
+                mTick = Math.max(mTick, targetTick);
+            } else if (targetTick - mTick >= mWheel.length) {
+                // fell more than a full turn behind, e.g. the device slept; sweep every bucket once
+                mTick = targetTick;
+                for (int bucket = 0; bucket < mWheel.length; ++bucket) {
+                    expireBucket(bucket, expired);
+                }
+            } else {
+                while (mTick < targetTick) {
+                    ++mTick;
+                    expireBucket((int)(mTick & mMask), expired);
+                }
+            }
+        }
+
+        for (Timeout timeout : expired) {
+            try {
+                timeout.mAction.call();
+            } catch (Throwable t) {
+                AfLog.e("HashedWheelTimer: timeout action threw");
+                AfLog.e(t);
+            }
+        }
+
+        return expired.size();
+    }
+
+    // call with mLock held
+    private void expireBucket(int bucket, ArrayList<Timeout> expired) {
+        Timeout timeout = mWheel[bucket];
+        while (timeout != null) {
+            final Timeout next = timeout.mNext;
+            if (timeout.mDeadlineTick <= mTick) {
+                unlink(timeout);
+                --mPendingCount;
+                timeout.mState = Timeout.STATE_EXPIRED;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    // call with mLock held
+    private void link(Timeout timeout) {
+        final int bucket = (int)(timeout.mDeadlineTick & mMask);
+        final Timeout head = mWheel[bucket];
+        timeout.mNext = head;
+        if (head != null) {
+            head.mPrev = timeout;
+        }
+        mWheel[bucket] = timeout;
+    }
+
+    // call with mLock held
+    private void unlink(Timeout timeout) {
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else {
+            mWheel[(int)(timeout.mDeadlineTick & mMask)] = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout.mPrev;
+        }
+        timeout.mPrev = null;
+        timeout.mNext = null;
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        synchronized (mLock) {
+            while (mPendingCount == 0) {
+                mLock.wait();
+            }
+
+            final long nextTickMillis = (mTick + 1) * mTickMillis;
+            final long waitMillis = nextTickMillis - (Clock.getElapsedMillis() - mStartMillis);
+            if (waitMillis > 0) {
+                mLock.wait(waitMillis);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    waitForNextTick();
+                    expireTimeouts();
+                }
+            } catch (InterruptedException e) {
+                AfLog.e("HashedWheelTimer: worker interrupted");
+            }
+        }
+    }
+
+    /**
+     * Handle to a scheduled action.
+     */
+    public final class Timeout {
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final Action0 mAction;
+        private final long mDeadlineTick;
+        private Timeout mPrev;
+        private Timeout mNext;
+        private int mState;
+
+        private Timeout(Action0 action, long deadlineTick) {
+            mAction = action;
+            mDeadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the action if it hasn't yet run.
+         *
+         * @return true if the action was cancelled, false if it already ran or was cancelled
+         */
+        public boolean cancel() {
+            synchronized (mLock) {
+                if (mState != STATE_PENDING) {
+                    return false;
+                }
+                mState = STATE_CANCELLED;
+                unlink(this);
+                --mPendingCount;
+                return true;
+            }
+        }
+
+        /**
+         * @return true if the action has neither run nor been cancelled
+         */
+        public boolean isPending() {
+            synchronized (mLock) {
+                return mState == STATE_PENDING;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+/**
+ * Token bucket rate limiter. Rather than blocking, {@link #reserve(int)} takes the permits
+ * immediately and returns how long the caller should wait before using them, so callers can
+ * delay an Observable subscription instead of tying up a thread.
+ */
+public final class RateLimiter {
+
+    private double mPermitsPerSecond;
+    private final double mBurst;
+    private double mTokens;
+    private long mLastMillis;
+
+    /**
+     * @param permitsPerSecond sustained rate; zero or less means unlimited
+     * @param burst number of permits that may be taken at once after an idle period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        mPermitsPerSecond = permitsPerSecond;
+        mBurst = Math.max(1, burst);
+        mTokens = mBurst;
+        mLastMillis = Clock.getElapsedMillis();
+    }
+
+    /**
+     * @param permitsPerSecond sustained rate; zero or less means unlimited
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        refill();
+        mPermitsPerSecond = permitsPerSecond;
+    }
+
+    public synchronized double getRate() {
+        return mPermitsPerSecond;
+    }
+
+    /**
+     * Takes permits from the bucket, going into debt if there aren't enough, so later callers
+     * wait behind this one.
+     *
+     * @param permits number of permits to take
+     * @return milliseconds to wait before using the permits, 0 if they can be used now
+     */
+    public synchronized long reserve(int permits) {
+        if (mPermitsPerSecond <= 0) {
+            return 0;
+        }
+
+        refill();
+        mTokens -= permits;
+
+        return mTokens >= 0 ? 0 : (long)Math.ceil(-mTokens * 1000 / mPermitsPerSecond);
+    }
+
+    private void refill() {
+        final long now = Clock.getElapsedMillis();
+        if (mPermitsPerSecond > 0) {
+            mTokens = Math.min(mBurst, mTokens + (now - mLastMillis) * mPermitsPerSecond / 1000);
+        } else {
+            mTokens = mBurst;
+        }
+        mLastMillis = now;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+/**
+ * Caps retries to a fraction of requests. Each request deposits {@code retryRatio} into the
+ * budget and each retry withdraws one, so under sustained failure retries add at most that
+ * fraction of extra load instead of multiplying it. A small reserve lets occasional retries
+ * through when traffic is light.
+ */
+public final class RetryBudget {
+
+    private static final double DEFAULT_RETRY_RATIO = 0.2;
+    private static final int DEFAULT_RESERVE = 10;
+
+    private static final RetryBudget sDefault = new RetryBudget(DEFAULT_RETRY_RATIO, DEFAULT_RESERVE);
+
+    private final double mRetryRatio;
+    private final double mMaxBalance;
+    private double mBalance;
+    private long mRetryCount;
+    private long mDeniedCount;
+
+    /**
+     * @return budget shared by all writers in the SDK
+     */
+    public static RetryBudget getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @param retryRatio retries allowed per request, e.g. 0.2 for one retry per five requests
+     * @param reserve retries available up front, which is also the most that can accumulate
+     */
+    public RetryBudget(double retryRatio, int reserve) {
+        mRetryRatio = retryRatio;
+        mMaxBalance = Math.max(1, reserve);
+        mBalance = mMaxBalance;
+    }
+
+    /**
+     * Records a first attempt of a request.
+     */
+    public synchronized void onRequest() {
+        mBalance = Math.min(mMaxBalance, mBalance + mRetryRatio);
+    }
+
+    /**
+     * @return true if a retry may be issued, in which case it is charged to the budget
+     */
+    public synchronized boolean tryAcquireRetry() {
+        if (mBalance >= 1) {
+            mBalance -= 1;
+            ++mRetryCount;
+            return true;
+        }
+
+        ++mDeniedCount;
+        return false;
+    }
+
+    public synchronized long getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return number of retries refused because the budget was spent
+     */
+    public synchronized long getDeniedCount() {
+        return mDeniedCount;
+    }
+}
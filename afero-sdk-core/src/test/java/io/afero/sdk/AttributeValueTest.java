@@ -184,6 +184,51 @@ public class AttributeValueTest {
         assertTrue(av.booleanValue());
     }
 
+    @Test
+    public void testPrimitiveParseMatchesBigDecimal() {
+        String[] integers = { "0", "-0", "7", "007", "-42", "123456789012345678", "9223372036854775807", "-9223372036854775808", "0x7F", "0x7fffffffffffffff", "1.5", "1E3" };
+        for (String s : integers) {
+            AttributeValue av = new AttributeValue(s, AttributeValue.DataType.SINT64);
+            BigDecimal expected = s.startsWith("0x") ? new BigDecimal(Long.decode(s)) : new BigDecimal(s);
+            assertEquals(s, expected.toString(), av.toString());
+            assertEquals(s, 0, av.numericValue().compareTo(expected));
+            assertEquals(s, expected.longValue(), av.longValue());
+        }
+
+        String[] decimals = { "21.5", "-0.25", "1.50", "20", "0.1", "1E-7", "12345.123046875" };
+        for (String s : decimals) {
+            AttributeValue av = new AttributeValue(s, AttributeValue.DataType.FLOAT32);
+            BigDecimal expected = new BigDecimal(s);
+            assertEquals(s, expected.toString(), av.toString());
+            assertEquals(s, expected, av.numericValue());
+            assertEquals(s, expected.doubleValue(), av.doubleValue(), 0);
+        }
+
+        AttributeValue overflow = new AttributeValue("0xFFFFFFFFFFFFFFFF", AttributeValue.DataType.UINT64);
+        assertEquals("0xFFFFFFFFFFFFFFFF", overflow.toString());
+        assertFalse(overflow.hasLongValue());
+    }
+
+    @Test
+    public void testPrimitiveCompare() {
+        AttributeValue.DataType dataType = AttributeValue.DataType.UINT8;
+        AttributeValue low = new AttributeValue("3", dataType);
+        AttributeValue high = new AttributeValue("0x10", dataType);
+
+        assertTrue(low.hasLongValue());
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(low) > 0);
+        assertEquals(0, high.compareTo(new AttributeValue("16", dataType)));
+        assertTrue(low.compareTo(new AttributeValue("3.5", dataType)) < 0);
+
+        AttributeValue f = new AttributeValue("-0.0", AttributeValue.DataType.FLOAT64);
+        assertEquals(0, f.compareTo(new AttributeValue("0.0", AttributeValue.DataType.FLOAT64)));
+        assertFalse(f.booleanValue());
+
+        assertTrue(new AttributeValue("0010", AttributeValue.DataType.BOOLEAN).booleanValue());
+        assertFalse(new AttributeValue("000", AttributeValue.DataType.BOOLEAN).booleanValue());
+    }
+
     @Test
     public void testGetValueBytes() {
         ByteBuffer bb = makeAttributeValueBytes("123", AttributeValue.DataType.SINT8);
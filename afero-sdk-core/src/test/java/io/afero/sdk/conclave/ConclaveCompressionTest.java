@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConclaveCompressionTest {
+
+    private final ArrayList<String> lines = new ArrayList<>();
+
+    private final ConclaveLineFramer framer = new ConclaveLineFramer(new ConclaveLineFramer.Handler() {
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) throws IOException {
+            lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            lines.add("");
+        }
+    });
+
+    @Test
+    public void roundTripWithStats() throws IOException {
+        ConclaveCompression sender = ConclaveCompression.acquire();
+        ConclaveCompression receiver = ConclaveCompression.acquire();
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        OutputStream os = sender.newOutputStream(wire);
+
+        byte[] message = "{\"say\":{\"event\":\"metrics\",\"data\":{\"name\":\"AttributeChangeRTT\"}}}\n\n".getBytes(StandardCharsets.UTF_8);
+        os.write(message);
+        os.flush();
+
+        ByteArrayInputStream is = new ByteArrayInputStream(wire.toByteArray());
+        while (receiver.readFrom(is, framer) > 0) {
+            // keep reading
+        }
+
+        assertEquals(Arrays.asList("{\"say\":{\"event\":\"metrics\",\"data\":{\"name\":\"AttributeChangeRTT\"}}}", ""), lines);
+
+        ConclaveCompressionStats out = sender.getStats();
+        assertEquals(message.length, out.getUncompressedBytesOut());
+        assertEquals(wire.size(), out.getCompressedBytesOut());
+
+        ConclaveCompressionStats in = receiver.getStats();
+        assertEquals(wire.size(), in.getCompressedBytesIn());
+        assertEquals(message.length, in.getUncompressedBytesIn());
+        assertTrue(in.getInboundRatio() > 0);
+
+        sender.release();
+        receiver.release();
+    }
+
+    @Test
+    public void codecIsReusedAfterRelease() throws IOException {
+        ConclaveCompression first = ConclaveCompression.acquire();
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        first.newOutputStream(wire).write("partial".getBytes(StandardCharsets.UTF_8));
+
+        final int pooled = ConclaveCompression.getPooledCount();
+        first.release();
+        assertEquals(pooled + 1, ConclaveCompression.getPooledCount());
+
+        try {
+            first.deflate(new byte[1], 0, 1, null);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the recycled codec must start with a clean stream
+        ConclaveCompression second = ConclaveCompression.acquire();
+        assertEquals(pooled, ConclaveCompression.getPooledCount());
+
+        wire.reset();
+        OutputStream os = second.newOutputStream(wire);
+        os.write("fresh\n".getBytes(StandardCharsets.UTF_8));
+        os.flush();
+
+        ConclaveCompression receiver = ConclaveCompression.acquire();
+        receiver.readFrom(new ByteArrayInputStream(wire.toByteArray()), framer);
+        assertEquals(Arrays.asList("fresh"), lines);
+
+        second.release();
+        receiver.release();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.conclave.models.OTAInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConclaveEventRegistryTest {
+
+    public static class Custom {
+        public String name;
+    }
+
+    @Test
+    public void lookupIsCaseInsensitive() {
+        ConclaveEventRegistry registry = new ConclaveEventRegistry();
+
+        char[] chars = "xxATTR_Changexx".toCharArray();
+        ConclaveEventRegistry.Entry entry = registry.lookup(chars, 2, 11);
+
+        assertSame(ConclaveEvent.EVENT_ATTR_CHANGE, entry.getName());
+        assertEquals(DeviceSync.class, entry.getType());
+        assertSame(entry, registry.lookup("Attr_Change"));
+        assertNull(registry.lookup(chars, 2, 10));
+        assertNull(registry.lookup("attr_changes"));
+    }
+
+    @Test
+    public void registerReplacesAndGrows() {
+        ConclaveEventRegistry registry = new ConclaveEventRegistry();
+
+        registry.register("device:ota_progress", Custom.class);
+        assertEquals(Custom.class, registry.lookup(ConclaveEvent.EVENT_OTA_PROGRESS).getType());
+        registry.register("DEVICE:OTA_PROGRESS", OTAInfo.class);
+        assertEquals(OTAInfo.class, registry.lookup(ConclaveEvent.EVENT_OTA_PROGRESS).getType());
+
+        for (int i = 0; i < 20; ++i) {
+            registry.register("custom:" + i, Custom.class);
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            char[] chars = ("CUSTOM:" + i).toCharArray();
+            assertEquals("custom:" + i, registry.lookup(chars, 0, chars.length).getName());
+        }
+        assertEquals(DeviceSync.class, registry.lookup(ConclaveEvent.EVENT_ATTR_CHANGE).getType());
+    }
+
+    @Test
+    public void decodeRegisteredEvent() throws IOException {
+        ConclaveMessageDecoder decoder = new ConclaveMessageDecoder();
+        decoder.getRegistry().register("custom:event", Custom.class);
+
+        ConclaveEvent event = decoder.decode("{\"private\":{\"seq\":4,\"event\":\"Custom:Event\",\"data\":{\"name\":\"x\"}}}");
+
+        assertEquals("custom:event", event.event);
+        assertTrue(event.data instanceof Custom);
+        assertEquals("x", ((Custom)event.data).name);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConclaveLineFramerTest {
+
+    private static final String HEARTBEAT = "<heartbeat>";
+
+    private final ArrayList<String> lines = new ArrayList<>();
+
+    private final ConclaveLineFramer framer = new ConclaveLineFramer(new ConclaveLineFramer.Handler() {
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) throws IOException {
+            lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            lines.add(HEARTBEAT);
+        }
+    }, 16);
+
+    @Test
+    public void splitAcrossAppends() throws IOException {
+        append("{\"a\":");
+        assertEquals(0, lines.size());
+
+        append("1}\n\n{\"b\"");
+        append(":2}\r\n");
+
+        assertEquals(Arrays.asList("{\"a\":1}", HEARTBEAT, "{\"b\":2}"), lines);
+    }
+
+    @Test
+    public void growsForLongLines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append('x');
+        }
+        String longLine = sb.toString();
+
+        append(longLine.substring(0, 500));
+        append(longLine.substring(500) + "\nshort\n");
+
+        assertEquals(Arrays.asList(longLine, "short"), lines);
+    }
+
+    @Test
+    public void fillFromStream() throws IOException {
+        ByteArrayInputStream is = new ByteArrayInputStream("one\n\ntwo\nthree".getBytes(StandardCharsets.UTF_8));
+
+        while (framer.fill(is) > 0) {
+            // keep reading
+        }
+
+        assertEquals(Arrays.asList("one", HEARTBEAT, "two"), lines);
+    }
+
+    @Test
+    public void inflate() throws IOException {
+        Deflater deflater = new Deflater();
+        Inflater inflater = new Inflater();
+        byte[] out = new byte[256];
+
+        for (String chunk : new String[] { "{\"x\":1}\n", "\n", "{\"y\":", "2}\n" }) {
+            deflater.setInput(chunk.getBytes(StandardCharsets.UTF_8));
+            int count = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+
+            inflater.setInput(out, 0, count);
+            framer.inflate(inflater);
+        }
+
+        assertEquals(Arrays.asList("{\"x\":1}", HEARTBEAT, "{\"y\":2}"), lines);
+    }
+
+    private void append(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        framer.append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.conclave.models.PeripheralList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConclaveMessageDecoderTest {
+
+    private final ConclaveMessageDecoder decoder = new ConclaveMessageDecoder();
+
+    @Test
+    public void decodeAttrChange() throws IOException {
+        ConclaveEvent event = decoder.decode("{\"public\":{\"seq\":12,\"sessionId\":0,\"event\":\"attr_change\"," +
+                "\"data\":{\"id\":\"device-001\",\"requestId\":3,\"attribute\":{\"id\":100,\"value\":\"01\"}}}}");
+
+        assertEquals(ConclaveEvent.KEY_PUBLIC, event.key);
+        assertEquals(ConclaveEvent.EVENT_ATTR_CHANGE, event.event);
+        assertTrue(event.hasSeq);
+        assertEquals(12, event.seq);
+
+        DeviceSync ds = (DeviceSync)event.data;
+        assertEquals("device-001", ds.getDeviceId());
+        assertEquals(100, ds.attribute.id);
+        assertEquals("01", ds.attribute.value);
+        assertEquals(3, ds.requestId.intValue());
+    }
+
+    @Test
+    public void decodeDataBeforeEvent() throws IOException {
+        byte[] bytes = ("xx{\"Private\":{\"data\":{\"currentSeq\":7,\"peripherals\":[{\"id\":\"device-001\"},{\"id\":\"device-002\"}]}," +
+                "\"event\":\"PeripheralList\"}}yy").getBytes(StandardCharsets.UTF_8);
+        ConclaveEvent event = decoder.decode(bytes, 2, bytes.length - 4);
+
+        assertEquals(ConclaveEvent.KEY_PRIVATE, event.key);
+        assertEquals(ConclaveEvent.EVENT_PERIPHERAL_LIST, event.event);
+        assertFalse(event.hasSeq);
+
+        PeripheralList list = (PeripheralList)event.data;
+        assertEquals(7, list.currentSeq.intValue());
+        assertEquals(2, list.peripherals.length);
+        assertEquals("device-002", list.peripherals[1].getDeviceId());
+    }
+
+    @Test
+    public void decodeEnvelopes() throws IOException {
+        ConclaveEvent hello = decoder.decode("{\"hello\":{\"version\":\"1.0\",\"heartbeat\":30,\"bufferSize\":4096}}");
+        assertEquals(ConclaveEvent.KEY_HELLO, hello.key);
+        assertEquals(30, ((ConclaveMessage.HelloFields)hello.data).heartbeat);
+
+        ConclaveEvent welcome = decoder.decode("{\"welcome\":{\"sessionId\":5,\"generation\":99,\"seq\":4,\"accountId\":\"a\"}}");
+        assertEquals(ConclaveEvent.KEY_WELCOME, welcome.key);
+        assertEquals(99, ((ConclaveMessage.WelcomeFields)welcome.data).generation);
+        assertEquals(4, welcome.seq);
+
+        ConclaveEvent error = decoder.decode("{\"error\":{\"code\":906,\"message\":\"bad token\"}}");
+        assertEquals(ConclaveClient.ERROR_CODE_INVALID_TOKEN, ((ConclaveMessage.ErrorFields)error.data).code);
+    }
+
+    @Test
+    public void decodeUnknown() throws IOException {
+        ConclaveEvent event = decoder.decode("{\"public\":{\"event\":\"something:new\",\"data\":{\"a\":[1,2,{\"b\":3}]},\"seq\":2}}");
+        assertEquals("something:new", event.event);
+        assertEquals(2, event.seq);
+        assertNull(event.data);
+
+        event = decoder.decode("{\"join\":{\"sessionId\":1}}");
+        assertEquals("join", event.key);
+        assertNull(event.event);
+
+        assertNull(decoder.decode("[1,2,3]"));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConclaveOutboundQueueTest {
+
+    @Test
+    public void batchesAndFlushesOnce() throws IOException {
+        Tester t = new Tester(ConclaveOutboundQueue.CONTROL_RESERVE + 8);
+
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("a", null)));
+        assertTrue(t.queue.offer(ConclaveOutboundQueue.HEARTBEAT));
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("b", null)));
+
+        // only one drain is scheduled no matter how many messages are queued
+        assertEquals(1, t.tasks.size());
+        t.runTasks();
+
+        assertEquals("{\"say\":{\"event\":\"a\"}}\n\n{\"say\":{\"event\":\"b\"}}\n", t.written());
+        assertEquals(1, t.flushCount);
+        assertEquals(1, t.queue.getBatchCount());
+        assertEquals(3, t.queue.getMessageCount());
+    }
+
+    @Test
+    public void boundedCapacity() throws IOException {
+        Tester t = new Tester(ConclaveOutboundQueue.CONTROL_RESERVE + 2);
+
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("a", null)));
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("b", null)));
+        assertFalse(t.queue.offer(new ConclaveMessage.Say("c", null)));
+        assertEquals(1, t.queue.getDroppedCount());
+
+        t.runTasks();
+        assertEquals(0, t.queue.size());
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("d", null)));
+    }
+
+    @Test
+    public void controlMessagesUseReserve() throws IOException {
+        Tester t = new Tester(ConclaveOutboundQueue.CONTROL_RESERVE + 1);
+
+        assertTrue(t.queue.offer(new ConclaveMessage.Say("a", null)));
+        assertFalse(t.queue.offer(new ConclaveMessage.Say("b", null)));
+
+        for (int i = 0; i < ConclaveOutboundQueue.CONTROL_RESERVE; ++i) {
+            assertTrue(t.queue.offerControl(new ConclaveMessage.Bye()));
+        }
+        assertFalse(t.queue.offerControl(new ConclaveMessage.Bye()));
+        assertEquals(2, t.queue.getDroppedCount());
+
+        t.runTasks();
+        assertEquals(0, t.queue.size());
+        assertEquals(ConclaveOutboundQueue.CONTROL_RESERVE + 1, t.queue.getMessageCount());
+    }
+
+    @Test
+    public void dropsWhenNotConnected() throws IOException {
+        Tester t = new Tester(ConclaveOutboundQueue.CONTROL_RESERVE + 8);
+        t.connected = false;
+
+        t.queue.offer(new ConclaveMessage.Say("a", null));
+        t.runTasks();
+
+        assertEquals("", t.written());
+        assertEquals(1, t.queue.getDroppedCount());
+    }
+
+    private static class Tester implements Executor, ConclaveOutboundQueue.Transport {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ConclaveOutboundQueue queue;
+        boolean connected = true;
+        int flushCount;
+
+        final OutputStream stream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                bytes.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                bytes.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                ++flushCount;
+            }
+        };
+
+        Tester(int capacity) {
+            queue = new ConclaveOutboundQueue(capacity, this, this);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return connected ? stream : null;
+        }
+
+        @Override
+        public void onWriteError(IOException e) {
+            throw new AssertionError(e);
+        }
+
+        void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        String written() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.conclave;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.client.afero.models.ConclaveAccessDetails;
+import rx.functions.Action1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link NioConclaveClient} against a plain (non-SSL, uncompressed) socket on the loopback
+ * interface.
+ */
+public class NioConclaveClientTest {
+
+    private static final int TIMEOUT_SECONDS = 5;
+
+    private final LinkedBlockingQueue<ConclaveEvent> mEvents = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<ConclaveClient.Status> mStatuses = new LinkedBlockingQueue<>();
+
+    private ConclaveEventLoopGroup mEventLoopGroup;
+    private ServerSocket mServerSocket;
+    private NioConclaveClient mClient;
+
+    @Before
+    public void beforeTests() throws IOException {
+        mEventLoopGroup = new ConclaveEventLoopGroup(1);
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mServerSocket.setSoTimeout((int)TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        mClient = new NioConclaveClient(mEventLoopGroup);
+        mClient.setSSLEnabled(false);
+        mClient.setCompressionEnabled(false);
+
+        mClient.eventObservable().subscribe(new Action1<ConclaveEvent>() {
+            @Override
+            public void call(ConclaveEvent event) {
+                mEvents.add(event);
+            }
+        });
+        mClient.statusObservable().subscribe(new Action1<ConclaveClient.Status>() {
+            @Override
+            public void call(ConclaveClient.Status status) {
+                mStatuses.add(status);
+            }
+        });
+    }
+
+    @After
+    public void afterTests() throws IOException {
+        mClient.close();
+        mEventLoopGroup.shutdown();
+        mServerSocket.close();
+    }
+
+    @Test
+    public void connectReadsLinesWritesAndCloses() throws Exception {
+        Socket server = connect();
+        OutputStream out = server.getOutputStream();
+        BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+
+        assertTrue(mClient.isConnected());
+
+        // two complete lines in one write, then a line split across writes
+        send(out, "{\"hello\":{\"version\":\"1.0\",\"heartbeat\":0,\"bufferSize\":4096}}\n" +
+            "{\"welcome\":{\"sessionId\":7,\"generation\":1,\"seq\":2,\"accountId\":\"account-id\"}}\n" +
+            "{\"public\":{\"seq\":3,\"event\":\"test:ev");
+        send(out, "ent\",\"data\":{\"a\":1}}}\n");
+
+        assertEquals(ConclaveEvent.KEY_HELLO, nextEvent().key);
+        assertEquals(ConclaveEvent.KEY_WELCOME, nextEvent().key);
+        ConclaveEvent event = nextEvent();
+        assertEquals(ConclaveEvent.KEY_PUBLIC, event.key);
+        assertEquals(3, event.seq);
+        awaitStatus(ConclaveClient.Status.CONNECTED);
+
+        mClient.say("test", null);
+        assertEquals("{\"say\":{\"event\":\"test\"}}", in.readLine());
+
+        // an empty line from the server is a heartbeat, which the client echoes
+        send(out, "\n");
+        assertEquals("", in.readLine());
+
+        mClient.close();
+        awaitStatus(ConclaveClient.Status.DISCONNECTED);
+        assertNull(in.readLine());
+
+        server.close();
+    }
+
+    @Test
+    public void heartbeatTimeoutDropsConnectionAndReconnects() throws Exception {
+        mClient.setHeartbeatTimeoutExtra(0);
+
+        Socket server = connect();
+        send(server.getOutputStream(), "{\"hello\":{\"version\":\"1.0\",\"heartbeat\":1,\"bufferSize\":4096}}\n");
+        assertEquals(ConclaveEvent.KEY_HELLO, nextEvent().key);
+
+        // the server goes quiet for longer than the heartbeat interval
+        awaitStatus(ConclaveClient.Status.DISCONNECTED);
+
+        Socket reconnected = mServerSocket.accept();
+        assertNotNull(reconnected);
+
+        reconnected.close();
+        server.close();
+    }
+
+    private Socket connect() throws IOException {
+        ConclaveAccessDetails.ConclaveHost host = new ConclaveAccessDetails.ConclaveHost();
+        host.type = "socket";
+        host.host = "127.0.0.1";
+        host.port = mServerSocket.getLocalPort();
+
+        ConclaveAccessDetails cad = new ConclaveAccessDetails();
+        cad.conclaveHosts = new ConclaveAccessDetails.ConclaveHost[] { host };
+
+        // the listen backlog completes the TCP handshake before accept() is called
+        assertEquals(mClient, mClient.connect(cad).timeout(TIMEOUT_SECONDS, TimeUnit.SECONDS).toBlocking().first());
+
+        return mServerSocket.accept();
+    }
+
+    private ConclaveEvent nextEvent() throws InterruptedException {
+        ConclaveEvent event = mEvents.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+
+    private void awaitStatus(ConclaveClient.Status expected) throws InterruptedException {
+        ConclaveClient.Status status;
+        do {
+            status = mStatuses.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("timed out waiting for " + expected, status);
+        } while (status != expected);
+    }
+
+    private static void send(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
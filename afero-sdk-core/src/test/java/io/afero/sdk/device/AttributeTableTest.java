@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import io.afero.sdk.client.afero.models.AttributeValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AttributeTableTest {
+
+    @Test
+    public void emptyTable() {
+        AttributeTable table = new AttributeTable();
+
+        assertEquals(0, table.size());
+        assertEquals(-1, table.indexOf(100));
+    }
+
+    @Test
+    public void addIsIdempotent() {
+        AttributeTable table = new AttributeTable();
+
+        int index = table.add(100);
+        assertEquals(index, table.add(100));
+        assertEquals(index, table.indexOf(100));
+        assertEquals(1, table.size());
+        assertNull(table.getCurrentValue(index));
+        assertEquals(0, table.getUpdatedTime(index));
+    }
+
+    @Test
+    public void valuesSurviveGrowth() {
+        AttributeTable table = new AttributeTable();
+        AttributeValue[] values = new AttributeValue[500];
+
+        for (int i = 0; i < values.length; ++i) {
+            final int attrId = 1024 + i * 64;
+            values[i] = new AttributeValue(Integer.toString(i), AttributeValue.DataType.SINT32);
+
+            int index = table.add(attrId);
+            table.setCurrentValue(index, values[i]);
+            table.setUpdatedTime(index, i);
+            table.setExpectedUpdateTime(index, -i);
+        }
+
+        assertEquals(values.length, table.size());
+        assertEquals(-1, table.indexOf(1025));
+
+        for (int i = 0; i < values.length; ++i) {
+            int index = table.indexOf(1024 + i * 64);
+            assertEquals(i, index);
+            assertEquals(1024 + i * 64, table.getId(index));
+            assertSame(values[i], table.getCurrentValue(index));
+            assertEquals(i, table.getUpdatedTime(index));
+            assertEquals(-i, table.getExpectedUpdateTime(index));
+        }
+    }
+
+    @Test
+    public void setRawValueDiscardsDecodedValues() {
+        AttributeTable table = new AttributeTable();
+        int index = table.add(100);
+        table.setRawValue(index, "1");
+        table.setCurrentValue(index, new AttributeValue("1", AttributeValue.DataType.SINT8));
+        table.setPendingValue(index, new AttributeValue("2", AttributeValue.DataType.SINT8));
+
+        table.setRawValue(index, "3");
+
+        assertEquals("3", table.getRawValue(index));
+        assertNull(table.getCurrentValue(index));
+        assertNull(table.getPendingValue(index));
+    }
+
+    @Test
+    public void decodeOfReplacedRawValueIsNotMemoized() {
+        AttributeTable table = new AttributeTable();
+        int index = table.add(100);
+        table.setRawValue(index, "1");
+
+        // a reader decodes "1" while an update replaces it with "2"
+        String raw = table.getRawValue(index);
+        table.setRawValue(index, "2");
+        assertFalse(table.setCurrentValueIfRaw(index, raw, new AttributeValue(raw, AttributeValue.DataType.SINT8)));
+        assertNull(table.getCurrentValue(index));
+
+        raw = table.getRawValue(index);
+        AttributeValue decoded = new AttributeValue(raw, AttributeValue.DataType.SINT8);
+        assertTrue(table.setCurrentValueIfRaw(index, raw, decoded));
+        assertSame(decoded, table.getCurrentValue(index));
+    }
+
+    @Test
+    public void ensureCapacityKeepsEntries() {
+        AttributeTable table = new AttributeTable();
+        table.setPendingValue(table.add(-1), new AttributeValue("1", AttributeValue.DataType.BOOLEAN));
+        table.add(0);
+
+        table.ensureCapacity(200);
+
+        assertEquals(0, table.indexOf(-1));
+        assertEquals(1, table.indexOf(0));
+        assertEquals("true", table.getPendingValue(0).toString());
+    }
+
+    @Test
+    public void concurrentAddsDontLoseValues() throws Exception {
+        final int count = 2000;
+
+        // each round grows a fresh table while this thread sets and reads an existing entry
+        for (int round = 0; round < 200; ++round) {
+            final AttributeTable table = new AttributeTable();
+            final int first = table.add(1);
+
+            Thread adder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 2; i <= count; ++i) {
+                        table.add(i * 7);
+                    }
+                }
+            });
+            adder.start();
+
+            long time = 0;
+            while (adder.isAlive()) {
+                table.setUpdatedTime(first, ++time);
+                assertEquals(first, table.indexOf(1));
+                assertEquals(time, table.getUpdatedTime(first));
+            }
+            adder.join();
+
+            assertEquals(count, table.size());
+            assertEquals(time, table.getUpdatedTime(first));
+            for (int i = 2; i <= count; ++i) {
+                assertEquals(i - 1, table.indexOf(i * 7));
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ package io.afero.sdk.device;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
@@ -22,6 +23,7 @@ import io.afero.sdk.conclave.models.DeviceSync;
 import rx.Observable;
 import rx.Observer;
 import rx.functions.Action0;
+import rx.subjects.PublishSubject;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -267,6 +269,80 @@ public class AttributeWriterTest {
         ;
     }
 
+    @Test
+    public void testPipelinedAdaptiveBatches() throws Exception {
+        Tester tester = makeTester()
+                .pipeline(3, true);
+
+        for (int i = 1; i <= 9; ++i) {
+            tester.putAttribute(i * 100, Integer.toString(i));
+        }
+
+        tester.commit();
+
+        for (int i = 1; i <= 9; ++i) {
+            tester.deviceUpdate(i * 100, i, Integer.toString(i));
+        }
+
+        tester
+                .verifyNoError()
+                .verifyIsCompleted()
+                .verifyMultipleRequestsWereExecuted()
+                .verifyBatchCount(2)
+        ;
+
+        for (int i = 1; i <= 9; ++i) {
+            tester.verifyResultStatus(i * 100, AttributeWriter.Result.Status.SUCCESS);
+        }
+    }
+
+    @Test
+    public void testPipelinedBatchesWithRequestFailure() throws Exception {
+        Tester tester = makeTester()
+                .pipeline(2, false);
+
+        for (int i = 1; i <= 9; ++i) {
+            tester.putAttribute(i * 100, Integer.toString(i));
+        }
+
+        // the first batch is still in flight when the second one fails
+        PublishSubject<WriteResponse[]> firstBatch = PublishSubject.create();
+        tester.aferoClient.queuePostBatchAttributeWriteResponse(firstBatch);
+        tester.aferoClient.queuePostBatchAttributeWriteResponse(Observable.just(new WriteResponse[] {
+                makeWriteResponse(6, WriteResponse.STATUS_SUCCESS),
+                makeWriteResponse(7, WriteResponse.STATUS_FAILURE),
+                makeWriteResponse(8, WriteResponse.STATUS_NOT_ATTEMPTED),
+                makeWriteResponse(9, WriteResponse.STATUS_NOT_ATTEMPTED),
+        }));
+
+        tester.commit();
+
+        firstBatch.onNext(new WriteResponse[] {
+                makeWriteResponse(1, WriteResponse.STATUS_SUCCESS),
+                makeWriteResponse(2, WriteResponse.STATUS_SUCCESS),
+                makeWriteResponse(3, WriteResponse.STATUS_SUCCESS),
+                makeWriteResponse(4, WriteResponse.STATUS_SUCCESS),
+                makeWriteResponse(5, WriteResponse.STATUS_SUCCESS),
+        });
+        firstBatch.onCompleted();
+
+        for (int i = 1; i <= 6; ++i) {
+            tester.deviceUpdate(i * 100, i, Integer.toString(i));
+        }
+
+        tester
+                .verifyAttributeWriteFailure()
+                .verifyMultipleRequestsWereExecuted();
+
+        for (int i = 1; i <= 6; ++i) {
+            tester.verifyResultStatus(i * 100, AttributeWriter.Result.Status.SUCCESS);
+        }
+        tester
+                .verifyResultStatus(700, AttributeWriter.Result.Status.FAILURE)
+                .verifyResultStatus(800, AttributeWriter.Result.Status.NOT_ATTEMPTED)
+                .verifyResultStatus(900, AttributeWriter.Result.Status.NOT_ATTEMPTED);
+    }
+
     @Test
     public void testMultipleAttributesWithHubErrors() throws Exception {
         final int ATTR_ID_1 = 100;
@@ -328,6 +404,13 @@ public class AttributeWriterTest {
             return this;
         }
 
+        Tester pipeline(int maxBatchesInFlight, boolean adaptiveBatchSize) {
+            attributeWriter
+                .setMaxBatchesInFlight(maxBatchesInFlight)
+                .setAdaptiveBatchSize(adaptiveBatchSize);
+            return this;
+        }
+
         Tester commit() {
             if (postBatchAttributeWriteResponses != null) {
                 WriteResponse[] rr = new WriteResponse[postBatchAttributeWriteResponses.size()];
@@ -345,12 +428,7 @@ public class AttributeWriterTest {
                 postBatchAttributeWriteResponses = new ArrayList<>();
             }
 
-            WriteResponse wr = new WriteResponse();
-            wr.requestId = reqId;
-            wr.status = requestResponseStatus;
-            wr.timestampMs = System.currentTimeMillis();
-
-            postBatchAttributeWriteResponses.add(wr);
+            postBatchAttributeWriteResponses.add(makeWriteResponse(reqId, requestResponseStatus));
 
             return this;
         }
@@ -364,6 +442,11 @@ public class AttributeWriterTest {
             return this;
         }
 
+        Tester verifyBatchCount(long expected) {
+            assertEquals(expected, deviceModel.getWriteBatchStats().getBatchCount());
+            return this;
+        }
+
         Tester verifyIsCompleted() {
             assertTrue(isCompleted);
             return this;
@@ -454,12 +537,27 @@ public class AttributeWriterTest {
         }
     }
 
+    private static WriteResponse makeWriteResponse(int reqId, String requestResponseStatus) {
+        WriteResponse wr = new WriteResponse();
+        wr.requestId = reqId;
+        wr.status = requestResponseStatus;
+        wr.timestampMs = System.currentTimeMillis();
+        return wr;
+    }
+
     private static class TestMockAferoClient extends MockAferoClient {
         private int requestCount_postBatchAttributeWrite;
+        private final ArrayDeque<Observable<WriteResponse[]>> queuedResponses = new ArrayDeque<>();
+
+        // responses for the next requests, one per request, ahead of any set with setPostBatchAttributeWriteResponse
+        void queuePostBatchAttributeWriteResponse(Observable<WriteResponse[]> response) {
+            queuedResponses.add(response);
+        }
 
         @Override
         public Observable<WriteResponse[]> postBatchAttributeWrite(DeviceModel deviceModel, WriteRequest[] body, int maxRetryCount, int statusCode) {
-            return super.postBatchAttributeWrite(deviceModel, body, maxRetryCount, statusCode)
+            final Observable<WriteResponse[]> queued = queuedResponses.poll();
+            return (queued != null ? queued : super.postBatchAttributeWrite(deviceModel, body, maxRetryCount, statusCode))
                     .doOnSubscribe(new Action0() {
                         @Override
                         public void call() {
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import io.afero.sdk.client.afero.models.AttributeValue;
+import io.afero.sdk.client.mock.MockAferoClient;
+import io.afero.sdk.client.mock.ResourceLoader;
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.utils.RateLimiter;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+
+public class BulkAttributeWriterTest {
+
+    private static final int ATTR_ID = 100;
+
+    private final MockAferoClient mAferoClient = new MockAferoClient();
+    private final DeviceProfile mDeviceProfile;
+
+    public BulkAttributeWriterTest() throws IOException {
+        ResourceLoader resourceLoader = new ResourceLoader("writeAttributeOperation/");
+        mDeviceProfile = resourceLoader.createObjectFromJSONResource("deviceProfile.json", DeviceProfile.class);
+    }
+
+    @Test
+    public void writesEachDeviceAndSummarizes() {
+        DeviceModel device1 = new DeviceModel("bulk-1", mDeviceProfile, false, mAferoClient);
+        DeviceModel device2 = new DeviceModel("bulk-2", mDeviceProfile, false, mAferoClient);
+        DeviceModel noAttribute = new DeviceModel("bulk-3", new DeviceProfile(), false, mAferoClient);
+
+        BulkAttributeWriter writer = new BulkAttributeWriter(Arrays.asList(device1, noAttribute, device2), new RateLimiter(0, 1))
+            .setMaxConcurrentDevices(1)
+            .put(ATTR_ID, new AttributeValue("1", mDeviceProfile.getAttributeById(ATTR_ID).getDataType()));
+
+        TestSubscriber<BulkAttributeWriter.DeviceResult> results = new TestSubscriber<>();
+        TestSubscriber<BulkAttributeWriter.Summary> summaries = new TestSubscriber<>();
+        writer.getSummaryObservable().subscribe(summaries);
+        writer.commit().subscribe(results);
+
+        // with one device at a time, each write goes out after the previous device acknowledges
+        deviceUpdate(device1, 1);
+        deviceUpdate(device2, 2);
+
+        results.assertCompleted();
+        ArrayList<String> deviceIds = new ArrayList<>();
+        for (BulkAttributeWriter.DeviceResult result : results.getOnNextEvents()) {
+            assertEquals(AttributeWriter.Result.Status.SUCCESS, result.result.status);
+            deviceIds.add(result.deviceModel.getId());
+        }
+        assertEquals(Arrays.asList("bulk-1", "bulk-2"), deviceIds);
+
+        summaries.assertCompleted();
+        BulkAttributeWriter.Summary summary = summaries.getOnNextEvents().get(0);
+        assertEquals(3, summary.deviceCount);
+        assertEquals(2, summary.succeededDeviceCount);
+        assertEquals(0, summary.failedDeviceCount);
+        assertEquals(1, summary.skippedDeviceCount);
+        assertEquals(2, summary.successCount);
+    }
+
+    private void deviceUpdate(DeviceModel deviceModel, int requestId) {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId(deviceModel.getId());
+        ds.requestId = requestId;
+        ds.attribute = new DeviceSync.AttributeEntry(ATTR_ID, "1");
+        deviceModel.update(ds);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import io.afero.sdk.client.mock.MockAferoClient;
+import io.afero.sdk.conclave.ConclaveAccessManager;
+import io.afero.sdk.conclave.ConclaveClient;
+import io.afero.sdk.conclave.ConclaveEvent;
+import io.afero.sdk.conclave.ConclaveMessage;
+import io.afero.sdk.conclave.models.DeviceSync;
+import io.afero.sdk.conclave.models.PeripheralList;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConclaveDeviceEventSourceTest {
+
+    private static final long GENERATION = 42;
+
+    private final FakeConclaveClient mClient = new FakeConclaveClient();
+    private final ConclaveDeviceEventSource mEventSource =
+        new ConclaveDeviceEventSource(new ConclaveAccessManager(new MockAferoClient()), mClient);
+    private final ArrayList<DeviceSync[]> mSnapshots = new ArrayList<>();
+    private final ArrayList<DeviceSync> mAttributeChanges = new ArrayList<>();
+
+    @Before
+    public void beforeTests() {
+        mEventSource.setResumeEnabled(true);
+        mEventSource.observeSnapshot().subscribe(new Action1<DeviceSync[]>() {
+            @Override
+            public void call(DeviceSync[] deviceSyncs) {
+                mSnapshots.add(deviceSyncs);
+            }
+        });
+        mEventSource.observeAttributeChange().subscribe(new Action1<DeviceSync>() {
+            @Override
+            public void call(DeviceSync deviceSync) {
+                mAttributeChanges.add(deviceSync);
+            }
+        });
+        mEventSource.start("account-id", "user-id", "client-id", "mobile");
+
+        welcome(5);
+        snapshot(5);
+    }
+
+    @Test
+    public void resumeSkipsSnapshotWhenNoEventsWereMissed() {
+        attributeChange(6);
+        attributeChange(7);
+
+        welcome(7);
+        snapshot(7);
+
+        assertEquals(1, mSnapshots.size());
+        assertEquals(2, mAttributeChanges.size());
+        assertEquals(1, mEventSource.getResumedSessionCount());
+        assertEquals(0, mEventSource.getResyncedSessionCount());
+    }
+
+    @Test
+    public void reconnectAfterMissedEventsAppliesSnapshot() {
+        attributeChange(6);
+
+        welcome(9);
+        snapshot(9);
+
+        assertEquals(2, mSnapshots.size());
+        assertEquals(0, mEventSource.getResumedSessionCount());
+        assertEquals(1, mEventSource.getResyncedSessionCount());
+    }
+
+    @Test
+    public void gapRequestsOneSnapshot() {
+        attributeChange(8);
+        attributeChange(12);
+
+        assertEquals(1, mClient.mSaid.size());
+        assertEquals("snapshot?", mClient.mSaid.get(0));
+        assertEquals(1, mEventSource.getResyncedSessionCount());
+
+        snapshot(12);
+        assertEquals(2, mSnapshots.size());
+
+        // the snapshot repaired the gap, so the next one is detected again
+        attributeChange(15);
+        assertEquals(2, mClient.mSaid.size());
+    }
+
+    @Test
+    public void reconnectBeforeResyncSnapshotDoesNotResume() {
+        attributeChange(8);
+
+        // the sequence number matches, but the gap at 8 was never repaired
+        welcome(8);
+        snapshot(8);
+
+        assertEquals(2, mSnapshots.size());
+        assertEquals(0, mEventSource.getResumedSessionCount());
+        assertEquals(1, mEventSource.getResyncedSessionCount());
+
+        attributeChange(11);
+        assertEquals(2, mClient.mSaid.size());
+    }
+
+    @Test
+    public void droppedResyncRequestIsRetried() {
+        mClient.mIsQueueFull = true;
+        attributeChange(8);
+
+        assertEquals(1, mClient.mSaid.size());
+        assertEquals(0, mEventSource.getResyncedSessionCount());
+        assertEquals(1, mAttributeChanges.size());
+
+        mClient.mIsQueueFull = false;
+        attributeChange(9);
+
+        assertEquals(2, mClient.mSaid.size());
+        assertEquals(1, mEventSource.getResyncedSessionCount());
+    }
+
+    @Test
+    public void droppedLoginClosesSession() {
+        mClient.mIsQueueFull = true;
+        mClient.mEvents.onNext(new ConclaveEvent(ConclaveEvent.KEY_HELLO, null, 0, false, null));
+
+        assertEquals("login", mClient.mSaid.get(mClient.mSaid.size() - 1));
+        assertEquals(1, mClient.mCloseCount);
+    }
+
+    @Test
+    public void warmStartResumesSavedSession() throws IOException {
+        File file = Files.createTempFile("devices", ".snapshot").toFile();
+        try {
+            DeviceSync saved = new DeviceSync();
+            saved.setDeviceId("device-001");
+            saved.profileId = "profile-001";
+            new FileDeviceSnapshotStore(file).save(new DeviceSync[] { saved }, GENERATION, 7);
+
+            FakeConclaveClient client = new FakeConclaveClient();
+            ConclaveDeviceEventSource eventSource =
+                new ConclaveDeviceEventSource(new ConclaveAccessManager(new MockAferoClient()), client);
+            eventSource.setResumeEnabled(true);
+
+            DeviceCollection deviceCollection = new DeviceCollection(eventSource, new MockAferoClient("deviceCollection/"));
+            deviceCollection.setSnapshotStore(new FileDeviceSnapshotStore(file));
+            deviceCollection.start().subscribe(new TestSubscriber<DeviceCollection>());
+
+            TestSubscriber<DeviceSync[]> snapshots = new TestSubscriber<>();
+            eventSource.observeSnapshot().subscribe(snapshots);
+            eventSource.start("account-id", "user-id", "client-id", "mobile");
+
+            // the server is still on the generation and seq that were saved
+            welcome(client, GENERATION, 7);
+            snapshot(client, 7);
+
+            snapshots.assertNoValues();
+            assertEquals(1, eventSource.getResumedSessionCount());
+            assertEquals(0, eventSource.getResyncedSessionCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void welcome(int seq) {
+        welcome(mClient, GENERATION, seq);
+    }
+
+    private void snapshot(int seq) {
+        snapshot(mClient, seq);
+    }
+
+    private static void welcome(FakeConclaveClient client, long generation, int seq) {
+        ConclaveMessage.WelcomeFields welcome = new ConclaveMessage.WelcomeFields();
+        welcome.generation = generation;
+        welcome.seq = seq;
+        client.mEvents.onNext(new ConclaveEvent(ConclaveEvent.KEY_WELCOME, null, 0, false, welcome));
+    }
+
+    private static void snapshot(FakeConclaveClient client, int seq) {
+        PeripheralList peripheralList = new PeripheralList();
+        peripheralList.currentSeq = seq;
+        peripheralList.peripherals = new DeviceSync[0];
+        client.mEvents.onNext(new ConclaveEvent(ConclaveEvent.KEY_PRIVATE, ConclaveEvent.EVENT_PERIPHERAL_LIST, 0, false, peripheralList));
+    }
+
+    private void attributeChange(int seq) {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId("device-id");
+        ds.attribute = new DeviceSync.AttributeEntry(100, "01");
+        mClient.mEvents.onNext(new ConclaveEvent(ConclaveEvent.KEY_PUBLIC, ConclaveEvent.EVENT_ATTR_CHANGE, seq, true, ds));
+    }
+
+    private static class FakeConclaveClient extends ConclaveClient {
+        final PublishSubject<ConclaveEvent> mEvents = PublishSubject.create();
+        final ArrayList<String> mSaid = new ArrayList<>();
+        boolean mIsQueueFull;
+        int mCloseCount;
+
+        @Override
+        public Observable<ConclaveEvent> eventObservable() {
+            return mEvents;
+        }
+
+        @Override
+        public boolean login(String accountId, String userId, String mobileDeviceId, String token, String type, boolean trace) {
+            mSaid.add("login");
+            return !mIsQueueFull;
+        }
+
+        @Override
+        public boolean requestSnapshot() {
+            mSaid.add("snapshot?");
+            return !mIsQueueFull;
+        }
+
+        @Override
+        public synchronized void close() {
+            ++mCloseCount;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.afero.sdk.conclave.models.DeviceSync;
+import rx.functions.Action1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConflatingQueueTest {
+
+    private final ArrayList<Runnable> mTasks = new ArrayList<>();
+    private final ArrayList<DeviceSync> mDelivered = new ArrayList<>();
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+    };
+
+    private final ConflatingQueue<DeviceSync> mQueue = new ConflatingQueue<>(DeviceCollection.ATTRIBUTE_CHANGE_KEY, mExecutor,
+            new Action1<DeviceSync>() {
+                @Override
+                public void call(DeviceSync deviceSync) {
+                    mDelivered.add(deviceSync);
+                }
+            });
+
+    @Test
+    public void keepsLatestPerDeviceAttribute() {
+        DeviceSync a1 = makeSync("device-1", 100, "01", null);
+        DeviceSync b1 = makeSync("device-1", 200, "01", null);
+        DeviceSync a2 = makeSync("DEVICE-1", 100, "02", null);
+        DeviceSync c1 = makeSync("device-2", 100, "01", null);
+
+        mQueue.offer(a1);
+        mQueue.offer(b1);
+        mQueue.offer(a2);
+        mQueue.offer(c1);
+
+        assertEquals(1, mTasks.size());
+        assertEquals(3, mQueue.size());
+        assertEquals(1, mQueue.getConflatedCount());
+
+        runTasks();
+
+        assertEquals(3, mDelivered.size());
+        assertSame(b1, mDelivered.get(0));
+        assertSame(a2, mDelivered.get(1));
+        assertSame(c1, mDelivered.get(2));
+        assertEquals(3, mQueue.getDeliveredCount());
+    }
+
+    @Test
+    public void replacementIsNotDeliveredBeforeEarlierWriteResponse() {
+        DeviceSync u1 = makeSync("device-1", 100, "01", null);
+        DeviceSync r1 = makeSync("device-1", 100, "02", 1);
+        DeviceSync u2 = makeSync("device-1", 100, "03", null);
+
+        mQueue.offer(u1);
+        mQueue.offer(r1);
+        mQueue.offer(u2);
+
+        runTasks();
+
+        // u2 replaces u1 but must still be applied after r1, or the attribute ends up with r1's stale value
+        assertEquals(1, mQueue.getConflatedCount());
+        assertEquals(2, mDelivered.size());
+        assertSame(r1, mDelivered.get(0));
+        assertSame(u2, mDelivered.get(1));
+    }
+
+    @Test
+    public void neverConflatesWriteResponses() {
+        DeviceSync r1 = makeSync("device-1", 100, "01", 1);
+        DeviceSync r2 = makeSync("device-1", 100, "02", 2);
+        DeviceSync u1 = makeSync("device-1", 100, "03", null);
+
+        mQueue.offer(r1);
+        mQueue.offer(r2);
+        mQueue.offer(u1);
+
+        runTasks();
+
+        assertEquals(0, mQueue.getConflatedCount());
+        assertEquals(3, mDelivered.size());
+        assertSame(r1, mDelivered.get(0));
+        assertSame(r2, mDelivered.get(1));
+        assertSame(u1, mDelivered.get(2));
+    }
+
+    @Test
+    public void burstIsBoundedByKeyCount() {
+        for (int i = 0; i < 1000; ++i) {
+            mQueue.offer(makeSync("device-" + (i % 10), 100, Integer.toString(i), null));
+        }
+
+        assertEquals(10, mQueue.size());
+        assertEquals(990, mQueue.getConflatedCount());
+
+        runTasks();
+
+        assertEquals(10, mDelivered.size());
+        assertEquals("990", mDelivered.get(0).attribute.value);
+    }
+
+    @Test
+    public void countsUnkeyedBacklog() {
+        mQueue.offer(makeSync("device-1", 100, "01", 1));
+        mQueue.offer(makeSync("device-1", 100, "02", null));
+        mQueue.offer(makeSync("device-1", 100, "03", 2));
+
+        assertEquals(3, mQueue.size());
+        assertEquals(2, mQueue.getUnkeyedCount());
+
+        runTasks();
+
+        assertEquals(0, mQueue.getUnkeyedCount());
+    }
+
+    @Test
+    public void knowsWhenConsumerIsRunning() {
+        final ArrayList<Boolean> delivering = new ArrayList<>();
+        final AtomicReference<ConflatingQueue<DeviceSync>> queue = new AtomicReference<>();
+        queue.set(new ConflatingQueue<>(DeviceCollection.ATTRIBUTE_CHANGE_KEY, mExecutor,
+                new Action1<DeviceSync>() {
+                    @Override
+                    public void call(DeviceSync deviceSync) {
+                        delivering.add(queue.get().isDeliveringOnCurrentThread());
+                    }
+                }));
+
+        queue.get().offer(makeSync("device-1", 100, "01", null));
+        assertFalse(queue.get().isDeliveringOnCurrentThread());
+
+        runTasks();
+
+        assertEquals(1, delivering.size());
+        assertTrue(delivering.get(0));
+        assertFalse(queue.get().isDeliveringOnCurrentThread());
+    }
+
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.remove(0).run();
+        }
+    }
+
+    private static DeviceSync makeSync(String deviceId, int attrId, String value, Integer requestId) {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId(deviceId);
+        ds.attribute = new DeviceSync.AttributeEntry(attrId, value);
+        ds.requestId = requestId;
+        return ds;
+    }
+}
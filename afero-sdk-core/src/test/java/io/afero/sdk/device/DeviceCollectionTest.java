@@ -7,6 +7,8 @@ package io.afero.sdk.device;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Vector;
 
 import io.afero.sdk.client.mock.MockAferoClient;
@@ -16,6 +18,7 @@ import io.afero.sdk.conclave.models.DeviceSync;
 import io.afero.sdk.conclave.models.InvalidateMessage;
 import rx.Observer;
 import rx.functions.Action1;
+import rx.subjects.PublishSubject;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -277,16 +280,85 @@ public class DeviceCollectionTest {
                 ;
     }
 
+    @Test
+    public void startRestoresSnapshotStoreAndReconciles() throws Exception {
+        newWarmStartDeviceCollectionTester()
+                .snapshotStoreSave(
+                        makeDeviceSync("device-001", "profile-001", "stale-name"),
+                        makeDeviceSync("device-002", "profile-002", "device-name-002"))
+                .deviceCollectionObserveDeletes()
+                .deviceCollectionObserveSnapshotDiffs()
+                .deviceCollectionStartWithPendingConnect()
+
+                // restored from the store before the service has responded
+                .verifyGetCountReturnsExpectedCount(2)
+                .verifyDeviceHasName("device-001", "stale-name")
+                .verifyGetDeviceReturnsNonNull("device-002")
+
+                // getDevicesWithState only knows device-001, under its current name
+                .eventSourceConnect()
+                .verifyGetCountReturnsExpectedCount(1)
+                .verifyDeviceHasName("device-001", "device-name")
+                .verifyGetDeviceReturnsNull("device-002")
+                .verifyObservedDeleteCount(1)
+                .verifyObservedSnapshotDiff(0, 1, 1)
+                ;
+    }
+
+    @Test
+    public void newGenerationReplacesSavedSequence() throws Exception {
+        DeviceSync saved = makeDeviceSync("device-001", "profile-001", "device-name");
+        newWarmStartDeviceCollectionTester()
+                .snapshotStoreSave(7, 100, saved)
+                .deviceCollectionStart()
+
+                // the server restarted, so the new generation's seq starts low again
+                .deviceEventSourceAttributeChange("device-001", 100, "2A", 8, 3)
+                .deviceCollectionStop()
+                .verifySnapshotStoreSequence(8, 3)
+                ;
+    }
+
+    @Test
+    public void startAppliesBufferedEventsAfterDeviceList() throws Exception {
+        newDeviceCollectionTester()
+                .deviceCollectionStartWithPendingConnect()
+
+                // arrives while start is still waiting for the event source to connect
+                .deviceEventSourceAttributeChange("device-001", 100, "2A")
+                .verifyGetCountReturnsExpectedCount(0)
+
+                // the device list is applied first, then the held back event on top of it
+                .eventSourceConnect()
+                .verifyGetCountReturnsExpectedCount(1)
+                .verifyAttributeValue("device-001", 100, 42)
+                ;
+    }
+
 
     private DeviceCollectionTester newDeviceCollectionTester() {
         return new DeviceCollectionTester();
     }
 
+    private DeviceCollectionTester newWarmStartDeviceCollectionTester() throws IOException {
+        return new DeviceCollectionTester(true);
+    }
+
+    private static DeviceSync makeDeviceSync(String deviceId, String profileId, String friendlyName) {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId(deviceId);
+        ds.profileId = profileId;
+        ds.friendlyName = friendlyName;
+        return ds;
+    }
+
     private static class DeviceCollectionTester {
         static final String PATH_PREFIX = "deviceCollection/";
         final ResourceLoader resourceLoader = new ResourceLoader(PATH_PREFIX);
         final MockAferoClient aferoClient = new MockAferoClient(PATH_PREFIX);
         final MockDeviceEventSource deviceEventSource = new MockDeviceEventSource();
+        final MemorySnapshotStore snapshotStore = new MemorySnapshotStore();
+        final PublishSubject<Boolean> eventSourceConnect = PublishSubject.create();
         final DeviceCollection deviceCollection;
 
         Throwable thrown;
@@ -296,11 +368,20 @@ public class DeviceCollectionTest {
         RecordObserver<DeviceModel> deleteObserver = new RecordObserver<>();
         RecordObserver<DeviceCollection> snapshotObserver = new RecordObserver<>();
         RecordObserver<DeviceModel> profileChangeObserver = new RecordObserver<>();
+        RecordObserver<DeviceCollectionDiff> snapshotDiffObserver = new RecordObserver<>();
 
         DeviceCollectionTester() {
             deviceCollection = new DeviceCollection(deviceEventSource, aferoClient);
         }
 
+        // profiles and devices are kept in memory stores, as they would be across app launches
+        DeviceCollectionTester(boolean useStores) throws IOException {
+            MemoryProfileStore profileStore = new MemoryProfileStore(
+                    resourceLoader.createObjectFromJSONResource("getAccountDeviceProfiles.json", DeviceProfile[].class));
+            deviceCollection = new DeviceCollection(deviceEventSource, aferoClient, profileStore);
+            deviceCollection.setSnapshotStore(snapshotStore);
+        }
+
         DeviceCollectionTester deviceCollectionStart() {
             deviceCollection.start().subscribe(new Observer<DeviceCollection>() {
                 @Override
@@ -321,6 +402,26 @@ public class DeviceCollectionTest {
             return this;
         }
 
+        DeviceCollectionTester deviceCollectionStartWithPendingConnect() {
+            deviceCollection.start(eventSourceConnect).subscribe(new Observer<DeviceCollection>() {
+                @Override
+                public void onCompleted() {
+
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    thrown = e;
+                }
+
+                @Override
+                public void onNext(DeviceCollection deviceCollection) {
+
+                }
+            });
+            return this;
+        }
+
         DeviceCollectionTester deviceCollectionStartWithNoDevices() {
             aferoClient.setFileGetDevices("getDevicesEmpty.json");
             deviceCollection.start().subscribe(new Observer<DeviceCollection>() {
@@ -509,6 +610,40 @@ public class DeviceCollectionTest {
             return this;
         }
 
+        DeviceCollectionTester deviceCollectionObserveSnapshotDiffs() {
+            deviceCollection.observeSnapshotDiffs()
+                .subscribe(snapshotDiffObserver);
+            return this;
+        }
+
+        DeviceCollectionTester snapshotStoreSave(DeviceSync... deviceSyncs) {
+            return snapshotStoreSave(0, 0, deviceSyncs);
+        }
+
+        DeviceCollectionTester snapshotStoreSave(long generation, int seq, DeviceSync... deviceSyncs) {
+            snapshotStore.save(deviceSyncs, generation, seq);
+            return this;
+        }
+
+        DeviceCollectionTester eventSourceConnect() {
+            eventSourceConnect.onNext(Boolean.TRUE);
+            return this;
+        }
+
+        DeviceCollectionTester deviceEventSourceAttributeChange(String deviceId, int attributeId, String value) {
+            return deviceEventSourceAttributeChange(deviceId, attributeId, value, 0, 0);
+        }
+
+        DeviceCollectionTester deviceEventSourceAttributeChange(String deviceId, int attributeId, String value, long generation, int seq) {
+            DeviceSync ds = new DeviceSync();
+            ds.setDeviceId(deviceId);
+            ds.attribute = new DeviceSync.AttributeEntry(attributeId, value);
+            ds.generation = generation;
+            ds.seq = seq;
+            deviceEventSource.putAttributeChanges(ds);
+            return this;
+        }
+
         DeviceCollectionTester deviceEventSourceSnapshot() throws IOException {
             return deviceEventSourceSnapshot("snapshot1");
         }
@@ -579,6 +714,27 @@ public class DeviceCollectionTest {
             return this;
         }
 
+        DeviceCollectionTester verifySnapshotStoreSequence(long generation, int seq) {
+            assertTrue(snapshotStore.mDeviceSyncs.length > 0);
+            assertEquals(generation, snapshotStore.mDeviceSyncs[0].generation);
+            assertEquals(seq, snapshotStore.mDeviceSyncs[0].seq);
+            return this;
+        }
+
+        DeviceCollectionTester verifyDeviceHasName(String deviceId, String name) {
+            DeviceModel deviceModel = deviceCollection.getDevice(deviceId);
+            assertNotNull(deviceModel);
+            assertEquals(name, deviceModel.getName());
+            return this;
+        }
+
+        DeviceCollectionTester verifyAttributeValue(String deviceId, int attributeId, long expectedValue) {
+            DeviceModel deviceModel = deviceCollection.getDevice(deviceId);
+            assertNotNull(deviceModel);
+            assertEquals(expectedValue, deviceModel.getAttributeCurrentValue(deviceModel.getAttributeById(attributeId)).longValue());
+            return this;
+        }
+
         DeviceCollectionTester verifyGetDeviceReturnsNull(String deviceId) {
             assertNull(deviceCollection.getDevice(deviceId));
             return this;
@@ -604,6 +760,15 @@ public class DeviceCollectionTest {
             return this;
         }
 
+        DeviceCollectionTester verifyObservedSnapshotDiff(int expectedAdded, int expectedChanged, int expectedRemoved) {
+            assertEquals(1, snapshotDiffObserver.onNextList.size());
+            DeviceCollectionDiff diff = snapshotDiffObserver.onNextList.get(0);
+            assertEquals(expectedAdded, diff.getAdded().size());
+            assertEquals(expectedChanged, diff.getChanged().size());
+            assertEquals(expectedRemoved, diff.getRemoved().size());
+            return this;
+        }
+
         class RecordObserver<T> implements Observer<T> {
 
             final Vector<T> onNextList = new Vector<>();
@@ -625,4 +790,47 @@ public class DeviceCollectionTest {
         }
 
     }
-}
\ No newline at end of file
+
+    private static class MemorySnapshotStore implements DeviceSnapshotStore {
+        DeviceSync[] mDeviceSyncs = new DeviceSync[0];
+
+        @Override
+        public DeviceSync[] load() {
+            return mDeviceSyncs;
+        }
+
+        @Override
+        public void save(DeviceSync[] deviceSyncs, long generation, int seq) {
+            for (DeviceSync ds : deviceSyncs) {
+                ds.generation = generation;
+                ds.seq = seq;
+            }
+            mDeviceSyncs = deviceSyncs;
+        }
+    }
+
+    private static class MemoryProfileStore implements DeviceProfileStore {
+        final HashMap<String, DeviceProfile> mProfiles = new HashMap<>();
+
+        MemoryProfileStore(DeviceProfile[] profiles) {
+            for (DeviceProfile profile : profiles) {
+                mProfiles.put(profile.getId(), profile);
+            }
+        }
+
+        @Override
+        public Collection<DeviceProfile> loadAll() {
+            return mProfiles.values();
+        }
+
+        @Override
+        public boolean put(DeviceProfile profile) {
+            return mProfiles.put(profile.getId(), profile) == null;
+        }
+
+        @Override
+        public void remove(String profileId) {
+            mProfiles.remove(profileId);
+        }
+    }
+}
@@ -109,6 +109,42 @@ public class DeviceModelTest extends AferoTest {
         testAttribute(dm, a700, "string-value");
     }
 
+    @Test
+    public void testUpdateReportsOnlyChanges() throws IOException {
+        DeviceProfile dp = loadDeviceProfile(PATH_PREFIX + "deviceModelTestProfile.json");
+        DeviceModel dm = new DeviceModel(DEVICE_ID, dp, false, null);
+
+        assertTrue(dm.update(loadDeviceSync(PATH_PREFIX + "deviceSync.json")));
+        assertFalse(dm.update(loadDeviceSync(PATH_PREFIX + "deviceSync.json")));
+
+        DeviceSync ds = loadDeviceSync(PATH_PREFIX + "deviceSync.json");
+        ds.attributes[1].value = "54321";
+        assertTrue(dm.update(ds));
+        testAttribute(dm, dp.getAttributeById(200), new BigDecimal(54321));
+
+        ds = loadDeviceSync(PATH_PREFIX + "deviceSync.json");
+        ds.attributes = null;
+        ds.friendlyName = "new-name";
+        assertTrue(dm.update(ds));
+        assertFalse(dm.update(ds));
+    }
+
+    @Test
+    public void testValuesForUnknownIdsSurviveProfileChange() throws IOException {
+        // profile-001 only defines attribute 100
+        DeviceModel dm = new DeviceModel(DEVICE_ID, loadDeviceProfile(PATH_PREFIX + "getDeviceProfile/profile-001.json"), false, null);
+        dm.update(loadDeviceSync(PATH_PREFIX + "deviceSync.json"));
+
+        assertNull(dm.getAttributeById(200));
+        assertEquals(9, dm.toDeviceSync().attributes.length);
+
+        DeviceProfile dp = loadDeviceProfile(PATH_PREFIX + "deviceModelTestProfile.json");
+        dm.setProfile(dp);
+
+        testAttribute(dm, dp.getAttributeById(200), new BigDecimal(12345));
+        testAttribute(dm, dp.getAttributeById(700), "string-value");
+    }
+
     private void testAttribute(DeviceModel dm, DeviceProfile.Attribute attribute, BigDecimal expected) {
         AttributeValue av = dm.getAttributePendingValue(attribute);
         BigDecimal actual = av != null ? av.numericValue() : null;
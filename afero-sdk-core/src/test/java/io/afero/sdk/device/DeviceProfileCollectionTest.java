@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import io.afero.sdk.client.mock.MockAferoClient;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DeviceProfileCollectionTest {
+
+    private final TestAferoClient mAferoClient = new TestAferoClient();
+    private final DeviceProfileCollection mProfileCollection = new DeviceProfileCollection(mAferoClient);
+
+    @Test
+    public void concurrentProfileFetchesShareOneRequest() {
+        PublishSubject<DeviceProfile> response = PublishSubject.create();
+        mAferoClient.mProfileResponse = response;
+
+        TestSubscriber<DeviceProfile> first = new TestSubscriber<>();
+        TestSubscriber<DeviceProfile> second = new TestSubscriber<>();
+        mProfileCollection.fetchDeviceProfile("profile-1").subscribe(first);
+        mProfileCollection.fetchDeviceProfile("profile-1").subscribe(second);
+
+        DeviceProfile profile = makeProfile("profile-1");
+        response.onNext(profile);
+        response.onCompleted();
+
+        assertEquals(Arrays.asList("profile-1"), mAferoClient.mProfileRequests);
+        assertSame(profile, first.getOnNextEvents().get(0));
+        assertSame(profile, second.getOnNextEvents().get(0));
+        assertSame(profile, mProfileCollection.getProfileFromID("profile-1"));
+    }
+
+    @Test
+    public void concurrentAccountFetchesShareOneRequest() {
+        PublishSubject<DeviceProfile[]> response = PublishSubject.create();
+        mAferoClient.mAccountResponse = response;
+
+        TestSubscriber<DeviceProfile[]> first = new TestSubscriber<>();
+        TestSubscriber<DeviceProfile[]> second = new TestSubscriber<>();
+        mProfileCollection.fetchAccountProfiles().subscribe(first);
+        mProfileCollection.fetchAccountProfiles().subscribe(second);
+
+        response.onNext(new DeviceProfile[] { makeProfile("profile-1") });
+        response.onCompleted();
+
+        assertEquals(1, mAferoClient.mAccountRequestCount);
+        first.assertCompleted();
+        second.assertCompleted();
+    }
+
+    @Test
+    public void fewMissingProfilesAreFetchedIndividually() {
+        List<String> ids = makeIds(DeviceProfileCollection.ACCOUNT_FETCH_THRESHOLD - 1);
+
+        TestSubscriber<DeviceProfile> subscriber = new TestSubscriber<>();
+        mProfileCollection.fetchMissingProfiles(ids).subscribe(subscriber);
+
+        subscriber.assertCompleted();
+        assertEquals(ids.size(), subscriber.getOnNextEvents().size());
+        assertEquals(0, mAferoClient.mAccountRequestCount);
+        assertEquals(new HashSet<>(ids), new HashSet<>(mAferoClient.mProfileRequests));
+    }
+
+    @Test
+    public void manyMissingProfilesUseOneAccountFetch() {
+        List<String> ids = makeIds(DeviceProfileCollection.ACCOUNT_FETCH_THRESHOLD);
+
+        // the account doesn't know about the last one, so it's fetched on its own
+        DeviceProfile[] accountProfiles = new DeviceProfile[ids.size() - 1];
+        for (int i = 0; i < accountProfiles.length; ++i) {
+            accountProfiles[i] = makeProfile(ids.get(i));
+        }
+        mAferoClient.mAccountResponse = Observable.just(accountProfiles);
+
+        TestSubscriber<DeviceProfile> subscriber = new TestSubscriber<>();
+        mProfileCollection.fetchMissingProfiles(ids).subscribe(subscriber);
+
+        subscriber.assertCompleted();
+        assertEquals(ids.size(), subscriber.getOnNextEvents().size());
+        assertEquals(1, mAferoClient.mAccountRequestCount);
+        assertEquals(Arrays.asList(ids.get(ids.size() - 1)), mAferoClient.mProfileRequests);
+    }
+
+    @Test
+    public void failedAccountFetchFallsBackToIndividualFetches() {
+        List<String> ids = makeIds(DeviceProfileCollection.ACCOUNT_FETCH_THRESHOLD);
+        mAferoClient.mAccountResponse = Observable.error(new IOException("account profiles unavailable"));
+
+        TestSubscriber<DeviceProfile> subscriber = new TestSubscriber<>();
+        mProfileCollection.fetchMissingProfiles(ids).subscribe(subscriber);
+
+        subscriber.assertNoErrors();
+        subscriber.assertCompleted();
+        assertEquals(ids.size(), subscriber.getOnNextEvents().size());
+        assertEquals(new HashSet<>(ids), new HashSet<>(mAferoClient.mProfileRequests));
+        for (String id : ids) {
+            assertEquals(id, mProfileCollection.getProfileFromID(id).getId());
+        }
+    }
+
+    private static List<String> makeIds(int count) {
+        ArrayList<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ids.add("profile-" + i);
+        }
+        return ids;
+    }
+
+    private static DeviceProfile makeProfile(String profileId) {
+        DeviceProfile profile = new DeviceProfile();
+        profile.setId(profileId);
+        return profile;
+    }
+
+    private static class TestAferoClient extends MockAferoClient {
+        final ArrayList<String> mProfileRequests = new ArrayList<>();
+        int mAccountRequestCount;
+        Observable<DeviceProfile> mProfileResponse;
+        Observable<DeviceProfile[]> mAccountResponse;
+
+        @Override
+        public Observable<DeviceProfile> getDeviceProfile(String profileId) {
+            mProfileRequests.add(profileId);
+            return mProfileResponse != null ? mProfileResponse : Observable.just(makeProfile(profileId));
+        }
+
+        @Override
+        public Observable<DeviceProfile[]> getAccountDeviceProfiles() {
+            ++mAccountRequestCount;
+            return mAccountResponse;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import io.afero.sdk.utils.RetryBudget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceWriteLimiterTest {
+
+    @Test
+    public void rateIsMultiplicativeDecreaseAdditiveIncrease() {
+        DeviceWriteLimiter limiter = new DeviceWriteLimiter(new RetryBudget(0.2, 10));
+        assertEquals(DeviceWriteLimiter.MAX_RATE, limiter.getRate(), 0);
+
+        limiter.onLocked();
+        limiter.onLocked();
+        assertEquals(DeviceWriteLimiter.MAX_RATE / 4, limiter.getRate(), 0);
+        assertEquals(2, limiter.getLockedCount());
+
+        limiter.onSuccess();
+        assertEquals(DeviceWriteLimiter.MAX_RATE / 4 + 0.5, limiter.getRate(), 0);
+
+        for (int i = 0; i < 100; ++i) {
+            limiter.onLocked();
+        }
+        assertEquals(DeviceWriteLimiter.MIN_RATE, limiter.getRate(), 0);
+
+        for (int i = 0; i < 100; ++i) {
+            limiter.onSuccess();
+        }
+        assertEquals(DeviceWriteLimiter.MAX_RATE, limiter.getRate(), 0);
+    }
+
+    @Test
+    public void retriesShareBudget() {
+        RetryBudget budget = new RetryBudget(0.2, 1);
+        DeviceWriteLimiter limiter1 = new DeviceWriteLimiter(budget);
+        DeviceWriteLimiter limiter2 = new DeviceWriteLimiter(budget);
+
+        long delay = limiter1.reserveRetry(1);
+        assertTrue(delay >= 500 && delay <= 1000);
+        assertEquals(-1, limiter2.reserveRetry(1));
+    }
+}
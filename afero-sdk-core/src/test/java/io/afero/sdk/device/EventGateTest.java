@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import rx.functions.Action1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventGateTest {
+
+    private final EventGate mGate = new EventGate();
+    private final ArrayList<String> mDelivered = new ArrayList<>();
+
+    private final Action1<String> mAction = mGate.wrap(new Action1<String>() {
+        @Override
+        public void call(String s) {
+            mDelivered.add(s);
+        }
+    });
+
+    @Test
+    public void passesThroughWhenOpen() {
+        assertTrue(mGate.isOpen());
+
+        mAction.call("a");
+
+        assertEquals(1, mDelivered.size());
+        assertEquals(0, mGate.open());
+    }
+
+    @Test
+    public void replaysInOrderWhenOpened() {
+        mGate.close();
+        mAction.call("a");
+        mAction.call("b");
+
+        assertFalse(mGate.isOpen());
+        assertTrue(mDelivered.isEmpty());
+
+        assertEquals(2, mGate.open());
+        assertEquals("a", mDelivered.get(0));
+        assertEquals("b", mDelivered.get(1));
+
+        mAction.call("c");
+        assertEquals("c", mDelivered.get(2));
+    }
+
+    @Test
+    public void eventsDuringReplayFollowTheReplay() {
+        final ArrayList<String> delivered = new ArrayList<>();
+        final Action1<String>[] action = new Action1[1];
+        action[0] = mGate.wrap(new Action1<String>() {
+            @Override
+            public void call(String s) {
+                delivered.add(s);
+                if (s.equals("a")) {
+                    action[0].call("c");
+                }
+            }
+        });
+
+        mGate.close();
+        action[0].call("a");
+        action[0].call("b");
+
+        assertEquals(3, mGate.open());
+        assertEquals("a", delivered.get(0));
+        assertEquals("b", delivered.get(1));
+        assertEquals("c", delivered.get(2));
+    }
+
+    @Test
+    public void discardDropsQueuedEvents() {
+        mGate.close();
+        mAction.call("a");
+        mGate.discard();
+
+        assertTrue(mGate.isOpen());
+        assertEquals(0, mGate.open());
+        assertTrue(mDelivered.isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileDeviceProfileStoreTest {
+
+    private File mDirectory;
+
+    @Before
+    public void before() throws Exception {
+        mDirectory = Files.createTempDirectory("profiles").toFile();
+    }
+
+    @After
+    public void after() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DeviceProfile profile = loadProfile();
+
+        FileDeviceProfileStore store = new FileDeviceProfileStore(mDirectory);
+        assertTrue(store.loadAll().isEmpty());
+        assertTrue(store.put(profile));
+        assertFalse(store.put(loadProfile()));
+
+        Collection<DeviceProfile> loaded = new FileDeviceProfileStore(mDirectory).loadAll();
+        assertEquals(1, loaded.size());
+
+        DeviceProfile restored = loaded.iterator().next();
+        assertEquals(profile.getId(), restored.getId());
+        assertEquals(profile.getDeviceType(), restored.getDeviceType());
+        assertEquals(1, restored.getServiceCount());
+        assertEquals("Power", restored.getAttributeById(200).getLabel());
+        assertTrue(restored.hasWritableAttributes());
+        assertNotNull(restored.getPresentation(null));
+        assertEquals(2, restored.getPresentation(null).getGroupCount());
+    }
+
+    @Test
+    public void loadedDigestsSkipUnchangedWrites() throws Exception {
+        new FileDeviceProfileStore(mDirectory).put(loadProfile());
+
+        FileDeviceProfileStore store = new FileDeviceProfileStore(mDirectory);
+        store.loadAll();
+        assertFalse(store.put(loadProfile()));
+
+        store.remove(loadProfile().getId());
+        assertTrue(new FileDeviceProfileStore(mDirectory).loadAll().isEmpty());
+    }
+
+    @Test
+    public void corruptFilesAreDiscarded() throws Exception {
+        File file = new File(mDirectory, "bogus.profile1");
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write("{not json".getBytes("UTF-8"));
+        }
+
+        assertTrue(new FileDeviceProfileStore(mDirectory).loadAll().isEmpty());
+        assertFalse(file.exists());
+    }
+
+    private DeviceProfile loadProfile() throws Exception {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("profile.json");
+        return new ObjectMapper().readValue(is, DeviceProfile.class);
+    }
+}
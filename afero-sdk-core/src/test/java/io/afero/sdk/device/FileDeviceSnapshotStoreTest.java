@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import io.afero.sdk.client.afero.models.DeviceStatus;
+import io.afero.sdk.client.afero.models.DeviceTag;
+import io.afero.sdk.conclave.models.DeviceSync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileDeviceSnapshotStoreTest {
+
+    private File mFile;
+
+    @Before
+    public void before() throws Exception {
+        mFile = Files.createTempFile("devices", ".snapshot").toFile();
+        mFile.delete();
+    }
+
+    @After
+    public void after() {
+        mFile.delete();
+    }
+
+    @Test
+    public void loadWithoutFile() {
+        assertEquals(0, new FileDeviceSnapshotStore(mFile).load().length);
+    }
+
+    @Test
+    public void roundTrip() {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId("device-001");
+        ds.profileId = "profile-001";
+        ds.friendlyName = "Lamp \u00e9";
+        ds.virtual = true;
+        ds.createdTimestamp = 1234567890123L;
+        ds.status = new DeviceStatus();
+        ds.status.available = false;
+        ds.status.linked = true;
+        ds.status.rssi = -55;
+        ds.timezone = ds.new DeviceTimeZone();
+        ds.timezone.timezone = "America/Los_Angeles";
+        ds.deviceTags = new DeviceTag[] { new DeviceTag("room", "kitchen") };
+        ds.attributes = new DeviceSync.AttributeEntry[] {
+                new DeviceSync.AttributeEntry(100, "01"),
+                new DeviceSync.AttributeEntry(200, null),
+        };
+        ds.attributes[0].updatedTimestamp = 42;
+
+        DeviceSync bare = new DeviceSync();
+        bare.setDeviceId("device-002");
+
+        new FileDeviceSnapshotStore(mFile).save(new DeviceSync[] { ds, bare }, 1234567890123L, 77);
+
+        DeviceSync[] loaded = new FileDeviceSnapshotStore(mFile).load();
+        assertEquals(2, loaded.length);
+
+        DeviceSync r = loaded[0];
+        assertEquals(1234567890123L, r.generation);
+        assertEquals(77, r.seq);
+        assertEquals("device-001", r.getDeviceId());
+        assertEquals("profile-001", r.profileId);
+        assertEquals("Lamp \u00e9", r.friendlyName);
+        assertTrue(r.virtual);
+        assertEquals(1234567890123L, r.createdTimestamp);
+        assertFalse(r.status.available);
+        assertTrue(r.status.linked);
+        assertFalse(r.status.direct);
+        assertEquals(-55, r.status.rssi.intValue());
+        assertEquals("America/Los_Angeles", r.timezone.timezone);
+        assertEquals(1, r.deviceTags.length);
+        assertEquals("room", r.deviceTags[0].key);
+        assertEquals("kitchen", r.deviceTags[0].value);
+        assertEquals(2, r.attributes.length);
+        assertEquals(100, r.attributes[0].id);
+        assertEquals("01", r.attributes[0].value);
+        assertEquals(42, r.attributes[0].updatedTimestamp);
+        assertNull(r.attributes[1].value);
+
+        DeviceSync b = loaded[1];
+        assertEquals("device-002", b.getDeviceId());
+        assertNull(b.profileId);
+        assertNull(b.status);
+        assertNull(b.timezone);
+        assertNull(b.deviceTags);
+        assertNull(b.attributes);
+    }
+
+    @Test
+    public void corruptFileIsIgnored() throws Exception {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId("device-001");
+        new FileDeviceSnapshotStore(mFile).save(new DeviceSync[] { ds }, 1, 1);
+
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.seek(20);
+            raf.write(0x55);
+        }
+
+        assertEquals(0, new FileDeviceSnapshotStore(mFile).load().length);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import io.afero.sdk.client.afero.models.DeviceStatus;
+import io.afero.sdk.conclave.models.DeviceSync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class SnapshotReconcilerTest {
+
+    @Test
+    public void fingerprintIsStableForEqualSyncs() {
+        assertEquals(SnapshotReconciler.fingerprint(makeSync("01")), SnapshotReconciler.fingerprint(makeSync("01")));
+    }
+
+    @Test
+    public void fingerprintChangesWithState() {
+        final long base = SnapshotReconciler.fingerprint(makeSync("01"));
+
+        assertNotEquals(base, SnapshotReconciler.fingerprint(makeSync("02")));
+
+        DeviceSync ds = makeSync("01");
+        ds.status.available = false;
+        assertNotEquals(base, SnapshotReconciler.fingerprint(ds));
+
+        ds = makeSync("01");
+        ds.friendlyName = "Lamp";
+        assertNotEquals(base, SnapshotReconciler.fingerprint(ds));
+
+        ds = makeSync("01");
+        ds.attributes[1].updatedTimestamp = 1;
+        assertNotEquals(base, SnapshotReconciler.fingerprint(ds));
+    }
+
+    @Test
+    public void fingerprintSeparatesFields() {
+        DeviceSync a = makeSync("01");
+        a.profileId = "ab";
+        a.friendlyName = "c";
+
+        DeviceSync b = makeSync("01");
+        b.profileId = "a";
+        b.friendlyName = "bc";
+
+        assertNotEquals(SnapshotReconciler.fingerprint(a), SnapshotReconciler.fingerprint(b));
+    }
+
+    private static DeviceSync makeSync(String value) {
+        DeviceSync ds = new DeviceSync();
+        ds.setDeviceId("device-001");
+        ds.profileId = "profile-001";
+        ds.status = new DeviceStatus();
+        ds.status.available = true;
+        ds.status.rssi = -40;
+        ds.attributes = new DeviceSync.AttributeEntry[] {
+                new DeviceSync.AttributeEntry(100, "00"),
+                new DeviceSync.AttributeEntry(200, value),
+        };
+        return ds;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAckIndexTest {
+
+    private final WriteAckIndex mIndex = new WriteAckIndex();
+    private final ArrayList<String> mAcks = new ArrayList<>();
+
+    @Test
+    public void resolveNotifiesOnlyMatchingListeners() {
+        mIndex.register("device-1", 7, listener("a"), 1, TimeUnit.MINUTES);
+        mIndex.register("device-1", 8, listener("b"), 1, TimeUnit.MINUTES);
+
+        assertEquals(1, mIndex.resolve("device-1", 7, AttributeWriter.Result.Status.SUCCESS));
+
+        assertEquals(1, mAcks.size());
+        assertEquals("a:7:SUCCESS", mAcks.get(0));
+        assertEquals(1, mIndex.size());
+        assertEquals(0, mIndex.resolve("device-1", 7, AttributeWriter.Result.Status.SUCCESS));
+    }
+
+    @Test
+    public void coalescedWritersShareRequestId() {
+        mIndex.register("device-1", 7, listener("a"), 1, TimeUnit.MINUTES);
+        mIndex.register("device-1", 7, listener("b"), 1, TimeUnit.MINUTES);
+        mIndex.register("device-2", 7, listener("c"), 1, TimeUnit.MINUTES);
+
+        assertEquals(2, mIndex.resolve("device-1", 7, AttributeWriter.Result.Status.FAILURE));
+
+        assertEquals(2, mAcks.size());
+        assertTrue(mAcks.contains("a:7:FAILURE"));
+        assertTrue(mAcks.contains("b:7:FAILURE"));
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void removeDropsListenerWithoutNotifying() {
+        WriteAckIndex.Listener a = listener("a");
+        mIndex.register("device-1", 7, a, 1, TimeUnit.MINUTES);
+        mIndex.register("device-1", 7, listener("b"), 1, TimeUnit.MINUTES);
+
+        assertTrue(mIndex.remove(7, a));
+        assertFalse(mIndex.remove(7, a));
+
+        assertEquals(1, mIndex.resolve("device-1", 7, AttributeWriter.Result.Status.SUCCESS));
+        assertEquals("b:7:SUCCESS", mAcks.get(0));
+        assertEquals(0, mIndex.size());
+    }
+
+    @Test
+    public void unresolvedEntriesExpire() throws InterruptedException {
+        mIndex.register("device-1", 7, listener("a"), 1, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 50 && mIndex.size() != 0; ++i) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, mIndex.size());
+        assertTrue(mAcks.isEmpty());
+    }
+
+    private WriteAckIndex.Listener listener(final String name) {
+        return new WriteAckIndex.Listener() {
+            @Override
+            public void onWriteAck(int requestId, AttributeWriter.Result.Status status) {
+                mAcks.add(name + ":" + requestId + ":" + status);
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteBatchStatsTest {
+
+    private final WriteBatchStats mStats = new WriteBatchStats();
+
+    @Test
+    public void startsAtDefaultBatchSize() {
+        assertEquals(AttributeWriter.REQUEST_BATCH_SIZE, mStats.getBatchSize());
+        assertEquals(0, mStats.getBatchCount());
+        assertEquals(-1, mStats.getLastLatencyMillis());
+        assertEquals(-1, mStats.getAverageLatencyMillis());
+    }
+
+    @Test
+    public void growsAdditivelyUpToMax() {
+        mStats.onBatchResponse(100, false);
+        assertEquals(AttributeWriter.REQUEST_BATCH_SIZE + 1, mStats.getBatchSize());
+
+        for (int i = 0; i < WriteBatchStats.MAX_BATCH_SIZE * 2; ++i) {
+            mStats.onBatchResponse(100, false);
+        }
+        assertEquals(WriteBatchStats.MAX_BATCH_SIZE, mStats.getBatchSize());
+    }
+
+    @Test
+    public void halvesOnBackoffDownToMin() {
+        mStats.onBatchResponse(100, false);
+        mStats.onBatchResponse(100, true);
+        assertEquals((AttributeWriter.REQUEST_BATCH_SIZE + 1) / 2, mStats.getBatchSize());
+
+        for (int i = 0; i < 10; ++i) {
+            mStats.onBackoff();
+        }
+        assertEquals(WriteBatchStats.MIN_BATCH_SIZE, mStats.getBatchSize());
+        assertEquals(11, mStats.getBackoffCount());
+    }
+
+    @Test
+    public void tracksLatency() {
+        mStats.onBatchResponse(100, false);
+        mStats.onBatchResponse(200, false);
+
+        assertEquals(2, mStats.getBatchCount());
+        assertEquals(200, mStats.getLastLatencyMillis());
+        assertEquals(200, mStats.getMaxLatencyMillis());
+        assertEquals(120, mStats.getAverageLatencyMillis());
+    }
+}
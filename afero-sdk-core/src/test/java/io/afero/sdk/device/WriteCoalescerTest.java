@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.device;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.afero.sdk.client.afero.models.WriteRequest;
+import io.afero.sdk.client.afero.models.WriteResponse;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteCoalescerTest {
+
+    private final ArrayList<WriteRequest[]> mSent = new ArrayList<>();
+    private int mRequestId;
+
+    private final WriteCoalescer mCoalescer = new WriteCoalescer(new WriteCoalescer.Sender() {
+        @Override
+        public Observable<WriteResponse[]> send(WriteRequest[] requests, int retryCount, int statusCode) {
+            mSent.add(requests);
+
+            WriteResponse[] responses = new WriteResponse[requests.length];
+            for (int i = 0; i < responses.length; ++i) {
+                responses[i] = new WriteResponse();
+                responses[i].requestId = ++mRequestId;
+                responses[i].status = WriteResponse.STATUS_SUCCESS;
+            }
+            return Observable.just(responses);
+        }
+    }, 3);
+
+    @Test
+    public void zeroWindowSendsImmediately() {
+        mCoalescer.write(Arrays.asList(new WriteRequest(1, "1")), 0, 0);
+
+        assertEquals(1, mSent.size());
+    }
+
+    @Test
+    public void mergesWritesLastValueWins() {
+        mCoalescer.setWindow(1, TimeUnit.HOURS);
+
+        TestSubscriber<WriteResponse[]> first = write(new WriteRequest(1, "1"), new WriteRequest(2, "2"));
+        TestSubscriber<WriteResponse[]> second = write(new WriteRequest(2, "3"));
+        assertEquals(0, mSent.size());
+
+        mCoalescer.flush();
+
+        assertEquals(1, mSent.size());
+        assertEquals(2, mSent.get(0).length);
+        assertEquals("3", mSent.get(0)[1].value);
+
+        first.assertCompleted();
+        second.assertCompleted();
+        WriteResponse[] firstResponses = first.getOnNextEvents().get(0);
+        WriteResponse[] secondResponses = second.getOnNextEvents().get(0);
+        assertEquals(2, firstResponses.length);
+        assertEquals(1, secondResponses.length);
+        assertEquals(firstResponses[1].requestId, secondResponses[0].requestId);
+    }
+
+    @Test
+    public void fullBatchIsSentEarly() {
+        mCoalescer.setWindow(1, TimeUnit.HOURS);
+
+        write(new WriteRequest(1, "1"), new WriteRequest(2, "2"));
+        write(new WriteRequest(3, "3"), new WriteRequest(4, "4"));
+
+        assertEquals(1, mSent.size());
+        assertEquals(2, mSent.get(0).length);
+
+        mCoalescer.flush();
+        assertEquals(2, mSent.size());
+    }
+
+    private TestSubscriber<WriteResponse[]> write(WriteRequest... requests) {
+        TestSubscriber<WriteResponse[]> subscriber = new TestSubscriber<>();
+        mCoalescer.write(Arrays.asList(requests), 0, 0).subscribe(subscriber);
+        return subscriber;
+    }
+}
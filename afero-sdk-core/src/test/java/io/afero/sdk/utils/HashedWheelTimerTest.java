@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import rx.functions.Action0;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 8;
+
+    private long mNow = 1000;
+    private HashedWheelTimer mTimer;
+    private final ArrayList<String> mFired = new ArrayList<>();
+
+    @Before
+    public void beforeTests() {
+        Clock.setClockImpl(new Clock.ClockImpl() {
+            @Override
+            public long getElapsedMillis() {
+                return mNow;
+            }
+        });
+        mTimer = new HashedWheelTimer(TICK_MILLIS, WHEEL_SIZE, false);
+    }
+
+    @After
+    public void afterTests() {
+        Clock.setClockImpl(new Clock.ClockImpl() {
+            @Override
+            public long getElapsedMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            }
+        });
+    }
+
+    @Test
+    public void firesNoEarlierThanRequested() {
+        mTimer.schedule(record("a"), 25, TimeUnit.MILLISECONDS);
+
+        advance(20);
+        assertTrue(mFired.isEmpty());
+
+        advance(10);
+        assertEquals(1, mFired.size());
+        assertEquals(0, mTimer.getPendingCount());
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() {
+        HashedWheelTimer.Timeout a = mTimer.schedule(record("a"), 10, TimeUnit.MILLISECONDS);
+        mTimer.schedule(record("b"), 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(a.cancel());
+        assertFalse(a.cancel());
+        assertFalse(a.isPending());
+
+        advance(10);
+        assertEquals(1, mFired.size());
+        assertEquals("b", mFired.get(0));
+    }
+
+    @Test
+    public void timeoutsBeyondOneTurnWaitForTheirRound() {
+        final long oneTurn = TICK_MILLIS * WHEEL_SIZE;
+        HashedWheelTimer.Timeout timeout = mTimer.schedule(record("a"), oneTurn * 2 + TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < WHEEL_SIZE * 2; ++i) {
+            advance(TICK_MILLIS);
+        }
+        assertTrue(mFired.isEmpty());
+        assertTrue(timeout.isPending());
+
+        advance(TICK_MILLIS);
+        assertEquals(1, mFired.size());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void catchesUpAfterLongGap() {
+        mTimer.schedule(record("a"), 10, TimeUnit.MILLISECONDS);
+        mTimer.schedule(record("b"), 50, TimeUnit.MILLISECONDS);
+        mTimer.schedule(record("c"), 10, TimeUnit.SECONDS);
+
+        advance(TICK_MILLIS * WHEEL_SIZE * 3);
+
+        assertEquals(2, mFired.size());
+        assertEquals(1, mTimer.getPendingCount());
+    }
+
+    @Test
+    public void throwingActionDoesNotStopOthers() {
+        mTimer.schedule(new Action0() {
+            @Override
+            public void call() {
+                throw new IllegalStateException();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        mTimer.schedule(record("a"), 10, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, advance(10));
+        assertEquals(1, mFired.size());
+    }
+
+    private int advance(long millis) {
+        mNow += millis;
+        return mTimer.expireTimeouts();
+    }
+
+    private Action0 record(final String name) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mFired.add(name);
+            }
+        };
+    }
+}
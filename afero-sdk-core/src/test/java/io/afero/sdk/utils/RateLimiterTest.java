@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateLimiterTest {
+
+    private long mNow = 1000;
+
+    @Before
+    public void beforeTests() {
+        Clock.setClockImpl(new Clock.ClockImpl() {
+            @Override
+            public long getElapsedMillis() {
+                return mNow;
+            }
+        });
+    }
+
+    @After
+    public void afterTests() {
+        Clock.setClockImpl(new Clock.ClockImpl() {
+            @Override
+            public long getElapsedMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            }
+        });
+    }
+
+    @Test
+    public void unlimitedNeverWaits() {
+        RateLimiter limiter = new RateLimiter(0, 1);
+
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(0, limiter.reserve(10));
+        }
+    }
+
+    @Test
+    public void burstThenSpacedByRate() {
+        RateLimiter limiter = new RateLimiter(10, 2);
+
+        assertEquals(0, limiter.reserve(1));
+        assertEquals(0, limiter.reserve(1));
+        assertEquals(100, limiter.reserve(1));
+        assertEquals(200, limiter.reserve(1));
+
+        mNow += 300;
+        assertEquals(0, limiter.reserve(1));
+    }
+
+    @Test
+    public void refillIsCappedAtBurst() {
+        RateLimiter limiter = new RateLimiter(10, 2);
+
+        mNow += 60000;
+        assertEquals(0, limiter.reserve(2));
+        assertEquals(100, limiter.reserve(1));
+    }
+
+    @Test
+    public void setRateAppliesToLaterReservations() {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        limiter.setRate(1);
+
+        assertEquals(0, limiter.reserve(1));
+        assertEquals(1000, limiter.reserve(1));
+    }
+}
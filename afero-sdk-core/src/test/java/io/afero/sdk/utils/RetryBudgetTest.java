@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2014-2017 Afero, Inc. All rights reserved.
+ */
+
+package io.afero.sdk.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void reserveIsSpentThenRefilledByRequests() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+
+        budget.onRequest();
+        assertFalse(budget.tryAcquireRetry());
+        budget.onRequest();
+        assertTrue(budget.tryAcquireRetry());
+
+        assertEquals(3, budget.getRetryCount());
+        assertEquals(2, budget.getDeniedCount());
+    }
+
+    @Test
+    public void retriesStayWithinRatioOfRequests() {
+        RetryBudget budget = new RetryBudget(0.2, 1);
+        assertTrue(budget.tryAcquireRetry());
+
+        int retries = 0;
+        for (int i = 0; i < 1000; ++i) {
+            budget.onRequest();
+            if (budget.tryAcquireRetry()) {
+                ++retries;
+            }
+        }
+
+        assertEquals(200, retries);
+    }
+}